@@ -0,0 +1,109 @@
+package org.example.benchmarks;
+
+import org.example.CopyOptions;
+import org.example.FileJobEngine;
+import org.example.FileManagerService;
+import org.example.TreeCopier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying one small file, one huge file and a tree of many small files, with the
+ * plain {@link Files#copy} the service started with as the baseline. Every
+ * invocation copies into a fresh target, so these are single-shot style timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CopyBenchmark {
+    private static final FileJobEngine.ItemProgress NO_PROGRESS = new FileJobEngine.ItemProgress() {
+        @Override
+        public void addBytes(long bytes) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    /**
+     * Size of the huge file in MB. Past 256 it goes through the resumable chunked copy.
+     */
+    @Param({"64"})
+    public int hugeFileMegabytes;
+
+    private Path root;
+    private Path smallFile;
+    private Path hugeFile;
+    private Path tree;
+    private Path target;
+    private FileManagerService service;
+    private TreeCopier copier;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        root = Files.createTempDirectory("fileman-copy");
+        tree = SyntheticTrees.smallFiles(root, 20, 100);
+        smallFile = Files.list(tree.resolve("dir_0")).findFirst().orElseThrow();
+        hugeFile = SyntheticTrees.hugeFiles(root, 1, hugeFileMegabytes * 1024L * 1024).resolve("huge_0.bin");
+        service = new FileManagerService();
+        copier = new TreeCopier();
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanTarget() throws IOException {
+        target = root.resolve("target");
+        SyntheticTrees.delete(target);
+        Files.createDirectory(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        SyntheticTrees.delete(root);
+    }
+
+    @Benchmark
+    public void copySmallFileBaseline() throws IOException {
+        service.copyFile(smallFile.toString(), target.resolve("copy.dat").toString());
+    }
+
+    @Benchmark
+    public void copySmallFile() throws IOException {
+        copier.copyFile(smallFile, target.resolve("copy.dat"), CopyOptions.DEFAULT, NO_PROGRESS);
+    }
+
+    @Benchmark
+    public void copyHugeFileBaseline() throws IOException {
+        service.copyFile(hugeFile.toString(), target.resolve("copy.bin").toString());
+    }
+
+    @Benchmark
+    public void copyHugeFile() throws IOException {
+        copier.copyFile(hugeFile, target.resolve("copy.bin"), CopyOptions.DEFAULT, NO_PROGRESS);
+    }
+
+    @Benchmark
+    public void copyTree() throws IOException {
+        copier.copyTree(tree, target.resolve("tree"), CopyOptions.DEFAULT, NO_PROGRESS);
+    }
+}
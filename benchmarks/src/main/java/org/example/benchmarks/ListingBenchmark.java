@@ -0,0 +1,112 @@
+package org.example.benchmarks;
+
+import org.example.FileEntry;
+import org.example.FileManagerService;
+import org.example.FileNameIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing a wide directory, reading attributes, and searching names, both in one
+ * directory and through the recursive name index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({"1000", "20000"})
+    public int files;
+
+    private Path root;
+    private Path wide;
+    private List<Path> entries;
+    private FileManagerService service;
+    private FileNameIndex index;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("fileman-listing");
+        wide = SyntheticTrees.wide(root, files);
+        SyntheticTrees.deep(root, 30, 20);
+        SyntheticTrees.smallFiles(root, 50, 100);
+
+        entries = new ArrayList<>(files);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(wide)) {
+            stream.forEach(entries::add);
+        }
+        service = new FileManagerService();
+        index = new FileNameIndex(root.resolve("bench.idx"));
+        index.addRoot(root);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        SyntheticTrees.delete(root);
+    }
+
+    @Benchmark
+    public List<File> listFiles() {
+        return service.listFiles(wide.toString());
+    }
+
+    @Benchmark
+    public void streamDirectory(Blackhole blackhole) throws IOException {
+        service.streamDirectory(wide.toString(), FileManagerService.DEFAULT_BATCH_SIZE, blackhole::consume);
+    }
+
+    @Benchmark
+    public void readAttributesUncached(Blackhole blackhole) throws IOException {
+        for (Path entry : entries) {
+            blackhole.consume(Files.readAttributes(entry, BasicFileAttributes.class));
+        }
+    }
+
+    @Benchmark
+    public void readEntryCached(Blackhole blackhole) {
+        for (Path entry : entries) {
+            FileEntry fileEntry = service.readEntry(entry);
+            blackhole.consume(fileEntry);
+        }
+    }
+
+    @Benchmark
+    public List<File> searchFilesInDirectory() {
+        return service.searchFiles("report_1", wide.toString());
+    }
+
+    @Benchmark
+    public List<Path> searchIndexSubstring() {
+        return index.search("port_12", root, false, 10_000);
+    }
+
+    @Benchmark
+    public List<Path> searchIndexPrefix() {
+        return index.search("small_9", root, true, 10_000);
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.benchmarks;
+
+import org.example.FileEntry;
+import org.example.FileTableModel;
+import org.example.Formats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Paths;
+import java.text.CharacterIterator;
+import java.text.SimpleDateFormat;
+import java.text.StringCharacterIterator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting table rows and matching names, against the way it used to be done: a
+ * SimpleDateFormat and String.format per cell, and a lowered copy of every name per
+ * search. Run through {@link BenchmarkMain} so the gc profiler reports bytes allocated
+ * per operation; repainting a formatted table should show close to none.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderingBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private List<FileEntry> entries;
+    private long[] sizes;
+    private long[] dates;
+    private String[] names;
+    private FileTableModel painted;
+
+    @Setup(Level.Trial)
+    public void createEntries() {
+        Random random = new Random(42);
+        entries = new ArrayList<>(rows);
+        sizes = new long[rows];
+        dates = new long[rows];
+        names = new String[rows];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < rows; i++) {
+            names[i] = (i % 3 == 0 ? "Report_" : "file_") + i + (i % 2 == 0 ? ".PDF" : ".txt");
+            sizes[i] = random.nextLong() >>> (1 + random.nextInt(50));
+            dates[i] = now - (random.nextLong() >>> 30);
+            entries.add(new FileEntry(Paths.get("/bench", names[i]), names[i], sizes[i], dates[i], false));
+        }
+        painted = new FileTableModel();
+        painted.setEntries(entries);
+        paint(painted, null); // Every cell formatted once, like a table that has been scrolled through
+    }
+
+    private static void paint(FileTableModel model, Blackhole blackhole) {
+        for (int row = 0; row < model.getRowCount(); row++) {
+            for (int column = 0; column < model.getColumnCount(); column++) {
+                Object value = model.getValueAt(row, column);
+                if (blackhole != null) {
+                    blackhole.consume(value);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void repaintRows(Blackhole blackhole) {
+        paint(painted, blackhole);
+    }
+
+    @Benchmark
+    public void loadAndPaintRows(Blackhole blackhole) {
+        FileTableModel model = new FileTableModel();
+        model.setEntries(entries);
+        paint(model, blackhole);
+    }
+
+    @Benchmark
+    public void sortByName() {
+        painted.sortBy(FileTableModel.COLUMN_NAME);
+    }
+
+    @Benchmark
+    public void formatSizes(Blackhole blackhole) {
+        for (long size : sizes) {
+            blackhole.consume(Formats.size(size));
+        }
+    }
+
+    @Benchmark
+    public void formatSizesWithStringFormat(Blackhole blackhole) {
+        for (long size : sizes) {
+            blackhole.consume(formatSizeTheOldWay(size));
+        }
+    }
+
+    @Benchmark
+    public void formatDates(Blackhole blackhole) {
+        for (long date : dates) {
+            blackhole.consume(Formats.dateTime(date));
+        }
+    }
+
+    @Benchmark
+    public void formatDatesWithSimpleDateFormat(Blackhole blackhole) {
+        for (long date : dates) {
+            blackhole.consume(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(date)));
+        }
+    }
+
+    @Benchmark
+    public int matchNames() {
+        String query = Formats.fold("report_1");
+        int matches = 0;
+        for (String name : names) {
+            if (Formats.containsFolded(name, query)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int matchNamesWithToLowerCase() {
+        String query = "report_1".toLowerCase();
+        int matches = 0;
+        for (String name : names) {
+            if (name.toLowerCase().contains(query)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private static String formatSizeTheOldWay(long bytes) {
+        if (-1000 < bytes && bytes < 1000) {
+            return bytes + " B";
+        }
+        CharacterIterator ci = new StringCharacterIterator("kMGTPE");
+        while (bytes <= -999_950 || bytes >= 999_950) {
+            bytes /= 1000;
+            ci.next();
+        }
+        return String.format("%.1f %cB", bytes / 1000.0, ci.current());
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.benchmarks;
+
+import org.example.DirectorySizeEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursive directory sizing: the parallel engine with a cold and a warm cache,
+ * against the single-threaded recursion the UI used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SizeBenchmark {
+
+    @Param({"wide", "deep", "small"})
+    public String shape;
+
+    private Path root;
+    private Path tree;
+    private List<Path> directories;
+    private DirectorySizeEngine engine;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("fileman-size");
+        switch (shape) {
+            case "wide":
+                tree = SyntheticTrees.wide(root, 20_000);
+                break;
+            case "deep":
+                tree = SyntheticTrees.deep(root, 200, 10);
+                break;
+            default:
+                tree = SyntheticTrees.smallFiles(root, 100, 200);
+        }
+        directories = SyntheticTrees.directories(tree);
+        engine = new DirectorySizeEngine();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        SyntheticTrees.delete(root);
+    }
+
+    @Benchmark
+    public long engineCold() {
+        for (Path directory : directories) {
+            engine.invalidate(directory);
+        }
+        return engine.calculate(tree);
+    }
+
+    @Benchmark
+    public long engineWarm() {
+        return engine.calculate(tree);
+    }
+
+    @Benchmark
+    public long recursiveFileBaseline() {
+        return sizeOf(tree.toFile());
+    }
+
+    private static long sizeOf(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isFile() ? file.length() : sizeOf(file);
+            }
+        }
+        return size;
+    }
+}
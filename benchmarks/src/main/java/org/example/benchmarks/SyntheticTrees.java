@@ -0,0 +1,124 @@
+package org.example.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the directory shapes the benchmarks run against. Everything is made
+ * under one temporary root with a fixed seed, so runs see the same trees.
+ */
+public final class SyntheticTrees {
+    private static final long SEED = 42;
+
+    private SyntheticTrees() {
+    }
+
+    /**
+     * One directory holding {@code count} small files, named like real exports ("report_17.csv").
+     */
+    public static Path wide(Path parent, int count) throws IOException {
+        Path dir = Files.createDirectories(parent.resolve("wide"));
+        String[] extensions = {".csv", ".png", ".txt", ".log", ".json"};
+        byte[] content = new byte[512];
+        new Random(SEED).nextBytes(content);
+        for (int i = 0; i < count; i++) {
+            Files.write(dir.resolve("report_" + i + extensions[i % extensions.length]), content);
+        }
+        return dir;
+    }
+
+    /**
+     * A chain of {@code depth} nested directories with a few files at every level.
+     */
+    public static Path deep(Path parent, int depth, int filesPerLevel) throws IOException {
+        Path root = Files.createDirectories(parent.resolve("deep"));
+        byte[] content = new byte[1024];
+        Path dir = root;
+        for (int level = 0; level < depth; level++) {
+            for (int i = 0; i < filesPerLevel; i++) {
+                Files.write(dir.resolve("file_" + i + ".txt"), content);
+            }
+            dir = Files.createDirectory(dir.resolve("level_" + level));
+        }
+        return root;
+    }
+
+    /**
+     * {@code directories} sibling directories of {@code filesPerDirectory} files of 1-8 KB each.
+     */
+    public static Path smallFiles(Path parent, int directories, int filesPerDirectory) throws IOException {
+        Path root = Files.createDirectories(parent.resolve("small"));
+        Random random = new Random(SEED);
+        byte[] content = new byte[8192];
+        random.nextBytes(content);
+        for (int d = 0; d < directories; d++) {
+            Path dir = Files.createDirectory(root.resolve("dir_" + d));
+            for (int f = 0; f < filesPerDirectory; f++) {
+                try (OutputStream out = Files.newOutputStream(dir.resolve("small_" + f + ".dat"))) {
+                    out.write(content, 0, 1024 + random.nextInt(7 * 1024));
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * {@code count} files of {@code size} bytes of random data, so nothing can compress or dedupe them.
+     */
+    public static Path hugeFiles(Path parent, int count, long size) throws IOException {
+        Path root = Files.createDirectories(parent.resolve("huge"));
+        Random random = new Random(SEED);
+        byte[] block = new byte[1024 * 1024];
+        for (int i = 0; i < count; i++) {
+            try (OutputStream out = Files.newOutputStream(root.resolve("huge_" + i + ".bin"))) {
+                for (long written = 0; written < size; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(block.length, size - written));
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Every directory of the tree, the root included.
+     */
+    public static List<Path> directories(Path root) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                directories.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return directories;
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (Files.notExists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,393 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lets archives be browsed like folders. A path such as {@code /data/photos.zip!/2019/a.jpg}
+ * names an entry inside an archive: everything up to the {@code !} is the archive on
+ * disk, the rest is the entry. Zip and jar files are opened with the JDK's zip file
+ * system, which reads only the central directory; tar files (also gzipped) are indexed
+ * from their headers once. Nothing is extracted to list a folder, and copying out
+ * streams each entry straight to its destination.
+ *
+ * <p>Opened archives are kept, a few at a time, until the file on disk changes.
+ */
+public class ArchiveBrowser implements Closeable {
+    private static final String[] ZIP_SUFFIXES = {".zip", ".jar"};
+    private static final String[] TAR_SUFFIXES = {".tar", ".tar.gz", ".tgz"};
+    private static final int MAX_OPEN_ARCHIVES = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * One opened archive. Inner paths use '/' and have no leading or trailing slash; "" is the top.
+     */
+    public interface Archive extends Closeable {
+        /**
+         * The entry, or null when there is none. Folders report the size of all they hold.
+         */
+        Entry stat(String inner) throws IOException;
+
+        List<Entry> list(String inner) throws IOException;
+
+        /**
+         * Writes the entry, and for a folder everything in it, to {@code target}, which must not
+         * exist yet or be the empty placeholder a name was claimed with.
+         */
+        void extract(String inner, Path target, FileJobEngine.ItemProgress progress) throws IOException;
+    }
+
+    public static final class Entry {
+        private final String inner;
+        private final long size;
+        private final long lastModified;
+        private final boolean directory;
+
+        public Entry(String inner, long size, long lastModified, boolean directory) {
+            this.inner = inner;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.directory = directory;
+        }
+
+        public String getInner() {
+            return inner;
+        }
+
+        public String getName() {
+            return inner.substring(inner.lastIndexOf('/') + 1);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+    }
+
+    /**
+     * An archive path taken apart.
+     */
+    public static final class Location {
+        private final Path archive;
+        private final String inner;
+
+        Location(Path archive, String inner) {
+            this.archive = archive;
+            this.inner = inner;
+        }
+
+        public Path getArchive() {
+            return archive;
+        }
+
+        public String getInner() {
+            return inner;
+        }
+    }
+
+    private static final class Opened {
+        private final Archive archive;
+        private final long lastModified;
+        private final long size;
+
+        Opened(Archive archive, long lastModified, long size) {
+            this.archive = archive;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+
+    private final Map<Path, Opened> opened = new LinkedHashMap<>(16, 0.75f, true);
+
+    public static boolean isArchiveName(String name) {
+        return isZip(name) || isTar(name);
+    }
+
+    private static boolean isZip(String name) {
+        return endsWithAny(name, ZIP_SUFFIXES);
+    }
+
+    private static boolean isTar(String name) {
+        return endsWithAny(name, TAR_SUFFIXES);
+    }
+
+    private static boolean endsWithAny(String name, String[] suffixes) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : suffixes) {
+            if (lower.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isInsideArchive(String path) {
+        return locate(path) != null;
+    }
+
+    /**
+     * Splits an archive path into the archive and the entry, or returns null for an ordinary path.
+     */
+    public static Location locate(String path) {
+        for (int bang = path.indexOf('!'); bang >= 0; bang = path.indexOf('!', bang + 1)) {
+            boolean endsHere = bang + 1 == path.length() || path.charAt(bang + 1) == '/' || path.charAt(bang + 1) == File.separatorChar;
+            String archive = path.substring(0, bang);
+            if (endsHere && isArchiveName(archive)) {
+                String inner = path.substring(bang + 1).replace(File.separatorChar, '/');
+                return new Location(Paths.get(archive), trimSlashes(inner));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The path that names an entry of an archive, as {@link #locate} takes it apart again.
+     */
+    public static Path pathOf(Path archive, String inner) {
+        return Paths.get(archive + "!" + (inner.isEmpty() ? "" : File.separator + inner.replace('/', File.separatorChar)));
+    }
+
+    /**
+     * The path that shows an archive's top level.
+     */
+    public static String rootOf(String archivePath) {
+        return archivePath + "!";
+    }
+
+    private static String trimSlashes(String inner) {
+        int start = 0;
+        int end = inner.length();
+        while (start < end && inner.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && inner.charAt(end - 1) == '/') {
+            end--;
+        }
+        return inner.substring(start, end);
+    }
+
+    public List<FileEntry> list(String path) throws IOException {
+        Location location = requireLocation(path);
+        List<FileEntry> entries = new ArrayList<>();
+        for (Entry entry : open(location.archive).list(location.inner)) {
+            entries.add(new FileEntry(pathOf(location.archive, entry.inner), entry.getName(), entry.size,
+                    entry.lastModified, entry.directory));
+        }
+        return entries;
+    }
+
+    /**
+     * The entry at an archive path, or null when the archive has no such entry.
+     */
+    public FileEntry stat(String path) throws IOException {
+        Location location = requireLocation(path);
+        Entry entry = open(location.archive).stat(location.inner);
+        if (entry == null) {
+            return null;
+        }
+        String name = location.inner.isEmpty() ? location.archive.getFileName().toString() : entry.getName();
+        return new FileEntry(pathOf(location.archive, entry.inner), name, entry.size, entry.lastModified, entry.directory);
+    }
+
+    public void extract(String path, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+        Location location = requireLocation(path);
+        open(location.archive).extract(location.inner, target, progress);
+    }
+
+    private static Location requireLocation(String path) throws IOException {
+        Location location = locate(path);
+        if (location == null) {
+            throw new IOException("Not inside an archive: " + path);
+        }
+        return location;
+    }
+
+    private Archive open(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        // One opener at a time: the zip file system refuses to open the same file twice
+        synchronized (opened) {
+            Opened current = opened.get(key);
+            if (current != null && current.lastModified == attrs.lastModifiedTime().toMillis() && current.size == attrs.size()) {
+                return current.archive;
+            }
+            if (current != null) {
+                opened.remove(key);
+                closeQuietly(current.archive); // Changed on disk since it was opened
+            }
+            String name = key.getFileName().toString();
+            Archive archive = isZip(name) ? new ZipArchive(key) : new TarArchive(key);
+            opened.put(key, new Opened(archive, attrs.lastModifiedTime().toMillis(), attrs.size()));
+            Iterator<Opened> eldest = opened.values().iterator();
+            while (opened.size() > MAX_OPEN_ARCHIVES) {
+                closeQuietly(eldest.next().archive);
+                eldest.remove();
+            }
+            return archive;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (opened) {
+            for (Opened archive : opened.values()) {
+                closeQuietly(archive.archive);
+            }
+            opened.clear();
+        }
+    }
+
+    private static void closeQuietly(Archive archive) {
+        try {
+            archive.close();
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to close archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves an entry's path below the extraction target, refusing names like
+     * {@code ../../.bashrc} that would land outside it.
+     */
+    static Path safeResolve(Path target, String relative) throws IOException {
+        Path resolved = relative.isEmpty() ? target : target.resolve(relative).normalize();
+        if (!resolved.startsWith(target.normalize())) {
+            throw new IOException("Archive entry points outside the target: " + relative);
+        }
+        return resolved;
+    }
+
+    /**
+     * Streams an entry into a file, counting bytes and stopping when cancelled. The file is
+     * created, or overwritten when it is a placeholder or an earlier entry of the same name.
+     */
+    static void copyToFile(InputStream in, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (progress.isCancelled()) {
+                    throw new IOException("Extraction cancelled");
+                }
+                out.write(buffer, 0, read);
+                progress.addBytes(read);
+            }
+        }
+    }
+
+    /**
+     * A zip file through the JDK's zip file system, which keeps only the central directory in memory.
+     */
+    private static final class ZipArchive implements Archive {
+        private final FileSystem fileSystem;
+        // Folder totals, added up once from the central directory
+        private final Map<String, Long> directorySizes = new HashMap<>();
+
+        ZipArchive(Path file) throws IOException {
+            URI uri = URI.create("jar:" + file.toUri());
+            this.fileSystem = FileSystems.newFileSystem(uri, Map.of());
+            Files.walkFileTree(fileSystem.getPath("/"), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                    for (Path parent = entry.getParent(); parent != null; parent = parent.getParent()) {
+                        directorySizes.merge(innerOf(parent), attrs.size(), Long::sum);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        private static String innerOf(Path entry) {
+            return trimSlashes(entry.toString());
+        }
+
+        private Entry entryOf(Path entry, BasicFileAttributes attrs) {
+            String inner = innerOf(entry);
+            long size = attrs.isDirectory() ? directorySizes.getOrDefault(inner, 0L) : attrs.size();
+            return new Entry(inner, size, attrs.lastModifiedTime().toMillis(), attrs.isDirectory());
+        }
+
+        @Override
+        public Entry stat(String inner) throws IOException {
+            Path entry = fileSystem.getPath("/" + inner);
+            try {
+                return entryOf(entry, Files.readAttributes(entry, BasicFileAttributes.class));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public List<Entry> list(String inner) throws IOException {
+            List<Entry> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath("/" + inner))) {
+                for (Path entry : stream) {
+                    entries.add(entryOf(entry, Files.readAttributes(entry, BasicFileAttributes.class)));
+                }
+            }
+            return entries;
+        }
+
+        @Override
+        public void extract(String inner, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+            Path source = fileSystem.getPath("/" + inner);
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (progress.isCancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Files.createDirectories(safeResolve(target, source.relativize(dir).toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (progress.isCancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    Path destination = file.equals(source) ? target : safeResolve(target, source.relativize(file).toString());
+                    try (InputStream in = Files.newInputStream(file)) {
+                        copyToFile(in, destination, progress);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            fileSystem.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the basic attributes of recently seen paths so listing, search and
+ * refreshes share one stat per path. Entries are small fixed-size records, evicted
+ * least recently used first, dropped when the directory watcher reports a change,
+ * and re-read after a while in case the change happened somewhere unwatched.
+ */
+public class AttributeCache {
+    private static final int DEFAULT_MAX_ENTRIES = 200_000;
+    private static final long MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    static final int DIRECTORY = 1;
+    static final int REGULAR_FILE = 2;
+    static final int SYMBOLIC_LINK = 4;
+
+    private final PathLruMap<Attributes> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AttributeCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public AttributeCache(int maxEntries) {
+        this.entries = new PathLruMap<>(maxEntries, evictions::increment);
+    }
+
+    /**
+     * Cached attributes of one path: size, modification time and a few type flags, nothing else.
+     */
+    public static class Attributes {
+        private final long size;
+        private final long lastModified;
+        private final long loadedAt;
+        private final int flags;
+
+        Attributes(long size, long lastModified, int flags) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.flags = flags;
+            this.loadedAt = System.nanoTime();
+        }
+
+        static Attributes of(BasicFileAttributes attrs) {
+            int flags = (attrs.isDirectory() ? DIRECTORY : 0)
+                    | (attrs.isRegularFile() ? REGULAR_FILE : 0)
+                    | (attrs.isSymbolicLink() ? SYMBOLIC_LINK : 0);
+            return new Attributes(attrs.size(), attrs.lastModifiedTime().toMillis(), flags);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isDirectory() {
+            return (flags & DIRECTORY) != 0;
+        }
+
+        public boolean isRegularFile() {
+            return (flags & REGULAR_FILE) != 0;
+        }
+
+        public boolean isSymbolicLink() {
+            return (flags & SYMBOLIC_LINK) != 0;
+        }
+    }
+
+    /**
+     * Returns the attributes of a path, following links and falling back to the
+     * link itself when it is broken, or null when the path doesn't exist.
+     */
+    public Attributes get(Path path) throws IOException {
+        Attributes attributes;
+        synchronized (entries) {
+            attributes = entries.get(path);
+        }
+        if (attributes != null && System.nanoTime() - attributes.loadedAt < MAX_AGE_NANOS) {
+            hits.increment();
+            return attributes;
+        }
+        misses.increment();
+        return load(path);
+    }
+
+    /**
+     * Stats the path again and stores the result, for callers that need it current.
+     */
+    public Attributes load(Path path) throws IOException {
+        Attributes attributes;
+        try {
+            attributes = Attributes.of(Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            // Broken symbolic links can't be followed, so fall back to the link itself
+            try {
+                attributes = Attributes.of(Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+            } catch (NoSuchFileException ex) {
+                invalidate(path);
+                return null;
+            }
+        }
+        synchronized (entries) {
+            entries.put(path, attributes);
+        }
+        return attributes;
+    }
+
+    public void invalidate(Path path) {
+        synchronized (entries) {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Drops a directory and everything cached below it, for when the watcher lost track of it.
+     */
+    public void invalidateTree(Path directory) {
+        synchronized (entries) {
+            entries.removeTree(directory);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return String.format("%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions", size(), hitCount,
+                total - hitCount, total == 0 ? 0.0 : hitCount * 100.0 / total, getEvictions());
+    }
+}
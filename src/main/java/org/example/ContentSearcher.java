@@ -0,0 +1,340 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Finds files below a directory whose contents contain any of a set of terms,
+ * ignoring ASCII case. Files are read in large chunks and scanned as raw bytes:
+ * one term uses Boyer-Moore-Horspool, several use an Aho-Corasick automaton, so
+ * every file is read once however many terms there are. Files are spread over a
+ * work-stealing pool, and a semaphore over the chunk buffers caps how many bytes
+ * are in memory at once. Files with a NUL byte near the start are
+ * taken to be binary and skipped.
+ */
+public class ContentSearcher {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final long MAX_BYTES_IN_FLIGHT = 64L * 1024 * 1024;
+    private static final int MAX_QUEUED_FILES = 1024;
+    private static final int BINARY_PROBE_SIZE = 8192;
+
+    private static final byte[] FOLD = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Semaphore bufferPermits = new Semaphore((int) (MAX_BYTES_IN_FLIGHT / CHUNK_SIZE));
+    private final Queue<byte[]> idleBuffers = new ConcurrentLinkedQueue<>();
+
+    public ContentSearcher() {
+        int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("content-search-" + worker.getPoolIndex());
+            return worker;
+        }, null, true);
+    }
+
+    /**
+     * Splits a query into terms on '|', e.g. {@code "timeout | connection refused"}.
+     */
+    public static List<String> parseTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        for (String term : query.split("\\|")) {
+            if (!term.trim().isEmpty()) {
+                terms.add(term.trim());
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Searches every regular file below the directory and passes each matching file,
+     * with its size and modification time, to {@code onHit} from a pool thread as it
+     * is found. Blocks until the search is done, cancelled or has found {@code limit} files.
+     */
+    public void search(Path directory, List<String> terms, int limit, BiConsumer<Path, BasicFileAttributes> onHit,
+                       BooleanSupplier cancelled) throws IOException {
+        if (terms.isEmpty()) {
+            return;
+        }
+        Matcher matcher = terms.size() == 1 ? new HorspoolMatcher(terms.get(0)) : new AhoCorasickMatcher(terms);
+        AtomicInteger hits = new AtomicInteger();
+        BooleanSupplier stop = () -> cancelled.getAsBoolean() || hits.get() >= limit;
+        // Each queued file holds a permit, so a huge tree doesn't pile up tasks ahead of the scanners
+        Semaphore queued = new Semaphore(MAX_QUEUED_FILES);
+
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return stop.getAsBoolean() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (stop.getAsBoolean()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!attrs.isRegularFile() || attrs.size() < matcher.minLength()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        queued.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                    pool.execute(() -> {
+                        try {
+                            if (!stop.getAsBoolean() && scan(file, matcher, stop) && hits.incrementAndGet() <= limit) {
+                                onHit.accept(file, attrs);
+                            }
+                        } catch (IOException e) {
+                            // Unreadable files just aren't hits
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            queued.release();
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE; // Skip entries we aren't allowed to read
+                }
+            });
+        } finally {
+            // Getting every permit back means every queued file has been scanned
+            queued.acquireUninterruptibly(MAX_QUEUED_FILES);
+        }
+    }
+
+    private boolean scan(Path file, Matcher matcher, BooleanSupplier stop) throws IOException, InterruptedException {
+        bufferPermits.acquire();
+        byte[] buffer = idleBuffers.poll();
+        if (buffer == null) {
+            buffer = new byte[CHUNK_SIZE]; // Buffers are only allocated once a search needs them
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int overlap = matcher.maxLength() - 1;
+            int length = 0;
+            boolean first = true;
+            while (!stop.getAsBoolean()) {
+                int read = channel.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+                if (read <= 0) {
+                    return false;
+                }
+                int end = length + read;
+                if (first) {
+                    if (looksBinary(buffer, end)) {
+                        return false;
+                    }
+                    first = false;
+                }
+                if (matcher.find(buffer, 0, end)) {
+                    return true;
+                }
+                // Keep the tail so a match that straddles two chunks is still seen
+                length = Math.min(overlap, end);
+                System.arraycopy(buffer, end - length, buffer, 0, length);
+            }
+            return false;
+        } finally {
+            idleBuffers.add(buffer);
+            bufferPermits.release();
+        }
+    }
+
+    private static boolean looksBinary(byte[] buffer, int length) {
+        for (int i = 0, end = Math.min(length, BINARY_PROBE_SIZE); i < end; i++) {
+            if (buffer[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] foldedBytes(String term) {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = FOLD[bytes[i] & 0xff];
+        }
+        return bytes;
+    }
+
+    private interface Matcher {
+        boolean find(byte[] text, int from, int to);
+
+        int minLength();
+
+        int maxLength();
+    }
+
+    private static class HorspoolMatcher implements Matcher {
+        private final byte[] pattern;
+        private final int[] shift = new int[256];
+
+        HorspoolMatcher(String term) {
+            this.pattern = foldedBytes(term);
+            int m = pattern.length;
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) {
+                shift[pattern[i] & 0xff] = m - 1 - i;
+            }
+            // The text is folded as it is read, so both cases of a letter need the same shift
+            for (int c = 'A'; c <= 'Z'; c++) {
+                shift[c] = shift[FOLD[c] & 0xff];
+            }
+        }
+
+        @Override
+        public boolean find(byte[] text, int from, int to) {
+            int m = pattern.length;
+            int last = m - 1;
+            for (int position = from; position <= to - m; ) {
+                int j = last;
+                while (j >= 0 && FOLD[text[position + j] & 0xff] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return true;
+                }
+                position += shift[text[position + last] & 0xff];
+            }
+            return false;
+        }
+
+        @Override
+        public int minLength() {
+            return pattern.length;
+        }
+
+        @Override
+        public int maxLength() {
+            return pattern.length;
+        }
+    }
+
+    private static class AhoCorasickMatcher implements Matcher {
+        // Full transition table: one row of 256 next states per state, no failure links left at scan time
+        private final int[][] next;
+        private final boolean[] accepting;
+        private final int minLength;
+        private final int maxLength;
+
+        AhoCorasickMatcher(List<String> terms) {
+            List<int[]> transitions = new ArrayList<>();
+            List<Boolean> outputs = new ArrayList<>();
+            transitions.add(newRow());
+            outputs.add(false);
+            int shortest = Integer.MAX_VALUE;
+            int longest = 0;
+
+            for (String term : terms) {
+                byte[] pattern = foldedBytes(term);
+                shortest = Math.min(shortest, pattern.length);
+                longest = Math.max(longest, pattern.length);
+                int state = 0;
+                for (byte b : pattern) {
+                    int c = b & 0xff;
+                    if (transitions.get(state)[c] < 0) {
+                        transitions.get(state)[c] = transitions.size();
+                        transitions.add(newRow());
+                        outputs.add(false);
+                    }
+                    state = transitions.get(state)[c];
+                }
+                outputs.set(state, true);
+            }
+
+            int states = transitions.size();
+            next = transitions.toArray(new int[states][]);
+            accepting = new boolean[states];
+            int[] fail = new int[states];
+            for (int s = 0; s < states; s++) {
+                accepting[s] = outputs.get(s);
+            }
+
+            // Breadth-first, so a state's failure target is always finished before the state itself
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < 256; c++) {
+                if (next[0][c] < 0) {
+                    next[0][c] = 0;
+                } else {
+                    fail[next[0][c]] = 0;
+                    queue.add(next[0][c]);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                accepting[state] |= accepting[fail[state]];
+                for (int c = 0; c < 256; c++) {
+                    int child = next[state][c];
+                    if (child < 0) {
+                        next[state][c] = next[fail[state]][c];
+                    } else {
+                        fail[child] = next[fail[state]][c];
+                        queue.add(child);
+                    }
+                }
+            }
+            this.minLength = shortest;
+            this.maxLength = longest;
+        }
+
+        private static int[] newRow() {
+            int[] row = new int[256];
+            Arrays.fill(row, -1);
+            return row;
+        }
+
+        @Override
+        public boolean find(byte[] text, int from, int to) {
+            int state = 0;
+            for (int i = from; i < to; i++) {
+                state = next[state][FOLD[text[i] & 0xff] & 0xff];
+                if (accepting[state]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int minLength() {
+            return minLength;
+        }
+
+        @Override
+        public int maxLength() {
+            return maxLength;
+        }
+    }
+}
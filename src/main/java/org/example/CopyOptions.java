@@ -0,0 +1,25 @@
+package org.example;
+
+public class CopyOptions {
+    public static final CopyOptions DEFAULT = new CopyOptions(false, ResumableFileCopier.Verification.NONE);
+
+    private final boolean preserveAttributes;
+    private final ResumableFileCopier.Verification verification;
+
+    /**
+     * @param preserveAttributes keep modification times and permissions
+     * @param verification       checksum used to verify files large enough for the resumable copy
+     */
+    public CopyOptions(boolean preserveAttributes, ResumableFileCopier.Verification verification) {
+        this.preserveAttributes = preserveAttributes;
+        this.verification = verification;
+    }
+
+    public boolean isPreserveAttributes() {
+        return preserveAttributes;
+    }
+
+    public ResumableFileCopier.Verification getVerification() {
+        return verification;
+    }
+}
@@ -0,0 +1,248 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.BitSet;
+
+/**
+ * Brings a large file up to date in place by rewriting only the blocks that differ
+ * from the new version, instead of writing the whole file again. Both files are read
+ * block by block to find the changes; before anything is overwritten, the old bytes
+ * of those blocks go to an undo patch, so the update can be reversed and a crash in
+ * the middle of it rolled back.
+ *
+ * <p>Patch format: magic, old size, old modification time and block count, then per
+ * block its offset, length and old bytes.
+ */
+public class DeltaUpdater {
+    public static final long THRESHOLD = 16L * 1024 * 1024;
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int PATCH_MAGIC = 0x464D5031; // "FMP1"
+    private static final int PATCH_HEADER_SIZE = 4 + 8 + 8 + 4;
+    private static final int BLOCK_HEADER_SIZE = 8 + 4;
+
+    /**
+     * The blocks of {@code target} that differ from {@code source}, as found by {@link #compare}.
+     */
+    public static final class Delta {
+        private final Path source;
+        private final Path target;
+        private final long sourceSize;
+        private final long sourceModified;
+        private final long targetSize;
+        private final BitSet changed;
+
+        Delta(Path source, Path target, long sourceSize, long sourceModified, long targetSize, BitSet changed) {
+            this.source = source;
+            this.target = target;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.targetSize = targetSize;
+            this.changed = changed;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        /**
+         * Bytes the update writes into the target.
+         */
+        public long getBytesToWrite() {
+            return coveredBytes(sourceSize);
+        }
+
+        /**
+         * Bytes of the old version the undo patch keeps.
+         */
+        public long getBytesToSave() {
+            return coveredBytes(targetSize);
+        }
+
+        private long coveredBytes(long size) {
+            long bytes = 0;
+            for (int block = changed.nextSetBit(0); block >= 0; block = changed.nextSetBit(block + 1)) {
+                bytes += Math.max(0, Math.min(BLOCK_SIZE, size - (long) block * BLOCK_SIZE));
+            }
+            return bytes;
+        }
+
+        /**
+         * True when writing the changed blocks and their undo patch costs less than writing the whole file.
+         */
+        public boolean isWorthwhile() {
+            return getBytesToWrite() + getBytesToSave() < sourceSize;
+        }
+    }
+
+    /**
+     * Reads both files side by side and notes every block that differs, including the ones
+     * past the end of the shorter file. Bytes read from the source go to {@code progress}.
+     */
+    public Delta compare(Path source, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+        BasicFileAttributes sourceAttrs = Files.readAttributes(source, BasicFileAttributes.class);
+        ByteBuffer sourceBlock = ByteBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer targetBlock = ByteBuffer.allocate(BLOCK_SIZE);
+        BitSet changed = new BitSet();
+        long targetSize;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.READ)) {
+            long sourceSize = sourceAttrs.size();
+            targetSize = out.size();
+            long common = Math.min(sourceSize, targetSize);
+            long longest = Math.max(sourceSize, targetSize);
+            int blocks = (int) ((longest + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            for (int block = 0; block < blocks; block++) {
+                if (progress.isCancelled()) {
+                    throw new IOException("Sync cancelled: " + source);
+                }
+                long offset = (long) block * BLOCK_SIZE;
+                if (offset + BLOCK_SIZE > common && sourceSize != targetSize) {
+                    changed.set(block, blocks); // The tail, where the lengths differ, is written out as is
+                    progress.addBytes(sourceSize - Math.min(offset, sourceSize));
+                    break;
+                }
+                int length = (int) Math.min(BLOCK_SIZE, common - offset);
+                readBlock(in, sourceBlock, offset, length);
+                readBlock(out, targetBlock, offset, length);
+                if (!sourceBlock.equals(targetBlock)) {
+                    changed.set(block);
+                }
+                progress.addBytes(length);
+            }
+        }
+        return new Delta(source, target, sourceAttrs.size(), sourceAttrs.lastModifiedTime().toMillis(), targetSize, changed);
+    }
+
+    /**
+     * Writes the old contents of the blocks the delta changes to {@code patch} and forces it to disk.
+     */
+    public void writeUndoPatch(Delta delta, Path patch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Math.max(PATCH_HEADER_SIZE, BLOCK_HEADER_SIZE));
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        try (FileChannel target = FileChannel.open(delta.target, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(patch, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long targetSize = target.size();
+            if (targetSize != delta.targetSize) {
+                throw new IOException("File changed while it was being synced: " + delta.target);
+            }
+            int saved = 0;
+            for (int index = delta.changed.nextSetBit(0); index >= 0; index = delta.changed.nextSetBit(index + 1)) {
+                if ((long) index * BLOCK_SIZE < targetSize) {
+                    saved++;
+                }
+            }
+            header.clear();
+            header.putInt(PATCH_MAGIC).putLong(targetSize)
+                    .putLong(Files.getLastModifiedTime(delta.target).toMillis()).putInt(saved).flip();
+            writeFully(out, header);
+            for (int index = delta.changed.nextSetBit(0); index >= 0; index = delta.changed.nextSetBit(index + 1)) {
+                long offset = (long) index * BLOCK_SIZE;
+                if (offset >= targetSize) {
+                    break; // Past the old end there is nothing to keep
+                }
+                int length = (int) Math.min(BLOCK_SIZE, targetSize - offset);
+                readBlock(target, block, offset, length);
+                header.clear();
+                header.putLong(offset).putInt(length).flip();
+                writeFully(out, header);
+                writeFully(out, block);
+            }
+            out.force(true);
+        }
+    }
+
+    /**
+     * Writes the changed blocks of the source over the target and gives the target the
+     * source's length and modification time. Fails, before writing anything, when the
+     * source changed since it was compared.
+     */
+    public void apply(Delta delta, FileJobEngine.ItemProgress progress) throws IOException {
+        BasicFileAttributes now = Files.readAttributes(delta.source, BasicFileAttributes.class);
+        if (now.size() != delta.sourceSize || now.lastModifiedTime().toMillis() != delta.sourceModified) {
+            throw new IOException("File changed while it was being synced: " + delta.source);
+        }
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        try (FileChannel in = FileChannel.open(delta.source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(delta.target, StandardOpenOption.WRITE)) {
+            for (int index = delta.changed.nextSetBit(0); index >= 0; index = delta.changed.nextSetBit(index + 1)) {
+                if (progress.isCancelled()) {
+                    throw new IOException("Sync cancelled: " + delta.source);
+                }
+                long offset = (long) index * BLOCK_SIZE;
+                if (offset >= delta.sourceSize) {
+                    break;
+                }
+                readBlock(in, block, offset, (int) Math.min(BLOCK_SIZE, delta.sourceSize - offset));
+                while (block.hasRemaining()) {
+                    offset += out.write(block, offset);
+                }
+            }
+            if (out.size() > delta.sourceSize) {
+                out.truncate(delta.sourceSize);
+            }
+        }
+        Files.setLastModifiedTime(delta.target, FileTime.fromMillis(delta.sourceModified));
+    }
+
+    /**
+     * Puts back what an update overwrote, from the patch {@link #writeUndoPatch} made. Blocks
+     * the update never got to are written back unchanged, so this also repairs a half-done update.
+     */
+    public static void restore(Path target, Path patch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PATCH_HEADER_SIZE);
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        try (FileChannel in = FileChannel.open(patch, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            readBlock(in, header, 0, PATCH_HEADER_SIZE);
+            if (header.getInt() != PATCH_MAGIC) {
+                throw new IOException("Not an undo patch: " + patch);
+            }
+            long oldSize = header.getLong();
+            long oldModified = header.getLong();
+            int count = header.getInt();
+            long position = PATCH_HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                readBlock(in, header, position, BLOCK_HEADER_SIZE);
+                long offset = header.getLong();
+                int length = header.getInt();
+                if (length < 0 || length > BLOCK_SIZE) {
+                    throw new IOException("Damaged undo patch: " + patch);
+                }
+                readBlock(in, block, position + BLOCK_HEADER_SIZE, length);
+                position += BLOCK_HEADER_SIZE + length;
+                while (block.hasRemaining()) {
+                    offset += out.write(block, offset);
+                }
+            }
+            out.truncate(oldSize);
+            out.force(true);
+            Files.setLastModifiedTime(target, FileTime.fromMillis(oldModified));
+        }
+    }
+
+    // Reads exactly length bytes at the position, leaving the buffer flipped for reading
+    private static void readBlock(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File changed while it was being read");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Calculates recursive directory sizes on a work-stealing pool. Every directory
+ * is its own task, so sibling subtrees are walked in parallel, and each finished
+ * directory is cached by path and modification time so navigating back to a
+ * folder doesn't walk the same subtrees again.
+ *
+ * <p>A directory's modification time only changes when entries are added, removed or
+ * renamed, not when a file in it grows or something deeper changes. So a total is only
+ * trusted indefinitely in subtrees the directory watcher covers, whose changes invalidate
+ * it; anywhere else it is trusted for a short while, long enough for browsing back and
+ * forth, and walked afresh after that.
+ */
+public class DirectorySizeEngine {
+
+    public interface SizeListener {
+        /**
+         * Called from a background thread with the running total of a directory,
+         * and once more with {@code complete} set when the walk has finished.
+         */
+        void sizeUpdated(Path directory, long bytes, boolean complete);
+    }
+
+    private static final int MAX_CACHED_DIRECTORIES = 100_000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+    private static final long UNWATCHED_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService progressReporter;
+    private volatile Predicate<Path> watchedTree = directory -> false;
+    private final PathLruMap<CachedSize> cache = new PathLruMap<>(MAX_CACHED_DIRECTORIES, () -> { });
+
+    public DirectorySizeEngine() {
+        int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("dir-size-" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+        this.progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dir-size-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a new group of size calculations. Directories submitted to the
+     * returned request are reported to the listener until it is cancelled.
+     */
+    public SizeRequest newRequest(SizeListener listener) {
+        return new SizeRequest(listener);
+    }
+
+    /**
+     * Calculates the size of a directory on the calling thread's behalf and waits for the result.
+     */
+    public long calculate(Path directory) {
+        OperationMetrics.Sample sample = OperationMetrics.start(OperationMetrics.Operation.SIZE, directory);
+        SizeRequest request = new SizeRequest(null);
+        long size = pool.invoke(new SizeTask(directory, request, new AtomicLong()));
+        sample.end(size);
+        return size;
+    }
+
+    /**
+     * Tells the engine which subtrees have every change reported to {@link #invalidate}, so their
+     * cached totals can be trusted for as long as they are kept.
+     */
+    public void setWatchedTree(Predicate<Path> watchedTree) {
+        this.watchedTree = watchedTree;
+    }
+
+    public void invalidate(Path directory) {
+        synchronized (cache) {
+            for (Path path = directory; path != null; path = path.getParent()) {
+                cache.remove(path); // Every parent total includes this directory
+            }
+        }
+    }
+
+    /**
+     * Forgets the directory, its parents and everything cached below it, for a tree that
+     * moved away, was deleted, or whose changes were lost.
+     */
+    public void invalidateTree(Path directory) {
+        synchronized (cache) {
+            invalidate(directory);
+            cache.removeTree(directory);
+        }
+    }
+
+    private CachedSize cached(Path directory) {
+        synchronized (cache) {
+            return cache.get(directory);
+        }
+    }
+
+    private void store(Path directory, long lastModified, long size) {
+        synchronized (cache) {
+            cache.put(directory, new CachedSize(lastModified, size));
+        }
+    }
+
+    public class SizeRequest {
+        private final SizeListener listener;
+        private final Map<Path, AtomicLong> running = new ConcurrentHashMap<>();
+        private final ScheduledFuture<?> progress;
+        private volatile boolean cancelled;
+
+        private SizeRequest(SizeListener listener) {
+            this.listener = listener;
+            this.progress = listener == null ? null : progressReporter.scheduleWithFixedDelay(
+                    this::reportProgress, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        public void submit(Path directory) {
+            if (cancelled) {
+                return;
+            }
+            AtomicLong partial = new AtomicLong();
+            running.put(directory, partial);
+            pool.execute(new SizeTask(directory, this, partial) {
+                @Override
+                protected Long compute() {
+                    OperationMetrics.Sample sample = OperationMetrics.start(OperationMetrics.Operation.SIZE, directory);
+                    long size = super.compute();
+                    sample.end(size);
+                    running.remove(directory);
+                    if (!cancelled) {
+                        listener.sizeUpdated(directory, size, true);
+                    }
+                    return size;
+                }
+            });
+        }
+
+        /**
+         * Stops the walks of this request. Subtrees that already finished stay cached.
+         */
+        public void cancel() {
+            cancelled = true;
+            running.clear();
+            if (progress != null) {
+                progress.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void reportProgress() {
+            for (Map.Entry<Path, AtomicLong> entry : running.entrySet()) {
+                if (cancelled) {
+                    return;
+                }
+                listener.sizeUpdated(entry.getKey(), entry.getValue().get(), false);
+            }
+        }
+    }
+
+    private class SizeTask extends RecursiveTask<Long> {
+        private final Path directory;
+        private final SizeRequest request;
+        private final AtomicLong partial;
+
+        SizeTask(Path directory, SizeRequest request, AtomicLong partial) {
+            this.directory = directory;
+            this.request = request;
+            this.partial = partial;
+        }
+
+        @Override
+        protected Long compute() {
+            if (request.isCancelled()) {
+                return 0L;
+            }
+            long lastModified;
+            try {
+                lastModified = Files.getLastModifiedTime(directory).toMillis();
+            } catch (IOException e) {
+                return 0L;
+            }
+            CachedSize cachedSize = cached(directory);
+            if (cachedSize != null && cachedSize.lastModified == lastModified
+                    && (System.nanoTime() - cachedSize.storedAt < UNWATCHED_MAX_AGE_NANOS || watchedTree.test(directory))) {
+                partial.addAndGet(cachedSize.size);
+                return cachedSize.size;
+            }
+
+            List<Path> subdirectories = new ArrayList<>();
+            long filesSize = listChildren(subdirectories);
+
+            List<SizeTask> subtasks = new ArrayList<>(subdirectories.size());
+            for (Path subdirectory : subdirectories) {
+                subtasks.add(new SizeTask(subdirectory, request, partial));
+            }
+            long total = filesSize;
+            for (SizeTask subtask : ForkJoinTask.invokeAll(subtasks)) {
+                total += subtask.join();
+            }
+
+            // A cancelled walk only has part of the total
+            if (!request.isCancelled()) {
+                store(directory, lastModified, total);
+            }
+            return total;
+        }
+
+        // Walks only the immediate children; subdirectories become their own tasks. The listing is leaf I/O
+        // and goes through the mount limiter; no permit is held while the subtasks run.
+        private long listChildren(List<Path> subdirectories) {
+            long[] filesSize = new long[1];
+            try {
+                MountLimiter.shared().call(directory, () -> Files.walkFileTree(directory,
+                        EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (request.isCancelled()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        if (attrs.isDirectory()) {
+                            subdirectories.add(file);
+                        } else {
+                            filesSize[0] += attrs.size();
+                            partial.addAndGet(attrs.size());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE; // Skip entries we aren't allowed to read
+                    }
+                }));
+            } catch (IOException e) {
+                FileManagerLogger.logError("Failed to calculate size of: " + directory);
+            }
+            return filesSize[0];
+        }
+    }
+
+    private static class CachedSize {
+        private final long lastModified;
+        private final long size;
+        private final long storedAt;
+
+        CachedSize(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.storedAt = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The listings of recently seen directories, so going back to one, or into one that
+ * was prefetched, can show it without reading the disk.
+ *
+ * <p>A snapshot is only handed out while its directory's modification time is the one
+ * it was listed at, which catches entries added, removed or renamed behind our back.
+ * Edits to files inside don't touch the directory's time, so a snapshot also counts as
+ * fresh only while the directory is watched (change events patch it) or for a short
+ * while after it was listed; past that it is still shown, but should be checked.
+ */
+public class DirectorySnapshots {
+    public static final int MAX_ENTRIES = 20_000; // Bigger directories are always listed from disk
+    private static final int MAX_DIRECTORIES = 64;
+    private static final long FRESH_MILLIS = 30_000;
+
+    /**
+     * A copy of a directory's entries, and whether they can be trusted without checking.
+     */
+    public static final class Snapshot {
+        private final List<FileEntry> entries;
+        private final boolean fresh;
+
+        Snapshot(List<FileEntry> entries, boolean fresh) {
+            this.entries = entries;
+            this.fresh = fresh;
+        }
+
+        public List<FileEntry> getEntries() {
+            return entries;
+        }
+
+        public boolean isFresh() {
+            return fresh;
+        }
+    }
+
+    private static final class Stored {
+        private final Map<String, FileEntry> entries = new LinkedHashMap<>();
+        private final long listedAt = System.currentTimeMillis();
+        private long directoryModified;
+        private boolean watched;
+    }
+
+    private final LinkedHashMap<Path, Stored> snapshots = new LinkedHashMap<Path, Stored>(MAX_DIRECTORIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Stored> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+
+    /**
+     * Keeps a listing. {@code directoryModified} must be read before the listing started,
+     * so a change made while it ran makes the snapshot invalid rather than wrong.
+     */
+    public synchronized void put(Path directory, long directoryModified, List<FileEntry> entries, boolean watched) {
+        if (entries.size() > MAX_ENTRIES) {
+            return;
+        }
+        Stored stored = new Stored();
+        stored.directoryModified = directoryModified;
+        stored.watched = watched;
+        for (FileEntry entry : entries) {
+            stored.entries.put(entry.getName(), entry);
+        }
+        snapshots.put(directory, stored);
+    }
+
+    /**
+     * The snapshot of a directory if it still matches the directory, else null.
+     */
+    public Snapshot get(Path directory) {
+        synchronized (this) {
+            if (!snapshots.containsKey(directory)) {
+                return null;
+            }
+        }
+        long modified = modifiedTime(directory); // Stat outside the lock
+        synchronized (this) {
+            Stored stored = snapshots.get(directory);
+            if (stored == null) {
+                return null;
+            }
+            if (stored.directoryModified != modified) {
+                snapshots.remove(directory);
+                return null;
+            }
+            boolean fresh = stored.watched || System.currentTimeMillis() - stored.listedAt < FRESH_MILLIS;
+            return new Snapshot(new ArrayList<>(stored.entries.values()), fresh);
+        }
+    }
+
+    public synchronized boolean contains(Path directory) {
+        return snapshots.containsKey(directory);
+    }
+
+    /**
+     * Marks whether change events are arriving for the directory. A snapshot that stops
+     * being watched is only trusted for a short while from then on.
+     */
+    public synchronized void setWatched(Path directory, boolean watched) {
+        Stored stored = snapshots.get(directory);
+        if (stored != null) {
+            stored.watched = watched;
+        }
+    }
+
+    /**
+     * Patches the snapshot of the entry's directory with a change event: the new entry,
+     * or null when it was deleted. The directory's new time is taken along with it.
+     */
+    public void entryChanged(Path path, FileEntry entry) {
+        Path directory = path.getParent();
+        if (directory == null || !contains(directory)) {
+            return;
+        }
+        long modified = modifiedTime(directory);
+        synchronized (this) {
+            Stored stored = snapshots.get(directory);
+            if (stored == null) {
+                return;
+            }
+            String name = path.getFileName().toString();
+            if (entry == null) {
+                stored.entries.remove(name);
+            } else {
+                stored.entries.put(name, new FileEntry(entry.getPath(), name, entry.getSize(), entry.getLastModified(),
+                        entry.isDirectory()));
+            }
+            stored.directoryModified = modified;
+        }
+    }
+
+    public synchronized void invalidate(Path directory) {
+        snapshots.remove(directory);
+    }
+
+    public synchronized int size() {
+        return snapshots.size();
+    }
+
+    static long modifiedTime(Path directory) {
+        try {
+            return Files.getLastModifiedTime(directory).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the current directory and the indexed roots with a {@link WatchService}.
+ * Events are merged over a short window so a burst of changes (an unpacked archive,
+ * a git checkout) reaches listeners as one {@link ChangeBatch}.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    public interface ChangeListener {
+        /**
+         * Called on the watcher thread with every change seen during one window.
+         */
+        void changesDetected(ChangeBatch batch);
+    }
+
+    public static class ChangeBatch {
+        private final Set<Path> created;
+        private final Set<Path> deleted;
+        private final Set<Path> modified;
+        private final Set<Path> overflowed;
+
+        ChangeBatch(Set<Path> created, Set<Path> deleted, Set<Path> modified, Set<Path> overflowed) {
+            this.created = Collections.unmodifiableSet(created);
+            this.deleted = Collections.unmodifiableSet(deleted);
+            this.modified = Collections.unmodifiableSet(modified);
+            this.overflowed = Collections.unmodifiableSet(overflowed);
+        }
+
+        public Set<Path> getCreated() {
+            return created;
+        }
+
+        public Set<Path> getDeleted() {
+            return deleted;
+        }
+
+        public Set<Path> getModified() {
+            return modified;
+        }
+
+        /**
+         * Directories that lost events and should be re-listed from scratch.
+         */
+        public Set<Path> getOverflowed() {
+            return overflowed;
+        }
+    }
+
+    private enum Change { CREATED, DELETED, MODIFIED }
+
+    private static final long QUIET_PERIOD_MILLIS = 150;
+    private static final long MAX_WINDOW_MILLIS = 1000;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Set<Path> recursiveRoots = new HashSet<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private WatchKey currentDirectoryKey;
+    private volatile boolean closed;
+
+    public DirectoryWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "directory-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Watches the directory the user is looking at, replacing the previous one.
+     */
+    public synchronized void watchCurrentDirectory(Path directory) {
+        if (currentDirectoryKey != null && !isUnderRecursiveRoot(watchedDirectories.get(currentDirectoryKey))) {
+            currentDirectoryKey.cancel();
+            watchedDirectories.remove(currentDirectoryKey);
+        }
+        currentDirectoryKey = null;
+        try {
+            currentDirectoryKey = register(directory);
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to watch directory: " + directory);
+        }
+    }
+
+    /**
+     * True when changes to the directory's entries are being reported right now.
+     */
+    public synchronized boolean isWatched(Path directory) {
+        return isUnderRecursiveRoot(directory)
+                || (currentDirectoryKey != null && directory.equals(watchedDirectories.get(currentDirectoryKey)));
+    }
+
+    /**
+     * True when changes anywhere below the directory are being reported, not just to its own entries.
+     */
+    public boolean isTreeWatched(Path directory) {
+        return isUnderRecursiveRoot(directory);
+    }
+
+    /**
+     * Watches every directory below the root, including ones created later.
+     */
+    public void watchTree(Path root) {
+        synchronized (this) {
+            recursiveRoots.add(root);
+        }
+        registerTree(root);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    private synchronized WatchKey register(Path directory) throws IOException {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.put(key, directory);
+        return key;
+    }
+
+    private void registerTree(Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // Usually the OS limit on watches; what got registered keeps working
+            FileManagerLogger.logError("Failed to watch tree " + root + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized boolean isUnderRecursiveRoot(Path directory) {
+        if (directory == null) {
+            return false;
+        }
+        for (Path root : recursiveRoots) {
+            if (directory.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                WatchKey first = watchService.take();
+                Map<Path, Change> changes = new LinkedHashMap<>();
+                Set<Path> overflowed = new HashSet<>();
+                collect(first, changes, overflowed);
+
+                // Keep draining until things go quiet so a burst becomes one batch
+                long deadline = System.currentTimeMillis() + MAX_WINDOW_MILLIS;
+                WatchKey next;
+                while (System.currentTimeMillis() < deadline
+                        && (next = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(next, changes, overflowed);
+                }
+                deliver(changes, overflowed);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                FileManagerLogger.logError("Directory watcher failed: " + e);
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Map<Path, Change> changes, Set<Path> overflowed) {
+        Path directory;
+        synchronized (this) {
+            directory = watchedDirectories.get(key);
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed.add(directory);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                merge(changes, path, Change.CREATED);
+                if (isUnderRecursiveRoot(directory) && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    registerTree(path);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                merge(changes, path, Change.DELETED);
+            } else {
+                merge(changes, path, Change.MODIFIED);
+            }
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                watchedDirectories.remove(key); // The directory itself is gone
+            }
+        }
+    }
+
+    // Folds a new event into what we already know about the path in this window
+    private static void merge(Map<Path, Change> changes, Path path, Change change) {
+        Change previous = changes.get(path);
+        if (previous == null) {
+            changes.put(path, change);
+        } else if (previous == Change.CREATED && change == Change.DELETED) {
+            changes.remove(path); // Came and went within the window
+        } else if (previous == Change.DELETED && change == Change.CREATED) {
+            changes.put(path, Change.MODIFIED); // Replaced
+        } else if (previous != Change.CREATED) {
+            changes.put(path, change);
+        }
+    }
+
+    private void deliver(Map<Path, Change> changes, Set<Path> overflowed) {
+        if (changes.isEmpty() && overflowed.isEmpty()) {
+            return;
+        }
+        Set<Path> created = new HashSet<>();
+        Set<Path> deleted = new HashSet<>();
+        Set<Path> modified = new HashSet<>();
+        for (Map.Entry<Path, Change> entry : changes.entrySet()) {
+            switch (entry.getValue()) {
+                case CREATED:
+                    created.add(entry.getKey());
+                    break;
+                case DELETED:
+                    deleted.add(entry.getKey());
+                    break;
+                default:
+                    modified.add(entry.getKey());
+                    break;
+            }
+        }
+        ChangeBatch batch = new ChangeBatch(created, deleted, modified, overflowed);
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.changesDetected(batch);
+            } catch (RuntimeException e) {
+                FileManagerLogger.logError("Change listener failed: " + e);
+            }
+        }
+    }
+}
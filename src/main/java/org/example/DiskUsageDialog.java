@@ -0,0 +1,288 @@
+package org.example;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows where the space below a folder goes: a table of the current folder's children,
+ * biggest first, and a treemap of the same. Double-clicking a folder in either goes
+ * into it. A saved scan opens straight away and is kept up to date from change
+ * events while the window is open; Rescan reads everything again.
+ */
+public class DiskUsageDialog {
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final FileManagerController controller;
+    private final String directoryPath;
+    private final JDialog dialog;
+    private final ChildrenModel childrenModel = new ChildrenModel();
+    private final JTable table = new JTable(childrenModel);
+    private final TreemapPanel treemap = new TreemapPanel();
+    private final JLabel pathLabel = new JLabel();
+    private final JLabel statusLabel = new JLabel();
+    private final JButton upButton = new JButton("Up");
+    private final JButton rescanButton = new JButton("Rescan");
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refreshIfChanged());
+    private DiskUsageTree tree;
+    private int node;
+    private int shownVersion;
+    private SwingWorker<DiskUsageTree, Long> scanner;
+
+    public DiskUsageDialog(Frame owner, FileManagerController controller, String directoryPath) {
+        this.controller = controller;
+        this.directoryPath = directoryPath;
+        dialog = new JDialog(owner, "Disk Usage - " + directoryPath, false);
+        dialog.setLayout(new BorderLayout(8, 8));
+
+        JPanel top = new JPanel(new BorderLayout(8, 0));
+        top.add(upButton, BorderLayout.WEST);
+        top.add(pathLabel, BorderLayout.CENTER);
+        top.add(rescanButton, BorderLayout.EAST);
+        dialog.add(top, BorderLayout.NORTH);
+
+        table.setAutoCreateRowSorter(true);
+        table.getRowSorter().setSortKeys(List.of(new RowSorter.SortKey(1, SortOrder.DESCENDING)));
+        table.setDefaultRenderer(Long.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setHorizontalAlignment(RIGHT);
+                setText(FileManagerUI.humanReadableByteCountSI((Long) value));
+            }
+        });
+        table.setDefaultRenderer(Double.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setHorizontalAlignment(RIGHT);
+                setText(String.format(Locale.ROOT, "%.1f%%", (Double) value));
+            }
+        });
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(table), treemap);
+        split.setResizeWeight(0.4);
+        dialog.add(split, BorderLayout.CENTER);
+        dialog.add(statusLabel, BorderLayout.SOUTH);
+
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = table.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0) {
+                    int child = childrenModel.getNode(table.convertRowIndexToModel(row));
+                    if (tree.isDirectory(child)) {
+                        open(child);
+                    }
+                }
+            }
+        });
+        treemap.setOpenListener(this::open);
+        upButton.addActionListener(e -> open(tree.getParent(node)));
+        rescanButton.addActionListener(e -> scan());
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                close();
+            }
+        });
+
+        dialog.setSize(1000, 600);
+        dialog.setLocationRelativeTo(owner);
+    }
+
+    public void show() {
+        upButton.setEnabled(false);
+        rescanButton.setEnabled(false);
+        statusLabel.setText("Opening...");
+        dialog.setVisible(true);
+        new SwingWorker<DiskUsageTree, Void>() {
+            @Override
+            protected DiskUsageTree doInBackground() throws IOException {
+                return controller.loadDiskUsage(directoryPath);
+            }
+
+            @Override
+            protected void done() {
+                DiskUsageTree saved = null;
+                try {
+                    saved = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    FileManagerLogger.logError("Failed to read saved disk usage for " + directoryPath + ": " + e.getMessage());
+                }
+                if (saved == null) {
+                    scan();
+                } else if (dialog.isDisplayable()) {
+                    display(saved);
+                }
+            }
+        }.execute();
+    }
+
+    private void scan() {
+        if (scanner != null) {
+            return;
+        }
+        rescanButton.setEnabled(false);
+        AtomicLong files = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        scanner = new SwingWorker<DiskUsageTree, Long>() {
+            @Override
+            protected DiskUsageTree doInBackground() throws IOException {
+                return controller.scanDiskUsage(directoryPath, size -> {
+                    // Publishing every file would flood the EDT; every thousandth is plenty
+                    if (files.incrementAndGet() % 1000 == 0) {
+                        publish(bytes.addAndGet(size));
+                    } else {
+                        bytes.addAndGet(size);
+                    }
+                }, this::isCancelled);
+            }
+
+            @Override
+            protected void process(List<Long> chunks) {
+                statusLabel.setText("Scanning... " + files.get() + " files, "
+                        + FileManagerUI.humanReadableByteCountSI(chunks.get(chunks.size() - 1)));
+            }
+
+            @Override
+            protected void done() {
+                scanner = null;
+                if (isCancelled() || !dialog.isDisplayable()) {
+                    return;
+                }
+                try {
+                    display(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    FileManagerLogger.logError("Failed to scan disk usage of " + directoryPath + ": " + e.getMessage());
+                    statusLabel.setText("Scan failed: " + e.getMessage());
+                    rescanButton.setEnabled(true);
+                }
+            }
+        };
+        scanner.execute();
+    }
+
+    private void display(DiskUsageTree scanned) {
+        if (tree != null) {
+            controller.unfollowDiskUsage(tree); // The new scan has been saved in its place
+        }
+        tree = scanned;
+        controller.followDiskUsage(tree);
+        rescanButton.setEnabled(true);
+        open(0);
+        refreshTimer.start();
+    }
+
+    private void open(int directory) {
+        node = directory;
+        shownVersion = tree.getVersion();
+        childrenModel.setNode(directory);
+        treemap.setNode(tree, directory);
+        upButton.setEnabled(directory > 0);
+        pathLabel.setText(tree.getPath(directory).toString());
+        String scannedAt = Formats.dateMinutes(tree.getScannedAt());
+        statusLabel.setText(FileManagerUI.humanReadableByteCountSI(tree.getSize(directory)) + " in "
+                + tree.getFileCount(directory) + " files - scanned " + scannedAt + ", kept up to date since");
+    }
+
+    // Change events have updated the tree; show the folder again, or its nearest surviving parent
+    private void refreshIfChanged() {
+        if (tree == null || tree.getVersion() == shownVersion) {
+            return;
+        }
+        int directory = node;
+        while (directory > 0 && tree.isRemoved(directory)) {
+            directory = tree.getParent(directory);
+        }
+        open(directory);
+    }
+
+    private void close() {
+        refreshTimer.stop();
+        if (scanner != null) {
+            scanner.cancel(true);
+        }
+        if (tree != null) {
+            DiskUsageTree followed = tree;
+            controller.unfollowDiskUsage(followed);
+            // Saving a big tree takes a moment, so it happens off the EDT
+            new Thread(() -> {
+                try {
+                    controller.saveDiskUsage(followed);
+                } catch (IOException e) {
+                    FileManagerLogger.logError("Failed to save disk usage of " + followed.getRoot() + ": " + e.getMessage());
+                }
+            }, "disk-usage-save").start();
+        }
+    }
+
+    private class ChildrenModel extends AbstractTableModel {
+        private final String[] columns = {"Name", "Size", "Share", "Files", "Type"};
+        private int[] children = new int[0];
+        private long total;
+
+        void setNode(int directory) {
+            children = tree.getChildren(directory);
+            total = tree.getSize(directory);
+            fireTableDataChanged();
+        }
+
+        int getNode(int row) {
+            return children[row];
+        }
+
+        @Override
+        public int getRowCount() {
+            return children.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 1:
+                    return Long.class;
+                case 2:
+                    return Double.class;
+                case 3:
+                    return Integer.class;
+                default:
+                    return String.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            int child = children[row];
+            switch (column) {
+                case 0:
+                    return tree.getName(child);
+                case 1:
+                    return tree.getSize(child);
+                case 2:
+                    return total > 0 ? tree.getSize(child) * 100.0 / total : 0.0;
+                case 3:
+                    return tree.getFileCount(child);
+                default:
+                    return tree.isDirectory(child) ? "Folder" : "File";
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Every file and folder below a root with its size, held in parallel arrays rather
+ * than an object per node: a parent index, first-child and next-sibling indexes,
+ * a total size and file count, and the names packed into one char array. A million
+ * files take a few tens of megabytes.
+ *
+ * <p>Folder totals include everything below them. Changes are applied to single
+ * paths and the difference is carried up to the root, so the tree follows change
+ * events without being scanned again. Node 0 is the root. Nodes are never reused;
+ * a removed one is only unlinked, and saving leaves it out.
+ */
+public class DiskUsageTree {
+    private static final int MAGIC = 0x464D4455; // "FMDU"
+    private static final int NONE = -1;
+
+    private final Path root;
+    private long scannedAt;
+    private int count;
+    private int[] parents = new int[1024];
+    private int[] firstChildren = new int[1024];
+    private int[] nextSiblings = new int[1024];
+    private long[] sizes = new long[1024];
+    private int[] fileCounts = new int[1024];
+    private int[] nameStarts = new int[1025];
+    private char[] names = new char[16 * 1024];
+    private final BitSet directories = new BitSet();
+    private final BitSet removed = new BitSet();
+    private volatile int version; // Bumped on every change, so views know to repaint
+
+    private DiskUsageTree(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Walks the whole tree below the root. Symbolic links count as the link, not what it points to.
+     */
+    public static DiskUsageTree scan(Path root, LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        DiskUsageTree tree = new DiskUsageTree(root.toAbsolutePath().normalize());
+        tree.scannedAt = System.currentTimeMillis();
+        tree.add(NONE, tree.root.toString(), true, 0);
+        tree.scanInto(0, tree.root, progress, cancelled);
+        if (cancelled.getAsBoolean()) {
+            throw new IOException("Scan cancelled");
+        }
+        return tree;
+    }
+
+    // Walks a directory into the node that already stands for it
+    private void scanInto(int node, Path directory, LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        Deque<Integer> stack = new ArrayDeque<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (cancelled.getAsBoolean()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                stack.push(stack.isEmpty() ? node : add(stack.peek(), dir.getFileName().toString(), true, 0));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!stack.isEmpty()) {
+                    add(stack.peek(), file.getFileName().toString(), false, attrs.size());
+                    progress.accept(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE; // Skip what we aren't allowed to read
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                int finished = stack.pop();
+                if (!stack.isEmpty()) {
+                    sizes[stack.peek()] += sizes[finished];
+                    fileCounts[stack.peek()] += fileCounts[finished];
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Appends a node under the parent; a file's size counts towards the parent right away
+    private int add(int parent, String name, boolean directory, long size) {
+        ensureCapacity(count + 1, name.length());
+        int node = count++;
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        sizes[node] = size;
+        fileCounts[node] = directory ? 0 : 1;
+        directories.set(node, directory);
+        name.getChars(0, name.length(), names, nameStarts[node]);
+        nameStarts[node + 1] = nameStarts[node] + name.length();
+        if (parent != NONE) {
+            nextSiblings[node] = firstChildren[parent];
+            firstChildren[parent] = node;
+            if (!directory) {
+                sizes[parent] += size;
+                fileCounts[parent]++;
+            }
+        } else {
+            nextSiblings[node] = NONE;
+        }
+        return node;
+    }
+
+    private void ensureCapacity(int nodes, int nameLength) {
+        if (nodes > parents.length) {
+            int capacity = Math.max(nodes, parents.length * 2);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            fileCounts = Arrays.copyOf(fileCounts, capacity);
+            nameStarts = Arrays.copyOf(nameStarts, capacity + 1);
+        }
+        if (nameStarts[count] + nameLength > names.length) {
+            names = Arrays.copyOf(names, Math.max(nameStarts[count] + nameLength, names.length * 2));
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public long getScannedAt() {
+        return scannedAt;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public synchronized String getName(int node) {
+        return new String(names, nameStarts[node], nameStarts[node + 1] - nameStarts[node]);
+    }
+
+    public synchronized long getSize(int node) {
+        return sizes[node];
+    }
+
+    public synchronized int getFileCount(int node) {
+        return fileCounts[node];
+    }
+
+    public synchronized boolean isDirectory(int node) {
+        return directories.get(node);
+    }
+
+    public synchronized int getParent(int node) {
+        return parents[node];
+    }
+
+    public synchronized boolean isRemoved(int node) {
+        return removed.get(node);
+    }
+
+    public synchronized int[] getChildren(int node) {
+        int childCount = 0;
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            childCount++;
+        }
+        int[] children = new int[childCount];
+        int i = 0;
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            children[i++] = child;
+        }
+        return children;
+    }
+
+    public synchronized Path getPath(int node) {
+        Deque<String> segments = new ArrayDeque<>();
+        for (int current = node; current > 0; current = parents[current]) {
+            segments.push(getName(current));
+        }
+        Path path = root;
+        for (String segment : segments) {
+            path = path.resolve(segment);
+        }
+        return path;
+    }
+
+    public synchronized boolean covers(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(root);
+    }
+
+    // The node for a path below the root, or NONE
+    private int find(Path path) {
+        Path relative = root.relativize(path.toAbsolutePath().normalize());
+        int node = 0;
+        for (Path segment : relative) {
+            String name = segment.toString();
+            if (name.isEmpty()) {
+                continue;
+            }
+            int match = NONE;
+            for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+                if (nameEquals(child, name)) {
+                    match = child;
+                    break;
+                }
+            }
+            if (match == NONE) {
+                return NONE;
+            }
+            node = match;
+        }
+        return node;
+    }
+
+    private boolean nameEquals(int node, String name) {
+        int start = nameStarts[node];
+        int length = nameStarts[node + 1] - start;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (names[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies a created or modified path: a new file or folder is added (a folder with
+     * everything in it), a known file takes its new size. The difference goes up to the root.
+     */
+    public void pathChanged(Path path) {
+        change(path, false);
+    }
+
+    // A new folder is walked into a detached tree first, so painting doesn't wait on the walk
+    private void change(Path path, boolean replace) {
+        if (!covers(path) || path.toAbsolutePath().normalize().equals(root)) {
+            return;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            pathDeleted(path); // Already gone again
+            return;
+        }
+        DiskUsageTree subtree = null;
+        if (attrs.isDirectory() && (replace || !isKnownDirectory(path))) {
+            subtree = scanDetached(path);
+        }
+        apply(path, attrs, subtree);
+    }
+
+    private synchronized boolean isKnownDirectory(Path path) {
+        int node = find(path);
+        return node != NONE && directories.get(node);
+    }
+
+    private synchronized void apply(Path path, BasicFileAttributes attrs, DiskUsageTree subtree) {
+        int node = find(path);
+        if (node != NONE && directories.get(node) == attrs.isDirectory() && subtree == null) {
+            if (!attrs.isDirectory()) {
+                propagate(parents[node], attrs.size() - sizes[node], 0);
+                sizes[node] = attrs.size();
+                version++;
+            }
+            return; // A folder's own modify event says nothing its children's events won't
+        }
+        if (attrs.isDirectory() && subtree == null) {
+            return; // Taken out since we looked; whatever took it out accounts for what is there now
+        }
+        if (node != NONE) {
+            pathDeleted(path); // A file became a folder or the other way round, or a fresh walk replaces it
+        }
+        int parent = find(path.getParent());
+        if (parent == NONE || !directories.get(parent)) {
+            return;
+        }
+        if (!attrs.isDirectory()) {
+            add(parent, path.getFileName().toString(), false, attrs.size());
+            propagate(parents[parent], attrs.size(), 1);
+        } else {
+            int directory = graft(parent, subtree);
+            propagate(parent, sizes[directory], fileCounts[directory]);
+        }
+        version++;
+    }
+
+    private static DiskUsageTree scanDetached(Path directory) {
+        DiskUsageTree subtree = new DiskUsageTree(directory);
+        subtree.add(NONE, directory.getFileName().toString(), true, 0);
+        try {
+            subtree.scanInto(0, directory, bytes -> { }, () -> false);
+        } catch (IOException e) {
+            // Whatever was read is counted
+        }
+        return subtree;
+    }
+
+    // Copies a detached tree in under the parent; a walk adds parents before their children
+    private int graft(int parent, DiskUsageTree subtree) {
+        int[] nodes = new int[subtree.count];
+        for (int i = 0; i < subtree.count; i++) {
+            nodes[i] = add(i == 0 ? parent : nodes[subtree.parents[i]], subtree.getName(i), subtree.directories.get(i), 0);
+        }
+        // Totals as the walk counted them; the adds above only counted files into their parents
+        for (int i = 0; i < subtree.count; i++) {
+            sizes[nodes[i]] = subtree.sizes[i];
+            fileCounts[nodes[i]] = subtree.fileCounts[i];
+        }
+        return nodes[0];
+    }
+
+    /**
+     * Removes a path and everything below it, taking its size off every folder above.
+     */
+    public synchronized void pathDeleted(Path path) {
+        if (!covers(path)) {
+            return;
+        }
+        int node = find(path);
+        if (node <= 0) {
+            return;
+        }
+        int parent = parents[node];
+        propagate(parent, -sizes[node], -fileCounts[node]);
+        // Unlink from the parent's children; the subtree's nodes are simply no longer reachable
+        if (firstChildren[parent] == node) {
+            firstChildren[parent] = nextSiblings[node];
+        } else {
+            for (int child = firstChildren[parent]; child != NONE; child = nextSiblings[child]) {
+                if (nextSiblings[child] == node) {
+                    nextSiblings[child] = nextSiblings[node];
+                    break;
+                }
+            }
+        }
+        removed.set(node);
+        version++;
+    }
+
+    /**
+     * Throws the subtree away and reads it again, for when change events were lost.
+     */
+    public void rescan(Path directory) {
+        change(directory, true);
+    }
+
+    private void propagate(int node, long sizeDelta, int fileDelta) {
+        for (int current = node; current != NONE; current = parents[current]) {
+            sizes[current] += sizeDelta;
+            fileCounts[current] += fileDelta;
+        }
+    }
+
+    public static Path defaultSaveFile(Path root) {
+        String key = root.toAbsolutePath().normalize().toString();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return Paths.get(System.getProperty("user.home"), ".fileman", "usage", hex + ".dut");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+
+    /**
+     * Writes the tree in the order of a depth-first walk, removed nodes left out.
+     */
+    public synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(root.toString());
+            out.writeLong(scannedAt);
+            int[] newIndex = new int[count];
+            Arrays.fill(newIndex, NONE);
+            int live = 0;
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(0);
+            int[] order = new int[count];
+            while (!stack.isEmpty()) {
+                int node = stack.pop();
+                newIndex[node] = live;
+                order[live++] = node;
+                for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+                    stack.push(child);
+                }
+            }
+            out.writeInt(live);
+            for (int i = 0; i < live; i++) {
+                int node = order[i];
+                out.writeInt(node == 0 ? NONE : newIndex[parents[node]]);
+                out.writeBoolean(directories.get(node));
+                out.writeLong(sizes[node]);
+                out.writeInt(fileCounts[node]);
+                out.writeUTF(node == 0 ? "" : getName(node));
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a saved tree, or returns null when there is none for this root.
+     */
+    public static DiskUsageTree load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a disk usage file: " + file);
+            }
+            DiskUsageTree tree = new DiskUsageTree(Paths.get(in.readUTF()));
+            tree.scannedAt = in.readLong();
+            int nodes = in.readInt();
+            for (int i = 0; i < nodes; i++) {
+                int parent = in.readInt();
+                boolean directory = in.readBoolean();
+                long size = in.readLong();
+                int files = in.readInt();
+                String name = in.readUTF();
+                int node = tree.add(parent, i == 0 ? tree.root.toString() : name, directory, 0);
+                // Totals were saved as they were; don't add them up again
+                if (parent != NONE && !directory) {
+                    tree.fileCounts[parent]--;
+                }
+                tree.sizes[node] = size;
+                tree.fileCounts[node] = files;
+            }
+            return tree;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds files with identical contents below a directory in three stages, each
+ * run only on what the previous one could not tell apart:
+ * <ol>
+ *     <li>group by size, from the directory walk alone; a file with a unique size is never opened</li>
+ *     <li>hash the first and last few KB of each remaining file</li>
+ *     <li>hash the whole file, streamed, where those still collide</li>
+ * </ol>
+ * Hashing runs on a small pool of I/O threads. Paths that are already hard links
+ * to one file count once, since they take no extra space.
+ */
+public class DuplicateFinder {
+    private static final int EDGE_SIZE = 4096;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    public static class DuplicateGroup {
+        private final long size;
+        private final List<FileEntry> files;
+
+        DuplicateGroup(long size, List<FileEntry> files) {
+            this.size = size;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public List<FileEntry> getFiles() {
+            return files;
+        }
+
+        /**
+         * Bytes freed by keeping one copy and removing or linking the rest.
+         */
+        public long getWastedBytes() {
+            return size * (files.size() - 1);
+        }
+    }
+
+    private final ExecutorService pool;
+
+    public DuplicateFinder() {
+        int threads = Math.max(4, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        this.pool = IoExecutors.newExecutor("duplicate-hash", threads);
+    }
+
+    /**
+     * Returns the groups of identical files below the directory, the most wasted space first.
+     * Bytes read while hashing are reported to {@code progress}.
+     */
+    public List<DuplicateGroup> find(Path directory, FileJobEngine.ItemProgress progress) throws IOException {
+        Map<Long, List<FileEntry>> bySize = new HashMap<>();
+        Set<Object> fileKeys = new HashSet<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (progress.isCancelled()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                // Empty files are all "equal" but waste nothing; links are not the data they point to
+                if (!attrs.isRegularFile() || attrs.size() == 0) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Object fileKey = attrs.fileKey();
+                if (fileKey == null || fileKeys.add(fileKey)) {
+                    bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>(2)).add(FileEntry.of(file, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE; // Skip entries we aren't allowed to read
+            }
+        });
+
+        List<List<FileEntry>> candidates = new ArrayList<>();
+        for (List<FileEntry> sameSize : bySize.values()) {
+            if (sameSize.size() > 1) {
+                candidates.add(sameSize);
+            }
+        }
+        bySize.clear();
+
+        // A file no bigger than both edges together was hashed whole in the partial stage
+        candidates = regroup(candidates, entry -> hashEdges(entry, progress), progress);
+        List<List<FileEntry>> confirmed = new ArrayList<>();
+        List<List<FileEntry>> needFullHash = new ArrayList<>();
+        for (List<FileEntry> group : candidates) {
+            (group.get(0).getSize() <= 2L * EDGE_SIZE ? confirmed : needFullHash).add(group);
+        }
+        confirmed.addAll(regroup(needFullHash, entry -> hashWhole(entry, progress), progress));
+
+        List<DuplicateGroup> groups = new ArrayList<>(confirmed.size());
+        for (List<FileEntry> group : confirmed) {
+            groups.add(new DuplicateGroup(group.get(0).getSize(), group));
+        }
+        groups.sort(Comparator.comparingLong(DuplicateGroup::getWastedBytes).reversed());
+        return groups;
+    }
+
+    private interface Hasher {
+        ByteBuffer hash(FileEntry entry) throws IOException;
+    }
+
+    // Hashes every file of every group in parallel and splits each group by hash, dropping singletons
+    private List<List<FileEntry>> regroup(List<List<FileEntry>> groups, Hasher hasher,
+                                          FileJobEngine.ItemProgress progress) throws IOException {
+        List<List<Future<ByteBuffer>>> hashes = new ArrayList<>(groups.size());
+        for (List<FileEntry> group : groups) {
+            List<Future<ByteBuffer>> groupHashes = new ArrayList<>(group.size());
+            for (FileEntry entry : group) {
+                groupHashes.add(pool.submit(() -> progress.isCancelled() ? null
+                        : MountLimiter.shared().call(entry.getPath(), () -> hasher.hash(entry))));
+            }
+            hashes.add(groupHashes);
+        }
+
+        List<List<FileEntry>> result = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++) {
+            Map<ByteBuffer, List<FileEntry>> byHash = new LinkedHashMap<>();
+            for (int i = 0; i < groups.get(g).size(); i++) {
+                ByteBuffer hash;
+                try {
+                    hash = hashes.get(g).get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while looking for duplicates");
+                } catch (ExecutionException e) {
+                    continue; // A file we can't read can't be proven a duplicate
+                }
+                if (hash != null) {
+                    byHash.computeIfAbsent(hash, key -> new ArrayList<>(2)).add(groups.get(g).get(i));
+                }
+            }
+            for (List<FileEntry> sameHash : byHash.values()) {
+                if (sameHash.size() > 1) {
+                    result.add(sameHash);
+                }
+            }
+        }
+        if (progress.isCancelled()) {
+            throw new IOException("Duplicate search cancelled");
+        }
+        return result;
+    }
+
+    private static ByteBuffer hashEdges(FileEntry entry, FileJobEngine.ItemProgress progress) throws IOException {
+        MessageDigest digest = sha256();
+        long size = entry.getSize();
+        try (FileChannel channel = FileChannel.open(entry.getPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 2L * EDGE_SIZE));
+            if (size <= 2L * EDGE_SIZE) {
+                readFully(channel, buffer, 0);
+            } else {
+                buffer.limit(EDGE_SIZE);
+                readFully(channel, buffer, 0);
+                buffer.limit(2 * EDGE_SIZE);
+                readFully(channel, buffer, size - EDGE_SIZE);
+            }
+            buffer.flip();
+            progress.addBytes(buffer.remaining());
+            digest.update(buffer);
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static ByteBuffer hashWhole(FileEntry entry, FileJobEngine.ItemProgress progress) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(entry.getPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                if (progress.isCancelled()) {
+                    return null;
+                }
+                buffer.flip();
+                progress.addBytes(buffer.remaining());
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("File changed while it was being read");
+            }
+        }
+    }
+
+    /**
+     * Replaces every file of the group except {@code keep} with a hard link to it. Each link
+     * is made under a temporary name first; the duplicate then goes to the trash and the link
+     * takes its place, both journaled in {@code transaction} so undo puts the file back. Where
+     * the trash isn't available the link is moved straight over the duplicate, for good.
+     * Returns the bytes freed once the trash is emptied.
+     */
+    public long hardlinkDuplicates(DuplicateGroup group, Path keep, OperationJournal.Transaction transaction) throws IOException {
+        checkUnchanged(group, keep);
+        long freed = 0;
+        for (FileEntry entry : group.getFiles()) {
+            Path duplicate = entry.getPath();
+            if (duplicate.equals(keep)) {
+                continue;
+            }
+            Path link = duplicate.resolveSibling(duplicate.getFileName() + ".fmlink");
+            Files.createLink(link, keep);
+            try {
+                if (transaction.trash(duplicate)) {
+                    // Undone like a copy: the link goes first, then the duplicate comes back from the trash
+                    transaction.recordCopy(keep, duplicate);
+                    Files.move(link, duplicate, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    transaction.recordDelete(duplicate);
+                    Files.move(link, duplicate, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(link);
+                throw e;
+            }
+            freed += group.getSize();
+            FileManagerLogger.logInfo("Replaced duplicate " + duplicate + " with a hard link to " + keep);
+        }
+        return freed;
+    }
+
+    /**
+     * Moves every file of the group except {@code keep} to the trash through {@code transaction},
+     * or deletes it for good, journaled, where the trash isn't available. Returns the bytes
+     * freed once the trash is emptied.
+     */
+    public long deleteDuplicates(DuplicateGroup group, Path keep, OperationJournal.Transaction transaction) throws IOException {
+        checkUnchanged(group, keep);
+        long freed = 0;
+        for (FileEntry entry : group.getFiles()) {
+            Path duplicate = entry.getPath();
+            if (duplicate.equals(keep)) {
+                continue;
+            }
+            if (!transaction.trash(duplicate)) {
+                transaction.recordDelete(duplicate);
+                Files.delete(duplicate);
+            }
+            freed += group.getSize();
+            FileManagerLogger.logInfo("Deleted duplicate " + duplicate + " of " + keep);
+        }
+        return freed;
+    }
+
+    // The contents were compared at scan time; a file touched since then is no longer known to match
+    private static void checkUnchanged(DuplicateGroup group, Path keep) throws IOException {
+        boolean keepFound = false;
+        for (FileEntry entry : group.getFiles()) {
+            keepFound |= entry.getPath().equals(keep);
+            BasicFileAttributes attrs = Files.readAttributes(entry.getPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.size() != entry.getSize() || attrs.lastModifiedTime().toMillis() != entry.getLastModified()) {
+                throw new IOException("File changed since the duplicate search: " + entry.getPath());
+            }
+        }
+        if (!keepFound) {
+            throw new IllegalArgumentException(keep + " is not part of this duplicate group");
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
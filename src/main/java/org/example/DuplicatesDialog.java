@@ -0,0 +1,193 @@
+package org.example;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Window that looks for duplicate files below a directory and lists them by group.
+ * The selected row of a group is the copy to keep; the others can be replaced with
+ * hard links to it or deleted.
+ */
+public class DuplicatesDialog {
+    private final JDialog dialog;
+    private final FileManagerController controller;
+    private final String directory;
+    private final Consumer<List<Path>> onChanged;
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JButton linkButton = new JButton("Keep Selected, Hard Link Others");
+    private final JButton deleteButton = new JButton("Keep Selected, Delete Others");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final DefaultTableModel tableModel = new DefaultTableModel(new Object[]{"Group", "File", "Size"}, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final JTable table = new JTable(tableModel);
+    private final List<DuplicateFinder.DuplicateGroup> groups = new ArrayList<>();
+    private final List<Integer> rowGroups = new ArrayList<>();
+    private final List<Path> rowPaths = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    /**
+     * @param onChanged gets the paths that were linked or deleted, on the EDT
+     */
+    public DuplicatesDialog(Frame owner, FileManagerController controller, String directory, Consumer<List<Path>> onChanged) {
+        this.controller = controller;
+        this.directory = directory;
+        this.onChanged = onChanged;
+        dialog = new JDialog(owner, "Duplicates in " + directory, false);
+        dialog.setLayout(new BorderLayout(8, 8));
+        dialog.add(statusLabel, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel();
+        buttons.add(linkButton);
+        buttons.add(deleteButton);
+        buttons.add(cancelButton);
+        dialog.add(buttons, BorderLayout.SOUTH);
+        linkButton.setEnabled(false);
+        deleteButton.setEnabled(false);
+
+        linkButton.addActionListener(e -> applyToSelection(false));
+        deleteButton.addActionListener(e -> applyToSelection(true));
+        cancelButton.addActionListener(e -> dialog.dispose());
+
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                cancelled = true; // Closing the window stops a search still running
+            }
+        });
+
+        dialog.setSize(800, 450);
+        dialog.setLocationRelativeTo(owner);
+    }
+
+    public void show() {
+        dialog.setVisible(true);
+        AtomicLong bytesHashed = new AtomicLong();
+        FileJobEngine.ItemProgress progress = new FileJobEngine.ItemProgress() {
+            @Override
+            public void addBytes(long bytes) {
+                bytesHashed.addAndGet(bytes);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+        };
+        Timer statusTimer = new Timer(250, e -> statusLabel.setText("Searching, "
+                + FileManagerUI.humanReadableByteCountSI(bytesHashed.get()) + " read..."));
+        statusTimer.start();
+
+        new SwingWorker<List<DuplicateFinder.DuplicateGroup>, Void>() {
+            @Override
+            protected List<DuplicateFinder.DuplicateGroup> doInBackground() throws Exception {
+                return controller.findDuplicates(directory, progress);
+            }
+
+            @Override
+            protected void done() {
+                statusTimer.stop();
+                if (cancelled) {
+                    return;
+                }
+                try {
+                    groups.addAll(get());
+                    showGroups();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    FileManagerLogger.logError("Duplicate search failed in: " + directory);
+                    statusLabel.setText("Error: " + e.getCause().getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void showGroups() {
+        tableModel.setRowCount(0);
+        rowGroups.clear();
+        rowPaths.clear();
+        long wasted = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            DuplicateFinder.DuplicateGroup group = groups.get(g);
+            wasted += group.getWastedBytes();
+            for (FileEntry entry : group.getFiles()) {
+                tableModel.addRow(new Object[]{g + 1, entry.getPath().toString(),
+                        FileManagerUI.humanReadableByteCountSI(group.getSize())});
+                rowGroups.add(g);
+                rowPaths.add(entry.getPath());
+            }
+        }
+        statusLabel.setText(groups.size() + " groups of duplicates, "
+                + FileManagerUI.humanReadableByteCountSI(wasted) + " could be freed");
+        cancelButton.setText("Close");
+        linkButton.setEnabled(!groups.isEmpty());
+        deleteButton.setEnabled(!groups.isEmpty());
+    }
+
+    private void applyToSelection(boolean delete) {
+        // One kept file per group: the first selected row of that group
+        Map<Integer, Path> keepByGroup = new LinkedHashMap<>();
+        for (int row : table.getSelectedRows()) {
+            int modelRow = table.convertRowIndexToModel(row);
+            keepByGroup.putIfAbsent(rowGroups.get(modelRow), rowPaths.get(modelRow));
+        }
+        if (keepByGroup.isEmpty()) {
+            JOptionPane.showMessageDialog(dialog, "Select the file to keep in each group first.");
+            return;
+        }
+        String question = controller.isTrashAvailable()
+                ? "Move the other files of " + keepByGroup.size() + " groups to the trash?"
+                : "Delete the other files of " + keepByGroup.size() + " groups for good?";
+        if (delete && JOptionPane.showConfirmDialog(dialog, question, "Confirm Delete",
+                JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        Map<DuplicateFinder.DuplicateGroup, Path> keepPaths = new LinkedHashMap<>();
+        List<Path> changed = new ArrayList<>();
+        for (Map.Entry<Integer, Path> keep : keepByGroup.entrySet()) {
+            DuplicateFinder.DuplicateGroup group = groups.get(keep.getKey());
+            keepPaths.put(group, keep.getValue());
+            for (FileEntry entry : group.getFiles()) {
+                changed.add(entry.getPath());
+            }
+        }
+        List<String> failures = new ArrayList<>();
+        List<DuplicateFinder.DuplicateGroup> done;
+        try {
+            done = controller.resolveDuplicates(keepPaths, delete, failures);
+        } catch (IOException e) {
+            done = new ArrayList<>();
+            failures.add(e.getMessage());
+        }
+        long freed = 0;
+        for (DuplicateFinder.DuplicateGroup group : done) {
+            freed += group.getWastedBytes();
+        }
+        groups.removeAll(done);
+        showGroups();
+        statusLabel.setText(FileManagerUI.humanReadableByteCountSI(freed)
+                + (controller.isTrashAvailable() ? " freed once the trash is emptied. " : " freed. ") + statusLabel.getText());
+        onChanged.accept(changed);
+        if (!failures.isEmpty()) {
+            JOptionPane.showMessageDialog(dialog, String.join("\n", failures), "Errors", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
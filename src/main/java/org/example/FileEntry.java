@@ -0,0 +1,57 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class FileEntry {
+    private final Path path;
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final boolean directory;
+
+    public FileEntry(Path path, long size, long lastModified, boolean directory) {
+        this(path, displayName(path), size, lastModified, directory);
+    }
+
+    public FileEntry(Path path, String name, long size, long lastModified, boolean directory) {
+        this.path = path;
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.directory = directory;
+    }
+
+    public static FileEntry of(Path path, BasicFileAttributes attrs) {
+        return new FileEntry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.isDirectory());
+    }
+
+    public static FileEntry of(Path path, AttributeCache.Attributes attributes) {
+        return new FileEntry(path, attributes.getSize(), attributes.getLastModified(), attributes.isDirectory());
+    }
+
+    private static String displayName(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null ? fileName.toString() : path.toString();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,177 @@
+package org.example;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Thumbnail grid over the same rows as the file table. Selecting in the grid selects
+ * the same rows in the table, so every button works the same in both views.
+ *
+ * <p>Thumbnails are asked for by the cell renderer, which Swing only calls for cells
+ * on screen, so visible cells are always the ones loading; whatever was queued for
+ * cells scrolled away is dropped, and the next screenful below is prefetched.
+ */
+public class FileGridView {
+    private static final int CELL_WIDTH = 150;
+    private static final int CELL_HEIGHT = 170;
+    private static final int ICONS_ON_HEAP = 256; // A few screens' worth, so painting doesn't copy pixels out of the cache
+
+    private final FileTableModel tableModel;
+    private final JTable table;
+    private final ThumbnailLoader loader;
+    private final Supplier<String> currentDirectory;
+    private final RowListModel listModel = new RowListModel();
+    private final JList<Integer> list = new JList<>(listModel);
+    private final JScrollPane scrollPane = new JScrollPane(list);
+    private final Map<ThumbnailCache.Key, ImageIcon> icons = new LinkedHashMap<ThumbnailCache.Key, ImageIcon>(ICONS_ON_HEAP, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ThumbnailCache.Key, ImageIcon> eldest) {
+            return size() > ICONS_ON_HEAP;
+        }
+    };
+    private boolean syncingSelection;
+
+    public FileGridView(FileTableModel tableModel, JTable table, ThumbnailLoader loader, Supplier<String> currentDirectory,
+                        Runnable onOpen) {
+        this.tableModel = tableModel;
+        this.table = table;
+        this.loader = loader;
+        this.currentDirectory = currentDirectory;
+
+        list.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        list.setVisibleRowCount(-1);
+        list.setFixedCellWidth(CELL_WIDTH);
+        list.setFixedCellHeight(CELL_HEIGHT);
+        list.setCellRenderer(new ThumbnailRenderer());
+
+        tableModel.addTableModelListener(listModel::tableChanged);
+        scrollPane.getViewport().addChangeListener(e -> {
+            loader.cancelPending(); // Cells scrolled away don't need their thumbnails any more
+            prefetchNextScreen();
+        });
+
+        list.addListSelectionListener(e -> {
+            if (syncingSelection || e.getValueIsAdjusting()) {
+                return;
+            }
+            syncingSelection = true;
+            table.clearSelection();
+            for (int row : list.getSelectedIndices()) {
+                table.addRowSelectionInterval(row, row);
+            }
+            syncingSelection = false;
+        });
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (!syncingSelection && !e.getValueIsAdjusting()) {
+                syncingSelection = true;
+                list.setSelectedIndices(table.getSelectedRows());
+                syncingSelection = false;
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && list.locationToIndex(e.getPoint()) != -1) {
+                    onOpen.run();
+                }
+            }
+        });
+    }
+
+    public JComponent getComponent() {
+        return scrollPane;
+    }
+
+    private ThumbnailCache.Key keyOf(int row) {
+        Path path = Paths.get(currentDirectory.get(), tableModel.getName(row));
+        return new ThumbnailCache.Key(path, tableModel.getLastModified(row), tableModel.getSize(row));
+    }
+
+    private void prefetchNextScreen() {
+        int first = list.getFirstVisibleIndex();
+        int last = list.getLastVisibleIndex();
+        if (first == -1) {
+            return;
+        }
+        int end = Math.min(tableModel.getRowCount(), last + 1 + (last - first + 1));
+        for (int row = last + 1; row < end; row++) {
+            if (!tableModel.isDirectory(row) && ThumbnailLoader.isImage(tableModel.getName(row))) {
+                loader.request(keyOf(row), ThumbnailLoader.Priority.PREFETCH, image -> { });
+            }
+        }
+    }
+
+    private class ThumbnailRenderer extends DefaultListCellRenderer {
+        ThumbnailRenderer() {
+            setHorizontalAlignment(CENTER);
+            setHorizontalTextPosition(CENTER);
+            setVerticalTextPosition(BOTTOM);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            int row = (Integer) value;
+            String name = tableModel.getName(row);
+            setText(name);
+            setToolTipText(name);
+            if (tableModel.isDirectory(row)) {
+                setIcon(UIManager.getIcon("FileView.directoryIcon"));
+            } else if (ThumbnailLoader.isImage(name)) {
+                setIcon(thumbnail(keyOf(row)));
+            } else {
+                setIcon(UIManager.getIcon("FileView.fileIcon"));
+            }
+            return this;
+        }
+
+        private Icon thumbnail(ThumbnailCache.Key key) {
+            ImageIcon icon = icons.get(key);
+            if (icon != null) {
+                return icon;
+            }
+            BufferedImage image = loader.getCached(key);
+            if (image != null) {
+                icon = new ImageIcon(image);
+                icons.put(key, icon);
+                return icon;
+            }
+            if (!loader.hasFailed(key)) {
+                loader.request(key, ThumbnailLoader.Priority.VISIBLE, loaded -> SwingUtilities.invokeLater(list::repaint));
+            }
+            return UIManager.getIcon("FileView.fileIcon");
+        }
+    }
+
+    // The grid's rows are the table's rows, by index
+    private class RowListModel extends AbstractListModel<Integer> {
+        @Override
+        public int getSize() {
+            return tableModel.getRowCount();
+        }
+
+        @Override
+        public Integer getElementAt(int index) {
+            return index;
+        }
+
+        void tableChanged(TableModelEvent e) {
+            if (e.getType() == TableModelEvent.INSERT) {
+                fireIntervalAdded(this, e.getFirstRow(), e.getLastRow());
+            } else if (e.getType() == TableModelEvent.DELETE) {
+                fireIntervalRemoved(this, e.getFirstRow(), e.getLastRow());
+            } else {
+                fireContentsChanged(this, 0, Math.max(0, getSize() - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs bulk file operations (copy, move, delete of many paths) on a bounded pool
+ * of I/O threads. Each job reports throughput, ETA and per-item failures, and
+ * can be paused, resumed and cancelled while it runs.
+ */
+public class FileJobEngine {
+
+    public interface ItemOperation {
+        /**
+         * Processes one item, reporting bytes as they are transferred.
+         * Returns the path the item ended up at, or null when it is gone.
+         */
+        Path apply(Path item, ItemProgress progress) throws IOException;
+    }
+
+    /**
+     * What a running item reports to its job. While the job is paused both calls block until
+     * it is resumed or cancelled, so an item that is already running halts at its next report.
+     */
+    public interface ItemProgress {
+        /**
+         * Reports nothing and is never cancelled, for work done outside a job.
+         */
+        ItemProgress NONE = new ItemProgress() {
+            @Override
+            public void addBytes(long bytes) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+
+        void addBytes(long bytes);
+
+        /**
+         * Long-running items (whole directory trees, huge files) should check this and stop early.
+         */
+        boolean isCancelled();
+
+        /**
+         * Passes everything on to {@code progress} and adds the bytes to {@code counter} as well,
+         * which may be shared by several threads.
+         */
+        static ItemProgress counting(ItemProgress progress, AtomicLong counter) {
+            return new ItemProgress() {
+                @Override
+                public void addBytes(long bytes) {
+                    counter.addAndGet(bytes);
+                    progress.addBytes(bytes);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return progress.isCancelled();
+                }
+            };
+        }
+
+        /**
+         * Passes on cancellation but no bytes, for work that is already counted or isn't part of the job's total.
+         */
+        static ItemProgress uncounted(ItemProgress progress) {
+            return new ItemProgress() {
+                @Override
+                public void addBytes(long bytes) {
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return progress.isCancelled();
+                }
+            };
+        }
+    }
+
+    public interface JobListener {
+        /**
+         * Called from a background thread a few times a second while the job runs.
+         */
+        void progressUpdated(JobProgress progress);
+
+        void itemCompleted(Path item, Path result);
+
+        void jobFinished(JobProgress progress);
+    }
+
+    public static class ItemFailure {
+        private final Path path;
+        private final String message;
+
+        ItemFailure(Path path, String message) {
+            this.path = path;
+            this.message = message;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + message;
+        }
+    }
+
+    public static class JobProgress {
+        private final String name;
+        private final int totalItems;
+        private final int completedItems;
+        private final List<ItemFailure> failures;
+        private final long totalBytes;
+        private final long bytesDone;
+        private final long elapsedMillis;
+        private final boolean paused;
+        private final boolean cancelled;
+
+        JobProgress(String name, int totalItems, int completedItems, List<ItemFailure> failures, long totalBytes,
+                    long bytesDone, long elapsedMillis, boolean paused, boolean cancelled) {
+            this.name = name;
+            this.totalItems = totalItems;
+            this.completedItems = completedItems;
+            this.failures = failures;
+            this.totalBytes = totalBytes;
+            this.bytesDone = bytesDone;
+            this.elapsedMillis = elapsedMillis;
+            this.paused = paused;
+            this.cancelled = cancelled;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getTotalItems() {
+            return totalItems;
+        }
+
+        public int getCompletedItems() {
+            return completedItems;
+        }
+
+        public List<ItemFailure> getFailures() {
+            return failures;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedMillis == 0 ? 0 : (bytesDone / 1_000_000.0) / (elapsedMillis / 1000.0);
+        }
+
+        public double getFilesPerSecond() {
+            return elapsedMillis == 0 ? 0 : (completedItems + failures.size()) / (elapsedMillis / 1000.0);
+        }
+
+        /**
+         * Estimated time left in milliseconds, by bytes when there are any and by items otherwise, or -1 when unknown.
+         */
+        public long getEtaMillis() {
+            if (totalBytes > 0 && bytesDone > 0) {
+                return (long) ((totalBytes - bytesDone) * (double) elapsedMillis / bytesDone);
+            }
+            int processed = completedItems + failures.size();
+            if (processed > 0) {
+                return (long) ((totalItems - processed) * (double) elapsedMillis / processed);
+            }
+            return -1;
+        }
+
+        public int getPercentDone() {
+            if (totalBytes > 0) {
+                return (int) Math.min(100, bytesDone * 100 / totalBytes);
+            }
+            return totalItems == 0 ? 100 : (completedItems + failures.size()) * 100 / totalItems;
+        }
+    }
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 200;
+
+    private final ExecutorService workers;
+    private final MountLimiter itemLimiter;
+    private final ScheduledExecutorService progressReporter;
+    private final ToLongFunction<Path> directorySizer;
+
+    /**
+     * @param directorySizer gives the total size of a directory item, so jobs over folders get an ETA
+     */
+    public FileJobEngine(ToLongFunction<Path> directorySizer) {
+        this.directorySizer = directorySizer;
+        // Disk and network I/O, not CPU, is the limit here; a few threads per core keeps devices busy
+        int threads = Math.max(4, Math.min(16, Runtime.getRuntime().availableProcessors() * 2));
+        this.workers = IoExecutors.newExecutor("file-job", threads);
+        // On virtual threads every item starts at once, so the items in flight are capped per mount instead.
+        // Its own limiter: items hold a permit while their copies take leaf permits from the shared one
+        this.itemLimiter = new MountLimiter(threads, threads * 4);
+        this.progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-job-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Job submit(String name, List<Path> items, ItemOperation operation, JobListener listener) {
+        return submit(name, items, item -> true, operation, listener);
+    }
+
+    /**
+     * A job that sizes only the items {@code sized} accepts before they run. Renames and deletes
+     * have nothing to transfer, and walking a folder that is being moved away would only race
+     * the move; a job with no sized items shows progress by item count.
+     */
+    public Job submit(String name, List<Path> items, Predicate<Path> sized, ItemOperation operation, JobListener listener) {
+        Job job = new Job(name, items, sized, operation, listener, false);
+        job.start();
+        return job;
+    }
+
+    /**
+     * A job that handles all its items in one go, such as writing them into one archive.
+     * The operation runs once, given the first item; progress and ETA still cover them all.
+     */
+    public Job submitTogether(String name, List<Path> items, ItemOperation operation, JobListener listener) {
+        Job job = new Job(name, items, item -> true, operation, listener, true);
+        job.start();
+        return job;
+    }
+
+    public class Job {
+        private final String name;
+        private final List<Path> items;
+        private final Predicate<Path> sized;
+        private final ItemOperation operation;
+        private final JobListener listener;
+
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final boolean together;
+        private final AtomicLong bytesDone = new AtomicLong();
+        private final Map<Path, Long> itemSizes = new ConcurrentHashMap<>(); // As far as the sizing got
+        private final List<ItemFailure> failures = Collections.synchronizedList(new ArrayList<>());
+        // A lock rather than a monitor, so items waiting out a pause don't pin virtual threads' carriers
+        private final ReentrantLock pauseLock = new ReentrantLock();
+        private final Condition resumed = pauseLock.newCondition();
+        private volatile long totalBytes;
+        private volatile boolean paused;
+        private volatile boolean cancelled;
+        private volatile long startNanos;
+        private volatile long pausedNanos;
+        private long pauseStartedNanos;
+        private ScheduledFuture<?> progress;
+        private final ItemProgress itemProgress = new ItemProgress() {
+            @Override
+            public void addBytes(long bytes) {
+                bytesDone.addAndGet(bytes);
+                holdWhilePaused();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                holdWhilePaused();
+                return cancelled;
+            }
+        };
+
+        private Job(String name, List<Path> items, Predicate<Path> sized, ItemOperation operation, JobListener listener,
+                    boolean together) {
+            this.name = name;
+            this.items = new ArrayList<>(items);
+            this.sized = sized;
+            this.operation = operation;
+            this.listener = listener;
+            this.together = together;
+            this.remaining = new AtomicInteger(together && !items.isEmpty() ? 1 : items.size());
+        }
+
+        private void start() {
+            startNanos = System.nanoTime();
+            progress = progressReporter.scheduleWithFixedDelay(() -> listener.progressUpdated(getProgress()),
+                    PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if (items.isEmpty()) {
+                finish();
+                return;
+            }
+            // Size the job in the background so the ETA has something to work with
+            List<Path> toSize = new ArrayList<>();
+            for (Path item : items) {
+                if (sized.test(item)) {
+                    toSize.add(item);
+                }
+            }
+            if (!toSize.isEmpty()) {
+                workers.execute(() -> size(toSize));
+            }
+            if (together) {
+                workers.execute(() -> runItem(items.get(0)));
+                return;
+            }
+            for (Path item : items) {
+                workers.execute(() -> runItem(item));
+            }
+        }
+
+        private void size(List<Path> toSize) {
+            long total = 0;
+            for (Path item : toSize) {
+                try {
+                    long size = 0;
+                    if (Files.isRegularFile(item, LinkOption.NOFOLLOW_LINKS)) {
+                        size = Files.size(item);
+                    } else if (Files.isDirectory(item, LinkOption.NOFOLLOW_LINKS)) {
+                        size = directorySizer.applyAsLong(item);
+                    }
+                    itemSizes.put(item, size);
+                    total += size;
+                } catch (IOException e) {
+                    // The item task reports the failure
+                }
+            }
+            totalBytes = total;
+        }
+
+        private void runItem(Path item) {
+            try {
+                awaitResume();
+                if (cancelled) {
+                    return;
+                }
+                AtomicLong reported = new AtomicLong();
+                ItemProgress progress = ItemProgress.counting(itemProgress, reported);
+                Path result = itemLimiter.call(item, () -> operation.apply(item, progress));
+                // A finished item counts in full, whatever it got round to reporting
+                Long size = together ? null : itemSizes.get(item);
+                if (size != null && size > reported.get()) {
+                    bytesDone.addAndGet(size - reported.get());
+                }
+                completed.addAndGet(together ? items.size() : 1);
+                listener.itemCompleted(item, result);
+            } catch (IOException | RuntimeException e) {
+                failures.add(new ItemFailure(item, String.valueOf(e.getMessage())));
+                FileManagerLogger.logError(name + " failed for " + item + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    finish();
+                }
+            }
+        }
+
+        private void awaitResume() throws InterruptedException {
+            pauseLock.lock();
+            try {
+                while (paused && !cancelled) {
+                    resumed.await();
+                }
+            } finally {
+                pauseLock.unlock();
+            }
+        }
+
+        // Items poll their progress between chunks and files, which is where a pause takes hold of them
+        private void holdWhilePaused() {
+            if (!paused) {
+                return;
+            }
+            try {
+                awaitResume();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // The item's next blocking call gives up
+            }
+        }
+
+        private void finish() {
+            progress.cancel(false);
+            JobProgress finalProgress = getProgress();
+            FileManagerLogger.logInfo(name + " finished: " + finalProgress.getCompletedItems() + " of "
+                    + finalProgress.getTotalItems() + " items, " + finalProgress.getFailures().size() + " failed"
+                    + (cancelled ? " (cancelled)" : ""));
+            listener.jobFinished(finalProgress);
+        }
+
+        public void pause() {
+            pauseLock.lock();
+            try {
+                if (!paused) {
+                    paused = true;
+                    pauseStartedNanos = System.nanoTime();
+                }
+            } finally {
+                pauseLock.unlock();
+            }
+        }
+
+        public void resume() {
+            pauseLock.lock();
+            try {
+                if (paused) {
+                    paused = false;
+                    pausedNanos += System.nanoTime() - pauseStartedNanos;
+                    resumed.signalAll();
+                }
+            } finally {
+                pauseLock.unlock();
+            }
+        }
+
+        /**
+         * Skips every item that hasn't started yet. Items already running finish.
+         */
+        public void cancel() {
+            pauseLock.lock();
+            try {
+                cancelled = true;
+                resumed.signalAll();
+            } finally {
+                pauseLock.unlock();
+            }
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public JobProgress getProgress() {
+            long pausedTime;
+            pauseLock.lock();
+            try {
+                pausedTime = pausedNanos + (paused ? System.nanoTime() - pauseStartedNanos : 0);
+            } finally {
+                pauseLock.unlock();
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos - pausedTime);
+            List<ItemFailure> failureSnapshot;
+            synchronized (failures) {
+                failureSnapshot = new ArrayList<>(failures);
+            }
+            return new JobProgress(name, items.size(), completed.get(), failureSnapshot, totalBytes, bytesDone.get(),
+                    elapsed, paused, cancelled);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Headless entry point: runs file manager operations as subcommands and writes
+ * one JSON object per line to standard output. Nothing here touches AWT or Swing,
+ * so the JVM starts without loading a toolkit and runs fine on a server.
+ *
+ * <pre>
+ * list DIR
+ * size DIR...
+ * search QUERY [--dir DIR] [--recursive] [--limit N]
+ * grep QUERY [--dir DIR] [--limit N]
+ * copy SOURCE... DEST_DIR [--preserve] [--verify none|crc32c|sha256]
+ * move SOURCE... DEST_DIR
+ * delete PATH...
+ * compress SOURCE... DEST_DIR
+ * sync SOURCE_DIR TARGET_DIR [--checksum] [--delete] [--dry-run]
+ * duplicates DIR
+ * undo
+ * batch MANIFEST
+ * </pre>
+ *
+ * A batch manifest holds one of these commands per line; blank lines and lines
+ * starting with '#' are skipped, and arguments with spaces can be double-quoted.
+ */
+public class FileManagerCli {
+    private static final int DEFAULT_LIMIT = 10_000;
+
+    private final FileManagerController controller;
+    private final PrintWriter out;
+    private int failures;
+
+    public FileManagerCli(FileManagerController controller, PrintWriter out) {
+        this.controller = controller;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024));
+        FileManagerController controller = new FileManagerController();
+        if (controller.getJournalProblem() != null) {
+            out.println(new Json().put("event", "warning")
+                    .put("message", "Undo is off, deletes are permanent: " + controller.getJournalProblem()));
+        }
+        FileManagerCli cli = new FileManagerCli(controller, out);
+        int status = cli.run(Arrays.asList(args));
+        out.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Runs one command. Returns 0 when everything worked, 1 when something failed and 2 for bad usage.
+     */
+    public int run(List<String> args) {
+        if (args.isEmpty()) {
+            usage("No command given");
+            return 2;
+        }
+        String command = args.get(0);
+        Options options = new Options(args.subList(1, args.size()));
+        try {
+            switch (command) {
+                case "list":
+                    list(options.single("directory"));
+                    break;
+                case "size":
+                    size(options.atLeast(1, "directory"));
+                    break;
+                case "search":
+                    search(options.single("query"), options.value("--dir", controller.getCurrentDirectory()),
+                            options.flag("--recursive"), options.intValue("--limit", DEFAULT_LIMIT));
+                    break;
+                case "grep":
+                    grep(options.single("query"), options.value("--dir", controller.getCurrentDirectory()),
+                            options.intValue("--limit", DEFAULT_LIMIT));
+                    break;
+                case "copy": {
+                    List<String> paths = options.atLeast(2, "source and destination");
+                    CopyOptions copyOptions = new CopyOptions(options.flag("--preserve"),
+                            ResumableFileCopier.Verification.valueOf(options.value("--verify", "none").toUpperCase(Locale.ROOT)));
+                    JsonJobListener listener = new JsonJobListener();
+                    controller.copyFiles(paths.subList(0, paths.size() - 1), paths.get(paths.size() - 1), copyOptions, listener);
+                    listener.await();
+                    break;
+                }
+                case "move": {
+                    List<String> paths = options.atLeast(2, "source and destination");
+                    JsonJobListener listener = new JsonJobListener();
+                    controller.moveFiles(paths.subList(0, paths.size() - 1), paths.get(paths.size() - 1), listener);
+                    listener.await();
+                    break;
+                }
+                case "delete": {
+                    JsonJobListener listener = new JsonJobListener();
+                    controller.deleteFiles(options.atLeast(1, "path"), listener);
+                    listener.await();
+                    break;
+                }
+                case "compress": {
+                    List<String> paths = options.atLeast(2, "source and destination");
+                    JsonJobListener listener = new JsonJobListener();
+                    controller.compressFiles(paths.subList(0, paths.size() - 1), paths.get(paths.size() - 1), listener);
+                    listener.await();
+                    break;
+                }
+                case "sync": {
+                    List<String> paths = options.atLeast(2, "source and target folder");
+                    if (paths.size() > 2) {
+                        throw new IllegalArgumentException("sync takes one source and one target folder");
+                    }
+                    sync(paths.get(0), paths.get(1), options.flag("--checksum"), options.flag("--delete"),
+                            options.flag("--dry-run"));
+                    break;
+                }
+                case "duplicates":
+                    duplicates(options.single("directory"));
+                    break;
+                case "undo":
+                    undo();
+                    break;
+                case "batch":
+                    batch(options.single("manifest"));
+                    break;
+                default:
+                    usage("Unknown command: " + command);
+                    return 2;
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+            return 2;
+        } catch (IOException | RuntimeException e) {
+            error(command, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(command, e);
+        }
+        out.flush();
+        return failures == 0 ? 0 : 1;
+    }
+
+    private void list(String directory) throws IOException {
+        controller.streamFiles(directory, batch -> {
+            for (FileEntry entry : batch) {
+                entry(entry);
+            }
+            out.flush();
+        });
+    }
+
+    private void size(List<String> directories) {
+        for (String directory : directories) {
+            long start = System.nanoTime();
+            long bytes = controller.getDirectorySize(directory);
+            out.println(new Json().put("event", "size").put("path", directory).put("bytes", bytes)
+                    .put("millis", (System.nanoTime() - start) / 1_000_000));
+        }
+    }
+
+    private void search(String query, String directory, boolean recursive, int limit) throws IOException {
+        controller.setCurrentDirectory(directory);
+        if (recursive) {
+            if (!controller.isIndexed(directory)) {
+                controller.indexDirectory(directory);
+            }
+            for (FileEntry entry : controller.searchRecursive(query, limit)) {
+                entry(entry);
+            }
+            return;
+        }
+        String foldedQuery = Formats.fold(query);
+        controller.streamFiles(directory, batch -> {
+            for (FileEntry entry : batch) {
+                if (Formats.containsFolded(entry.getName(), foldedQuery)) {
+                    entry(entry);
+                }
+            }
+        });
+    }
+
+    private void grep(String query, String directory, int limit) throws IOException {
+        controller.setCurrentDirectory(directory);
+        controller.searchContent(query, limit, entry -> {
+            synchronized (out) {
+                entry(entry);
+                out.flush(); // Hits are worth seeing as they come
+            }
+        }, () -> false);
+    }
+
+    private void duplicates(String directory) throws IOException {
+        for (DuplicateFinder.DuplicateGroup group : controller.findDuplicates(directory, FileJobEngine.ItemProgress.NONE)) {
+            List<String> paths = new ArrayList<>();
+            for (FileEntry entry : group.getFiles()) {
+                paths.add(entry.getPath().toString());
+            }
+            out.println(new Json().put("event", "duplicates").put("size", group.getSize())
+                    .put("wasted", group.getWastedBytes()).put("paths", paths));
+        }
+    }
+
+    private void sync(String source, String target, boolean checksum, boolean deleteExtra, boolean dryRun)
+            throws IOException, InterruptedException {
+        FolderSync.Plan plan = controller.planSync(source, target, checksum, deleteExtra, FileJobEngine.ItemProgress.NONE);
+        for (FolderSync.Change change : plan.getChanges()) {
+            out.println(new Json().put("event", "change").put("action", change.getAction().name().toLowerCase(Locale.ROOT))
+                    .put("path", change.getRelative().toString()).put("size", change.getSize()));
+        }
+        out.println(new Json().put("event", "plan").put("copy", plan.count(FolderSync.Action.COPY))
+                .put("update", plan.count(FolderSync.Action.UPDATE)).put("delete", plan.count(FolderSync.Action.DELETE))
+                .put("create", plan.count(FolderSync.Action.CREATE)).put("bytes", plan.getBytesToCopy()));
+        if (dryRun || plan.isEmpty()) {
+            return;
+        }
+        JsonJobListener listener = new JsonJobListener();
+        controller.syncFolders(plan, listener);
+        listener.await();
+    }
+
+    private void undo() throws IOException {
+        String label = controller.getUndoLabel();
+        if (label == null) {
+            throw new IOException("Nothing to undo");
+        }
+        controller.undo();
+        out.println(new Json().put("event", "undone").put("operation", label));
+    }
+
+    private void batch(String manifest) throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(manifest), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                List<String> args = tokenize(line);
+                out.println(new Json().put("event", "command").put("line", lineNumber).put("args", args));
+                if (args.get(0).equals("batch")) {
+                    error("batch", new IllegalArgumentException("Manifests can't run other manifests (line " + lineNumber + ")"));
+                    continue;
+                }
+                run(args); // A failed line is reported and counted, and the batch goes on
+            }
+        }
+        out.println(new Json().put("event", "batchFinished").put("lines", lineNumber).put("failures", failures));
+    }
+
+    // Splits on whitespace, keeping double-quoted arguments together
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private void entry(FileEntry entry) {
+        out.println(new Json().put("event", "entry").put("path", entry.getPath().toString()).put("name", entry.getName())
+                .put("directory", entry.isDirectory()).put("size", entry.getSize()).put("modified", entry.getLastModified()));
+    }
+
+    private void error(String command, Exception e) {
+        failures++;
+        out.println(new Json().put("event", "error").put("command", command).put("message", String.valueOf(e.getMessage())));
+    }
+
+    private void usage(String message) {
+        failures++;
+        out.println(new Json().put("event", "usage").put("message", message)
+                .put("commands", Arrays.asList("list", "size", "search", "grep", "copy", "move", "delete", "compress", "sync", "duplicates", "undo", "batch")));
+    }
+
+    private class JsonJobListener implements FileJobEngine.JobListener {
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        void await() throws InterruptedException {
+            finished.await();
+        }
+
+        @Override
+        public void progressUpdated(FileJobEngine.JobProgress progress) {
+            synchronized (out) {
+                out.println(progressJson("progress", progress));
+                out.flush();
+            }
+        }
+
+        @Override
+        public void itemCompleted(Path item, Path result) {
+            synchronized (out) {
+                out.println(new Json().put("event", "item").put("path", item.toString())
+                        .put("result", result == null ? null : result.toString()));
+            }
+        }
+
+        @Override
+        public void jobFinished(FileJobEngine.JobProgress progress) {
+            synchronized (out) {
+                for (FileJobEngine.ItemFailure failure : progress.getFailures()) {
+                    out.println(new Json().put("event", "failure").put("path", failure.getPath().toString())
+                            .put("message", failure.getMessage()));
+                }
+                out.println(progressJson("finished", progress));
+                out.flush();
+                failures += progress.getFailures().size();
+            }
+            finished.countDown();
+        }
+
+        private Json progressJson(String event, FileJobEngine.JobProgress progress) {
+            return new Json().put("event", event).put("job", progress.getName())
+                    .put("completed", progress.getCompletedItems()).put("total", progress.getTotalItems())
+                    .put("failed", progress.getFailures().size()).put("bytes", progress.getBytesDone())
+                    .put("totalBytes", progress.getTotalBytes()).put("etaMillis", progress.getEtaMillis())
+                    .put("cancelled", progress.isCancelled());
+        }
+    }
+
+    // Positional arguments plus --name value / --flag options, in any order
+    private static class Options {
+        private final List<String> positional = new ArrayList<>();
+        private final List<String> named = new ArrayList<>();
+
+        Options(List<String> args) {
+            for (int i = 0; i < args.size(); i++) {
+                String arg = args.get(i);
+                if (arg.startsWith("--")) {
+                    named.add(arg);
+                    if (i + 1 < args.size() && !args.get(i + 1).startsWith("--") && takesValue(arg)) {
+                        named.add(args.get(++i));
+                    }
+                } else {
+                    positional.add(arg);
+                }
+            }
+        }
+
+        private static boolean takesValue(String option) {
+            return option.equals("--dir") || option.equals("--limit") || option.equals("--verify");
+        }
+
+        String single(String what) {
+            if (positional.size() != 1) {
+                throw new IllegalArgumentException("Expected one " + what);
+            }
+            return positional.get(0);
+        }
+
+        List<String> atLeast(int count, String what) {
+            if (positional.size() < count) {
+                throw new IllegalArgumentException("Expected " + what);
+            }
+            return positional;
+        }
+
+        boolean flag(String option) {
+            return named.contains(option);
+        }
+
+        String value(String option, String defaultValue) {
+            int index = named.indexOf(option);
+            return index >= 0 && index + 1 < named.size() && !named.get(index + 1).startsWith("--")
+                    ? named.get(index + 1) : defaultValue;
+        }
+
+        int intValue(String option, int defaultValue) {
+            try {
+                return Integer.parseInt(value(option, String.valueOf(defaultValue)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(option + " needs a number");
+            }
+        }
+    }
+}
@@ -3,17 +3,60 @@ package org.example;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class FileManagerController {
+    // Times have to carry over, or the next sync would see every file as changed
+    private static final CopyOptions SYNC_COPY_OPTIONS = new CopyOptions(true, ResumableFileCopier.Verification.NONE);
+
+    // An operation body for measured(), which records its time, bytes and outcome in OperationMetrics.
+    // The bytes are what the body reports to the progress it is given
+    private interface Measured<T> {
+        T run(FileJobEngine.ItemProgress progress) throws IOException;
+    }
+
+    // An operation body for inTransaction(), whose changes are journaled and undone together
+    private interface Journaled<T> {
+        T run(OperationJournal.Transaction transaction) throws IOException;
+    }
 
     private FileManagerService service;
-    private String currentDirectory;
+    private final FileJobEngine jobEngine;
+    private final TreeCopier treeCopier = new TreeCopier();
+    private final NameAllocator nameAllocator = new NameAllocator();
+    private final ZipCompressor zipCompressor = new ZipCompressor();
+    private final FolderSync folderSync = new FolderSync();
+    private final DeltaUpdater deltaUpdater = new DeltaUpdater();
+    private volatile String currentDirectory; // Read by the directory watcher thread
     private String cutFilePath; // Store the path of the cut file
+    private final OperationJournal journal;
+    private List<String> rolledBackOperations = new ArrayList<>();
+    private String journalProblem; // Why undo is off, or null
+    private ThumbnailLoader thumbnailLoader; // Made on first use, so the command line never loads image classes
 
     public FileManagerController() {
         this.service = new FileManagerService();
+        this.jobEngine = new FileJobEngine(directory -> service.getDirectorySize(directory.toString()));
         this.currentDirectory = System.getProperty("user.home"); // Default to user's home directory
+        this.journal = service.getJournal();
+        try {
+            rolledBackOperations = journal.open(); // Puts back whatever a crash left half done
+        } catch (IOException e) {
+            // Trashed files would never come back, so deletes are for good until the journal opens
+            journalProblem = e.getMessage();
+            FileManagerLogger.logError("Operation journal unavailable, undo is off and deletes are permanent: " + e.getMessage());
+        }
     }
 
     public List<File> listFiles(String directoryPath) {
@@ -21,31 +64,176 @@ public class FileManagerController {
         return service.listFiles(directoryPath);
     }
 
+    public void streamFiles(String directoryPath, Consumer<List<FileEntry>> batchConsumer) throws IOException {
+        measured(OperationMetrics.Operation.LIST, directoryPath, counted -> {
+            service.streamDirectory(directoryPath, FileManagerService.DEFAULT_BATCH_SIZE, batchConsumer);
+            return null;
+        });
+    }
+
+    public DirectorySnapshots.Snapshot getSnapshot(String directoryPath) {
+        return service.getSnapshot(directoryPath);
+    }
+
+    public void prefetch(String directoryPath) {
+        service.prefetch(directoryPath);
+    }
+
+    public DirectorySizeEngine.SizeRequest newDirectorySizeRequest(DirectorySizeEngine.SizeListener listener) {
+        return service.newDirectorySizeRequest(listener);
+    }
+
+    public long getDirectorySize(String directoryPath) {
+        return service.getDirectorySize(directoryPath);
+    }
+
     public List<File> searchFiles(String query) {
-        return service.searchFiles(query, currentDirectory);
+        OperationMetrics.Sample sample = OperationMetrics.start(OperationMetrics.Operation.SEARCH, currentDirectory);
+        List<File> results = service.searchFiles(query, currentDirectory);
+        sample.end(0);
+        return results;
     }
 
-    public void createNewFolder(String folderName) throws IOException {
-        String folderPath = currentDirectory + File.separator + folderName;
-        service.createNewDirectory(folderPath);
+    public boolean isIndexed(String directoryPath) {
+        return service.isIndexed(directoryPath);
     }
 
-    public void copyFile(String sourcePath, String destinationDirectory) throws IOException {
-        Path source = Paths.get(sourcePath);
-        File sourceFile = source.toFile();
-        String fileName = sourceFile.getName(); // Get the file name with extension
-        String baseName = fileName;
-        String extension = "";
+    public void indexDirectory(String directoryPath) throws IOException {
+        service.indexDirectory(directoryPath);
+    }
 
-        // Split the file name into base name and extension
-        int dotIndex = fileName.lastIndexOf('.');
-        if (dotIndex != -1) {
-            baseName = fileName.substring(0, dotIndex);
-            extension = fileName.substring(dotIndex); // Include the dot (e.g., ".png")
+    public void watchDirectory(String directoryPath) {
+        service.watchDirectory(directoryPath);
+    }
+
+    public DiskUsageTree loadDiskUsage(String directoryPath) throws IOException {
+        return service.loadDiskUsage(directoryPath);
+    }
+
+    public DiskUsageTree scanDiskUsage(String directoryPath, LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        return measured(OperationMetrics.Operation.DISK_USAGE, directoryPath, counted -> service.scanDiskUsage(directoryPath,
+                bytes -> {
+                    counted.addBytes(bytes);
+                    progress.accept(bytes);
+                }, cancelled));
+    }
+
+    public void followDiskUsage(DiskUsageTree tree) {
+        service.followDiskUsage(tree);
+    }
+
+    public void unfollowDiskUsage(DiskUsageTree tree) {
+        service.unfollowDiskUsage(tree);
+    }
+
+    public void saveDiskUsage(DiskUsageTree tree) throws IOException {
+        service.saveDiskUsage(tree);
+    }
+
+    public void addChangeListener(DirectoryWatcher.ChangeListener listener) {
+        service.addChangeListener(listener);
+    }
+
+    public synchronized ThumbnailLoader getThumbnailLoader() {
+        if (thumbnailLoader == null) {
+            thumbnailLoader = new ThumbnailLoader(new ThumbnailCache(ThumbnailCache.defaultDiskDirectory(), 64L * 1024 * 1024));
         }
+        return thumbnailLoader;
+    }
 
-        // Construct the initial destination path with file name
-        Path destination = Paths.get(destinationDirectory).resolve(fileName);
+    public FileEntry readEntry(Path path) {
+        return service.readEntry(path);
+    }
+
+    public List<FileEntry> searchRecursive(String query, int limit) {
+        OperationMetrics.Sample sample = OperationMetrics.start(OperationMetrics.Operation.RECURSIVE_SEARCH, currentDirectory);
+        List<FileEntry> results = service.searchRecursive(query, currentDirectory, limit);
+        sample.end(0);
+        return results;
+    }
+
+    public void searchContent(String query, int limit, Consumer<FileEntry> onHit, BooleanSupplier cancelled) throws IOException {
+        String directory = currentDirectory;
+        measured(OperationMetrics.Operation.CONTENT_SEARCH, directory, counted -> {
+            service.searchContent(query, directory, limit, onHit, cancelled);
+            return null;
+        });
+    }
+
+    public List<DuplicateFinder.DuplicateGroup> findDuplicates(String directoryPath, FileJobEngine.ItemProgress progress) throws IOException {
+        return measured(OperationMetrics.Operation.DUPLICATES, directoryPath, progress,
+                counted -> service.findDuplicates(directoryPath, counted));
+    }
+
+    /**
+     * Deletes, or replaces with hard links, the files of each group other than the one kept.
+     * What goes ends up in the trash, and the whole cleanup is one transaction, so a single
+     * undo puts every group back. Groups that fail are skipped and their errors added to
+     * {@code failures}; returns the groups that were cleaned up.
+     */
+    public List<DuplicateFinder.DuplicateGroup> resolveDuplicates(Map<DuplicateFinder.DuplicateGroup, Path> keepByGroup,
+                                                                  boolean delete, List<String> failures) throws IOException {
+        String label = (delete ? "Delete duplicates of " : "Link duplicates of ") + keepByGroup.size() + " groups";
+        return inTransaction(label, transaction -> {
+            List<DuplicateFinder.DuplicateGroup> done = new ArrayList<>();
+            for (Map.Entry<DuplicateFinder.DuplicateGroup, Path> keep : keepByGroup.entrySet()) {
+                try {
+                    if (delete) {
+                        service.deleteDuplicates(keep.getKey(), keep.getValue(), transaction);
+                    } else {
+                        service.hardlinkDuplicates(keep.getKey(), keep.getValue(), transaction);
+                    }
+                    done.add(keep.getKey());
+                } catch (IOException e) {
+                    failures.add(e.getMessage());
+                }
+            }
+            return done;
+        });
+    }
+
+    public Path createNewFolder(String folderName) throws IOException {
+        requireOnDisk(currentDirectory);
+        Path folder = Paths.get(currentDirectory, folderName);
+        return inTransaction("Create " + folderName, transaction -> {
+            service.createNewDirectory(folder.toString());
+            // Journaled after the fact: a failed create must never make undo delete a folder that was already there
+            transaction.recordCreate(folder);
+            service.invalidateAttributes(folder, folder.getParent());
+            FileManagerLogger.logInfo("Created folder: " + folder);
+            return folder;
+        });
+    }
+
+    public Path copyFile(String sourcePath, String destinationDirectory) throws IOException {
+        return copyFile(sourcePath, destinationDirectory, CopyOptions.DEFAULT, FileJobEngine.ItemProgress.NONE);
+    }
+
+    /**
+     * Copies a file or a whole directory tree into the destination directory under
+     * the first free name ({@code name_1.ext}, ...). A copy of a huge file that was
+     * interrupted earlier picks its old name again, so it resumes from where it stopped.
+     */
+    public Path copyFile(String sourcePath, String destinationDirectory, CopyOptions options,
+                         FileJobEngine.ItemProgress progress) throws IOException {
+        return inTransaction("Copy " + describe(sourcePath) + " to " + destinationDirectory,
+                transaction -> copyFile(sourcePath, destinationDirectory, options, progress, transaction));
+    }
+
+    private Path copyFile(String sourcePath, String destinationDirectory, CopyOptions options,
+                          FileJobEngine.ItemProgress progress, OperationJournal.Transaction transaction) throws IOException {
+        return measured(OperationMetrics.Operation.COPY, sourcePath, progress,
+                counted -> copy(sourcePath, destinationDirectory, options, counted, transaction));
+    }
+
+    private Path copy(String sourcePath, String destinationDirectory, CopyOptions options,
+                      FileJobEngine.ItemProgress progress, OperationJournal.Transaction transaction) throws IOException {
+        requireOnDisk(destinationDirectory);
+        if (ArchiveBrowser.isInsideArchive(sourcePath)) {
+            return copyOutOfArchive(sourcePath, destinationDirectory, progress, transaction);
+        }
+        Path source = Paths.get(sourcePath);
+        Path targetDirectory = Paths.get(destinationDirectory);
 
         // Ensure source file exists
         if (Files.notExists(source)) {
@@ -53,25 +241,132 @@ public class FileManagerController {
         }
 
         // Ensure destination directory exists
-        if (Files.notExists(destination.getParent())) {
-            Files.createDirectories(destination.getParent());
+        if (Files.notExists(targetDirectory)) {
+            Files.createDirectories(targetDirectory);
         }
 
-        // Check if a file with the same name already exists and update the name if necessary
-        int counter = 1;
-        while (Files.exists(destination)) {
-            String newFileName = baseName + counter + extension; // Create a new file name with the counter
-            destination = Paths.get(destinationDirectory).resolve(newFileName);
-            counter++;
+        boolean directory = Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS);
+        // The walk would keep finding the copy it is making and nest it until paths get too long
+        if (directory && targetDirectory.toRealPath().startsWith(source.toRealPath())) {
+            throw new IOException("Can't copy a folder into itself: " + sourcePath + " to " + destinationDirectory);
         }
+        Path destination = nameAllocator.claim(targetDirectory, source.getFileName().toString(), directory,
+                candidate -> ResumableFileCopier.canResume(source, candidate));
 
         // Perform the copy operation
-        Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            transaction.recordCopy(source, destination);
+            if (directory) {
+                treeCopier.copyTree(source, destination, options, progress);
+            } else {
+                treeCopier.copyFile(source, destination, options, progress);
+            }
+        } catch (IOException e) {
+            // Keep the name while a huge copy can still be resumed into it
+            if (Files.notExists(ResumableFileCopier.partFile(destination))) {
+                nameAllocator.release(destination);
+            }
+            throw e;
+        }
+        service.invalidateAttributes(destination, targetDirectory);
         FileManagerLogger.logInfo("Copied file from " + sourcePath + " to " + destination.toString());
+        return destination;
     }
 
+    // Entries stream straight from the archive into place; nothing is unpacked anywhere else first
+    private Path copyOutOfArchive(String sourcePath, String destinationDirectory, FileJobEngine.ItemProgress progress,
+                                  OperationJournal.Transaction transaction) throws IOException {
+        FileEntry entry = service.readEntry(Paths.get(sourcePath));
+        if (entry == null) {
+            throw new IOException("Source file does not exist: " + sourcePath);
+        }
+        Path targetDirectory = Paths.get(destinationDirectory);
+        Files.createDirectories(targetDirectory);
+        Path destination = nameAllocator.claim(targetDirectory, entry.getName(), entry.isDirectory(), candidate -> false);
+        try {
+            transaction.recordCopy(entry.getPath(), destination);
+            service.extractFromArchive(sourcePath, destination, progress);
+        } catch (IOException e) {
+            nameAllocator.release(destination);
+            throw e;
+        } finally {
+            service.invalidateAttributes(destination, targetDirectory);
+        }
+        FileManagerLogger.logInfo("Extracted " + sourcePath + " to " + destination);
+        return destination;
+    }
+
+    /**
+     * Extracts an archive entry to a temporary folder so another program can open it.
+     */
+    public Path extractForViewing(String entryPath) throws IOException {
+        Path directory = Files.createTempDirectory("fileman-");
+        directory.toFile().deleteOnExit();
+        FileEntry entry = service.readEntry(Paths.get(entryPath));
+        if (entry == null) {
+            throw new IOException("No such entry: " + entryPath);
+        }
+        Path target = directory.resolve(entry.getName());
+        service.extractFromArchive(entryPath, target, FileJobEngine.ItemProgress.NONE);
+        target.toFile().deleteOnExit();
+        return target;
+    }
 
-    public void moveFile(String sourcePath, String destinationDirectory) throws IOException {
+    /**
+     * Writes the sources into a new zip in the destination directory, named after the
+     * only source or "Archive.zip". Undo deletes the zip again.
+     */
+    public FileJobEngine.Job compressFiles(List<String> sourcePaths, String destinationDirectory, FileJobEngine.JobListener listener) {
+        OperationJournal.Transaction transaction = journal.begin("Compress " + describe(sourcePaths));
+        return jobEngine.submitTogether("Compress", toPaths(sourcePaths),
+                (item, progress) -> compress(sourcePaths, destinationDirectory, progress, transaction),
+                new CommittingListener(transaction, listener));
+    }
+
+    private Path compress(List<String> sourcePaths, String destinationDirectory, FileJobEngine.ItemProgress progress,
+                          OperationJournal.Transaction transaction) throws IOException {
+        requireOnDisk(destinationDirectory);
+        for (String sourcePath : sourcePaths) {
+            requireOnDisk(sourcePath);
+        }
+        Path targetDirectory = Paths.get(destinationDirectory);
+        String name = sourcePaths.size() == 1 ? Paths.get(sourcePaths.get(0)).getFileName() + ".zip" : "Archive.zip";
+        Path destination = nameAllocator.claim(targetDirectory, name, false, candidate -> false);
+        AtomicLong bytes = new AtomicLong();
+        FileJobEngine.ItemProgress counting = FileJobEngine.ItemProgress.counting(progress, bytes);
+        OperationMetrics.Sample sample = OperationMetrics.start(OperationMetrics.Operation.COMPRESS, destination);
+        try {
+            // Journaled like a copy: rolling back or undoing removes the zip
+            transaction.recordCopy(Paths.get(sourcePaths.get(0)), destination);
+            zipCompressor.compress(toPaths(sourcePaths), destination, counting);
+            sample.end(bytes.get());
+        } catch (IOException | RuntimeException e) {
+            sample.fail();
+            throw e;
+        } finally {
+            nameAllocator.release(destination);
+            service.invalidateAttributes(destination, targetDirectory);
+        }
+        FileManagerLogger.logInfo("Compressed " + describe(sourcePaths) + " into " + destination);
+        return destination;
+    }
+
+    public Path moveFile(String sourcePath, String destinationDirectory) throws IOException {
+        return inTransaction("Move " + describe(sourcePath) + " to " + destinationDirectory,
+                transaction -> moveFile(sourcePath, destinationDirectory, FileJobEngine.ItemProgress.NONE, transaction));
+    }
+
+    private Path moveFile(String sourcePath, String destinationDirectory, FileJobEngine.ItemProgress progress,
+                          OperationJournal.Transaction transaction) throws IOException {
+        return measured(OperationMetrics.Operation.MOVE, sourcePath, progress,
+                counted -> move(sourcePath, destinationDirectory, counted, transaction));
+    }
+
+    // A move is one rename, so only a file reports its bytes; a folder's would take a walk to count
+    private Path move(String sourcePath, String destinationDirectory, FileJobEngine.ItemProgress progress,
+                      OperationJournal.Transaction transaction) throws IOException {
+        requireOnDisk(sourcePath);
+        requireOnDisk(destinationDirectory);
         Path source = Paths.get(sourcePath);
         File sourceFile = source.toFile();
         String fileName = sourceFile.getName(); // Get the file name with extension
@@ -89,17 +384,347 @@ public class FileManagerController {
             Files.createDirectories(destination.getParent());
         }
 
-        // Perform the move operation
-        Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        // Never overwrite: a clash fails this item and leaves both files alone
+        if (Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(destination.toString(), null, "Destination already has a file with this name");
+        }
+        long size = Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS) ? Files.size(source) : 0;
+        transaction.move(source, destination);
+        progress.addBytes(size);
+        service.invalidateTree(source);
+        service.invalidateAttributes(destination, destination.getParent());
         FileManagerLogger.logInfo("Moved file from " + sourcePath + " to " + destination.toString());
+        return destination;
     }
 
     public void deleteFile(String filePath) throws IOException {
+        deleteFile(filePath, FileJobEngine.ItemProgress.NONE);
+    }
+
+    /**
+     * Deletes a file, or a folder with everything in it.
+     */
+    public void deleteFile(String filePath, FileJobEngine.ItemProgress progress) throws IOException {
+        inTransaction("Delete " + describe(filePath), transaction -> {
+            deleteFile(filePath, progress, transaction);
+            return null;
+        });
+    }
+
+    private void deleteFile(String filePath, FileJobEngine.ItemProgress progress, OperationJournal.Transaction transaction) throws IOException {
+        measured(OperationMetrics.Operation.DELETE, filePath, progress, counted -> {
+            delete(filePath, counted, transaction);
+            return null;
+        });
+    }
+
+    /**
+     * Moves a file or folder to the trash, so the delete can be undone. Only what lives
+     * on another drive than the trash is deleted for good. A trash move is one rename, so
+     * only a file reports its bytes there.
+     */
+    private void delete(String filePath, FileJobEngine.ItemProgress progress, OperationJournal.Transaction transaction) throws IOException {
+        requireOnDisk(filePath);
         Path path = Paths.get(filePath);
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (transaction.trash(path)) {
+            progress.addBytes(attrs.isDirectory() ? 0 : attrs.size());
+            service.invalidateTree(path);
+            FileManagerLogger.logInfo("Moved to trash: " + filePath);
+            return;
+        }
+        transaction.recordDelete(path);
+        if (attrs.isDirectory()) {
+            TreeDeleter.DeleteReport report = service.deleteDirectory(filePath, progress);
+            if (!report.isComplete()) {
+                throw new IOException(report.toString());
+            }
+            FileManagerLogger.logInfo("Deleted folder: " + filePath + " (" + report + ")");
+            return;
+        }
         Files.delete(path);
+        service.invalidateAttributes(path, path.getParent());
+        progress.addBytes(attrs.size());
         FileManagerLogger.logInfo("Deleted file: " + filePath);
     }
 
+    // Each job is one transaction, so a single undo reverses the whole job
+    public FileJobEngine.Job copyFiles(List<String> sourcePaths, String destinationDirectory, CopyOptions options,
+                                       FileJobEngine.JobListener listener) {
+        OperationJournal.Transaction transaction = journal.begin("Copy " + describe(sourcePaths) + " to " + destinationDirectory);
+        return jobEngine.submit("Copy", toPaths(sourcePaths),
+                (item, progress) -> copyFile(item.toString(), destinationDirectory, options, progress, transaction),
+                new CommittingListener(transaction, listener));
+    }
+
+    public FileJobEngine.Job moveFiles(List<String> sourcePaths, String destinationDirectory, FileJobEngine.JobListener listener) {
+        OperationJournal.Transaction transaction = journal.begin("Move " + describe(sourcePaths) + " to " + destinationDirectory);
+        // A move within a drive is one rename, so nothing is sized up front
+        return jobEngine.submit("Move", toPaths(sourcePaths), item -> false,
+                (item, progress) -> moveFile(item.toString(), destinationDirectory, progress, transaction),
+                new CommittingListener(transaction, listener));
+    }
+
+    /**
+     * Compares two folders and plans what makes the target a mirror of the source. Nothing changes yet.
+     */
+    public FolderSync.Plan planSync(String sourceDirectory, String targetDirectory, boolean compareContents,
+                                    boolean deleteExtra, FileJobEngine.ItemProgress progress) throws IOException {
+        requireOnDisk(sourceDirectory);
+        requireOnDisk(targetDirectory);
+        return measured(OperationMetrics.Operation.SYNC_PLAN, sourceDirectory, progress, counted -> folderSync.plan(
+                Paths.get(sourceDirectory), Paths.get(targetDirectory), compareContents, deleteExtra, counted));
+    }
+
+    /**
+     * Carries out a sync plan as one job, undone as a whole. Changes run in parallel; a
+     * folder is made before anything goes into it.
+     */
+    public FileJobEngine.Job syncFolders(FolderSync.Plan plan, FileJobEngine.JobListener listener) {
+        OperationJournal.Transaction transaction = journal.begin("Sync " + plan.getSource() + " to " + plan.getTarget());
+        SyncFolders folders = new SyncFolders(plan.getTarget(), transaction);
+        Map<Path, FolderSync.Change> changes = new LinkedHashMap<>();
+        Set<Path> copies = new HashSet<>();
+        for (FolderSync.Change change : plan.getChanges()) {
+            // Copies go by their source, so the job can size them; everything else only exists on the target side
+            boolean copy = change.getAction() == FolderSync.Action.COPY || change.getAction() == FolderSync.Action.UPDATE;
+            Path item = (copy ? plan.getSource() : plan.getTarget()).resolve(change.getRelative());
+            changes.put(item, change);
+            if (copy) {
+                copies.add(item);
+            }
+        }
+        return jobEngine.submit("Sync", new ArrayList<>(changes.keySet()), copies::contains,
+                (item, progress) -> applySyncChange(plan, changes.get(item), folders, progress, transaction),
+                new CommittingListener(transaction, listener));
+    }
+
+    private Path applySyncChange(FolderSync.Plan plan, FolderSync.Change change, SyncFolders folders,
+                                 FileJobEngine.ItemProgress progress, OperationJournal.Transaction transaction) throws IOException {
+        Path source = plan.getSource().resolve(change.getRelative());
+        Path target = plan.getTarget().resolve(change.getRelative());
+        switch (change.getAction()) {
+            case CREATE:
+                folders.ensure(target);
+                break;
+            case COPY:
+                folders.ensure(target.getParent());
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                    delete(target.toString(), FileJobEngine.ItemProgress.NONE, transaction); // A folder where the file goes
+                }
+                transaction.recordCopy(source, target);
+                treeCopier.copyFile(source, target, SYNC_COPY_OPTIONS, progress);
+                break;
+            case UPDATE:
+                update(source, target, progress, transaction);
+                break;
+            case DELETE:
+                // Only the copies are sized, so a delete's bytes would run the job past its total
+                delete(target.toString(), FileJobEngine.ItemProgress.uncounted(progress), transaction);
+                return null;
+            default:
+                break;
+        }
+        service.invalidateAttributes(target, target.getParent());
+        return target;
+    }
+
+    // Replaces the target's contents with the source's, keeping the old version for undo
+    private void update(Path source, Path target, FileJobEngine.ItemProgress progress,
+                        OperationJournal.Transaction transaction) throws IOException {
+        FileJobEngine.ItemProgress copyProgress = progress;
+        if (Files.size(source) >= DeltaUpdater.THRESHOLD && Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+            DeltaUpdater.Delta delta = deltaUpdater.compare(source, target, progress);
+            if (delta.isWorthwhile()) {
+                transaction.recordPatch(deltaUpdater, delta);
+                deltaUpdater.apply(delta, progress);
+                FileManagerLogger.logInfo("Updated " + target + " in place, " + delta.getBytesToWrite() + " bytes rewritten");
+                return;
+            }
+            copyProgress = FileJobEngine.ItemProgress.uncounted(progress); // Already counted once while comparing
+        }
+        delete(target.toString(), FileJobEngine.ItemProgress.NONE, transaction); // Into the trash while we can
+        transaction.recordCopy(source, target);
+        treeCopier.copyFile(source, target, SYNC_COPY_OPTIONS, copyProgress);
+    }
+
+    // Makes the target's folders once each, parents first, so undo removes them after what went inside
+    private class SyncFolders {
+        private final Path root;
+        private final OperationJournal.Transaction transaction;
+        private final Set<Path> ready = new HashSet<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        SyncFolders(Path root, OperationJournal.Transaction transaction) {
+            this.root = root;
+            this.transaction = transaction;
+        }
+
+        void ensure(Path directory) throws IOException {
+            lock.lock();
+            try {
+                if (ready.contains(directory)) {
+                    return;
+                }
+                if (!directory.equals(root)) {
+                    ensure(directory.getParent());
+                }
+                if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                    if (Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+                        delete(directory.toString(), FileJobEngine.ItemProgress.NONE, transaction); // A file where the folder goes
+                    }
+                    transaction.recordCreate(directory);
+                    Files.createDirectories(directory);
+                }
+                ready.add(directory);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public FileJobEngine.Job deleteFiles(List<String> filePaths, FileJobEngine.JobListener listener) {
+        OperationJournal.Transaction transaction = journal.begin("Delete " + describe(filePaths));
+        // Not sized: walking a folder while it is renamed into the trash would only race the rename
+        return jobEngine.submit("Delete", toPaths(filePaths), item -> false, (item, progress) -> {
+            deleteFile(item.toString(), progress, transaction);
+            return null;
+        }, new CommittingListener(transaction, listener));
+    }
+
+    public boolean canUndo() {
+        return journal.canUndo();
+    }
+
+    /**
+     * What {@link #undo()} would reverse next, or null when there is nothing.
+     */
+    public String getUndoLabel() {
+        return journal.getUndoLabel();
+    }
+
+    /**
+     * Reverses the most recent copy, move, delete or folder creation. Returns the paths it touched.
+     */
+    public List<Path> undo() throws IOException {
+        List<Path> affected = journal.undo();
+        for (Path path : affected) {
+            service.invalidateTree(path);
+        }
+        return affected;
+    }
+
+    public void emptyTrash() throws IOException {
+        journal.emptyTrash();
+    }
+
+    /**
+     * False when the operation journal couldn't be opened; deletes are then for good and nothing can be undone.
+     */
+    public boolean isTrashAvailable() {
+        return journal.isOpen();
+    }
+
+    /**
+     * Why the operation journal couldn't be opened, or null when it is open.
+     */
+    public String getJournalProblem() {
+        return journalProblem;
+    }
+
+    /**
+     * Operations a crash left half done, which were rolled back at startup.
+     */
+    public List<String> getRolledBackOperations() {
+        return rolledBackOperations;
+    }
+
+    private static String describe(String path) {
+        return Paths.get(path).getFileName().toString();
+    }
+
+    private static String describe(List<String> paths) {
+        return paths.size() == 1 ? describe(paths.get(0)) : paths.size() + " items";
+    }
+
+    private <T> T inTransaction(String label, Journaled<T> body) throws IOException {
+        OperationJournal.Transaction transaction = journal.begin(label);
+        try {
+            return body.run(transaction);
+        } finally {
+            commit(transaction);
+        }
+    }
+
+    // Whatever steps ran are real whether or not the operation failed, so they are committed for undo either way
+    private static void commit(OperationJournal.Transaction transaction) {
+        try {
+            transaction.commit();
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to commit to the operation journal: " + e.getMessage());
+        }
+    }
+
+    // Commits a job's transaction once the job has finished, then passes every event on
+    private static class CommittingListener implements FileJobEngine.JobListener {
+        private final OperationJournal.Transaction transaction;
+        private final FileJobEngine.JobListener listener;
+
+        CommittingListener(OperationJournal.Transaction transaction, FileJobEngine.JobListener listener) {
+            this.transaction = transaction;
+            this.listener = listener;
+        }
+
+        @Override
+        public void progressUpdated(FileJobEngine.JobProgress progress) {
+            listener.progressUpdated(progress);
+        }
+
+        @Override
+        public void itemCompleted(Path item, Path result) {
+            listener.itemCompleted(item, result);
+        }
+
+        @Override
+        public void jobFinished(FileJobEngine.JobProgress progress) {
+            commit(transaction);
+            listener.jobFinished(progress);
+        }
+    }
+
+    // Archives are browsed, never written to
+    private static void requireOnDisk(String path) throws IOException {
+        if (ArchiveBrowser.isInsideArchive(path)) {
+            throw new IOException("Archives can only be read: " + path);
+        }
+    }
+
+    private static <T> T measured(OperationMetrics.Operation operation, Object path, Measured<T> body) throws IOException {
+        return measured(operation, path, FileJobEngine.ItemProgress.NONE, body);
+    }
+
+    private static <T> T measured(OperationMetrics.Operation operation, Object path, FileJobEngine.ItemProgress progress,
+                                  Measured<T> body) throws IOException {
+        OperationMetrics.Sample sample = OperationMetrics.start(operation, path);
+        AtomicLong bytes = new AtomicLong(); // A tree copy or delete adds from several threads
+        try {
+            T result = body.run(FileJobEngine.ItemProgress.counting(progress, bytes));
+            sample.end(bytes.get());
+            return result;
+        } catch (IOException | RuntimeException e) {
+            sample.fail();
+            throw e;
+        }
+    }
+
+    private static List<Path> toPaths(List<String> filePaths) {
+        List<Path> paths = new ArrayList<>(filePaths.size());
+        for (String filePath : filePaths) {
+            paths.add(Paths.get(filePath));
+        }
+        return paths;
+    }
+
     public void setCutFile(String filePath) {
         this.cutFilePath = filePath;
     }
@@ -109,16 +734,12 @@ public class FileManagerController {
             throw new IllegalStateException("No file to paste.");
         }
 
-        // Extract the file name from the cutFilePath
-        String fileName = new File(cutFilePath).getName();
-        // Construct the destination path
-        Path destinationPath = Paths.get(destinationDirectory).resolve(fileName);
-
-        // Move the file using the service
-        service.moveFile(cutFilePath, destinationPath.toString());
+        // Move the file, journaled like any other move so it can be undone
+        String sourcePath = cutFilePath;
+        Path destinationPath = moveFile(sourcePath, destinationDirectory);
         // Clear the cutFilePath after successful move
         cutFilePath = null;
-        FileManagerLogger.logInfo("Pasted file from " + cutFilePath + " to " + destinationPath.toString());
+        FileManagerLogger.logInfo("Pasted file from " + sourcePath + " to " + destinationPath.toString());
     }
 
     public void openFolder(String folderName) {
@@ -1,16 +1,50 @@
 package org.example;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Appends log lines from a background thread. Callers only put a record on a
+ * lock-free queue; the writer batches records into one long-lived FileChannel and
+ * flushes once enough bytes pile up or the flush interval passes.
+ *
+ * <p>The queue is bounded. When it is full, INFO records are dropped (and counted
+ * in the log later) while ERROR records wait a short while for room.
+ */
 public class FileManagerLogger {
 
-    private static final String LOG_FILE_PATH = "file_manager.log"; // Log file path
+    private static final Path LOG_FILE_PATH = Paths.get("file_manager.log"); // Log file path
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int FLUSH_SIZE = 32 * 1024;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long ERROR_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAX_FILE_SIZE = 10L * 1024 * 1024;
+    private static final int MAX_ROTATED_FILES = 3;
+
+    private static final ConcurrentLinkedQueue<LogRecord> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean shuttingDown;
+    private static final Thread writer = startWriter();
+
     public static void logError(String message) {
         log("ERROR", message);
     }
@@ -20,17 +54,164 @@ public class FileManagerLogger {
     }
 
     private static void log(String level, String message) {
-        try (FileWriter fw = new FileWriter(LOG_FILE_PATH, true);
-             PrintWriter pw = new PrintWriter(fw)) {
-
-            String timestamp = LocalDateTime.now().format(FORMATTER);
-            pw.printf("%s [%s]: %s%n", timestamp, level, message);
+        if (!reserveSlot("ERROR".equals(level))) {
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new LogRecord(System.currentTimeMillis(), level, message));
+        LockSupport.unpark(writer);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace(); // Fallback logging if the logger itself fails
+    private static boolean reserveSlot(boolean waitForRoom) {
+        long deadline = System.nanoTime() + ERROR_WAIT_NANOS;
+        while (true) {
+            int count = queued.get();
+            if (count < QUEUE_CAPACITY) {
+                if (queued.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            if (!waitForRoom || System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            Thread.yield();
         }
     }
-}
 
+    private static Thread startWriter() {
+        Thread thread = new Thread(new Writer(), "file-manager-logger");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Not an interrupt: that would close the channel under a write in progress
+            shuttingDown = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "file-manager-logger-shutdown"));
+        return thread;
+    }
+
+    private static class Writer implements Runnable {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(FLUSH_SIZE * 2);
+        private final ZoneId zone = ZoneId.systemDefault();
+        private FileChannel channel;
+        private long lastFlush = System.nanoTime();
+        private long timestampSecond = -1;
+        private String timestamp;
+
+        @Override
+        public void run() {
+            boolean running = true;
+            while (running) {
+                running = !shuttingDown; // When shutting down, drain what's left and stop
+                drain();
+                if (buffer.position() >= FLUSH_SIZE || System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS || !running) {
+                    flush();
+                }
+                if (running && queue.isEmpty()) {
+                    LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+                }
+            }
+            close();
+        }
+
+        private void drain() {
+            long droppedCount = dropped.getAndSet(0);
+            if (droppedCount > 0) {
+                append(new LogRecord(System.currentTimeMillis(), "ERROR", droppedCount + " log messages were dropped"));
+            }
+            LogRecord record;
+            while ((record = queue.poll()) != null) {
+                queued.decrementAndGet();
+                append(record);
+            }
+        }
+
+        private void append(LogRecord record) {
+            long second = record.time / 1000;
+            if (second != timestampSecond) {
+                // Timestamps only have second precision, so format each second once
+                timestampSecond = second;
+                timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.time), zone).format(FORMATTER);
+            }
+            byte[] line = (timestamp + " [" + record.level + "]: " + record.message + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8);
+            if (line.length > buffer.remaining()) {
+                flush();
+            }
+            if (line.length > buffer.capacity()) {
+                write(ByteBuffer.wrap(line)); // Too big to batch
+            } else {
+                buffer.put(line);
+            }
+        }
+
+        private void flush() {
+            lastFlush = System.nanoTime();
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
 
+        private void write(ByteBuffer bytes) {
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(LOG_FILE_PATH, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                if (channel.size() > MAX_FILE_SIZE) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                e.printStackTrace(); // Fallback logging if the logger itself fails
+                bytes.position(bytes.limit());
+            }
+        }
 
+        // file_manager.log -> file_manager.log.1 -> ... -> file_manager.log.N
+        private void rotate() throws IOException {
+            channel.close();
+            channel = null;
+            for (int i = MAX_ROTATED_FILES - 1; i >= 1; i--) {
+                Path older = Paths.get(LOG_FILE_PATH + "." + i);
+                if (Files.exists(older)) {
+                    Files.move(older, Paths.get(LOG_FILE_PATH + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(LOG_FILE_PATH, Paths.get(LOG_FILE_PATH + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class LogRecord {
+        private final long time;
+        private final String level;
+        private final String message;
+
+        LogRecord(long time, String level, String message) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+        }
+    }
+}
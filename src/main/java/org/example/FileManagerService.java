@@ -3,12 +3,35 @@ package org.example;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.Comparator;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 public class FileManagerService {
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    private static final int FIRST_BATCH_SIZE = 64; // Small first batch so the first screen shows right away
+
     private String currentDirectory;
+    private final DirectorySizeEngine sizeEngine = new DirectorySizeEngine();
+    private final TreeDeleter treeDeleter = new TreeDeleter();
+    private final AttributeCache attributeCache = new AttributeCache();
+    private final ContentSearcher contentSearcher = new ContentSearcher();
+    private final DuplicateFinder duplicateFinder = new DuplicateFinder();
+    private final FileNameIndex nameIndex = new FileNameIndex(FileNameIndex.defaultIndexFile());
+    private final OperationJournal journal = new OperationJournal(OperationJournal.defaultJournalFile(),
+            OperationJournal.defaultTrashDirectory(), treeDeleter);
+    private final DirectorySnapshots snapshots = new DirectorySnapshots();
+    private final MountLimiter mountLimiter = MountLimiter.shared();
+    private final ArchiveBrowser archives = new ArchiveBrowser();
+    private final NavigationPrefetcher prefetcher = new NavigationPrefetcher(snapshots, this::prefetchListing);
+    private final List<DiskUsageTree> usageTrees = new CopyOnWriteArrayList<>();
+    private volatile DirectoryWatcher watcher;
+    private Path watchedDirectory;
 
     public FileManagerService() {
         this.currentDirectory = System.getProperty("user.home"); // Default to user's home directory
@@ -19,6 +42,13 @@ public class FileManagerService {
     }
 
     public List<File> listFiles(String directoryPath) {
+        if (ArchiveBrowser.isInsideArchive(directoryPath)) {
+            try {
+                return archives.list(directoryPath).stream().map(entry -> entry.getPath().toFile()).collect(Collectors.toList());
+            } catch (IOException e) {
+                return List.of();
+            }
+        }
         File directory = new File(directoryPath);
         if (directory.isDirectory()) {
             File[] files = directory.listFiles();
@@ -29,6 +59,180 @@ public class FileManagerService {
         return List.of(); // Return an empty list if the directory is invalid or an error occurs
     }
 
+    /**
+     * Streams the entries of a directory to the consumer in batches, reading the
+     * attributes of each entry as it goes - side by side on network mounts, where
+     * every stat is a round trip to the server. Meant to be called off the EDT; stops
+     * early when the calling thread is interrupted. A listing always stats afresh
+     * and leaves the results in the attribute cache for everything that follows,
+     * and a complete one leaves a snapshot of the directory too.
+     */
+    public void streamDirectory(String directoryPath, int batchSize, Consumer<List<FileEntry>> batchConsumer) throws IOException {
+        if (ArchiveBrowser.isInsideArchive(directoryPath)) {
+            // The archive's index is already in memory, so one batch is all there is
+            batchConsumer.accept(archives.list(directoryPath));
+            return;
+        }
+        Path directory = Paths.get(directoryPath);
+        int limit = Math.min(FIRST_BATCH_SIZE, batchSize);
+        List<FileEntry> batch = new ArrayList<>(limit);
+        long directoryModified = DirectorySnapshots.modifiedTime(directory);
+        List<FileEntry> snapshot = new ArrayList<>();
+
+        // Where each stat waits on a server, a batch's stats are read side by side instead of one after another
+        boolean concurrentStats = IoExecutors.isVirtual() || mountLimiter.isRemoteDirectory(directory);
+        List<Path> pending = new ArrayList<>(limit);
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                pending.add(entry);
+                if (pending.size() < limit) {
+                    continue;
+                }
+                for (FileEntry fileEntry : readEntries(pending, concurrentStats)) {
+                    if (snapshot != null) {
+                        snapshot.add(fileEntry);
+                        if (snapshot.size() > DirectorySnapshots.MAX_ENTRIES) {
+                            snapshot = null; // Too big to keep
+                        }
+                    }
+                    batch.add(fileEntry);
+                }
+                if (!batch.isEmpty()) {
+                    batchConsumer.accept(batch);
+                    limit = batchSize;
+                    batch = new ArrayList<>(limit);
+                }
+                pending = new ArrayList<>(limit);
+            }
+        }
+        for (FileEntry fileEntry : readEntries(pending, concurrentStats)) {
+            if (snapshot != null) {
+                snapshot.add(fileEntry);
+                if (snapshot.size() > DirectorySnapshots.MAX_ENTRIES) {
+                    snapshot = null;
+                }
+            }
+            batch.add(fileEntry);
+        }
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+        }
+        if (snapshot != null) {
+            DirectoryWatcher directoryWatcher = watcher;
+            snapshots.put(directory, directoryModified, snapshot, directoryWatcher != null && directoryWatcher.isWatched(directory));
+        }
+    }
+
+    /**
+     * The remembered listing of a directory, or null when there is none or it no longer matches.
+     */
+    public DirectorySnapshots.Snapshot getSnapshot(String directoryPath) {
+        return snapshots.get(Paths.get(directoryPath));
+    }
+
+    /**
+     * Lists a directory in the background, at low priority, so opening it later is instant.
+     */
+    public void prefetch(String directoryPath) {
+        prefetcher.prefetch(Paths.get(directoryPath));
+    }
+
+    private void prefetchListing(Path directory) {
+        try {
+            streamDirectory(directory.toString(), DEFAULT_BATCH_SIZE, batch -> { });
+        } catch (IOException e) {
+            // Not readable; opening it will report that
+        }
+    }
+
+    // Entries for the paths in order, leaving out the ones that vanished
+    private List<FileEntry> readEntries(List<Path> paths, boolean concurrent) throws IOException {
+        List<FileEntry> entries = new ArrayList<>(paths.size());
+        if (!concurrent || paths.size() < 2) {
+            for (Path path : paths) {
+                FileEntry entry = readEntry(path, true);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        }
+        try (IoScope<FileEntry> scope = new IoScope<>()) {
+            for (Path path : paths) {
+                scope.fork(() -> mountLimiter.call(path, () -> readEntry(path, true)));
+            }
+            for (FileEntry entry : scope.join()) {
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the entry for a single path, or returns null when it no longer exists.
+     */
+    public FileEntry readEntry(Path path) {
+        if (ArchiveBrowser.isInsideArchive(path.toString())) {
+            try {
+                return archives.stat(path.toString());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return readEntry(path, false);
+    }
+
+    /**
+     * Streams an archive entry, or a folder of them, out to {@code target}, which must not exist yet or be an empty placeholder.
+     */
+    public void extractFromArchive(String entryPath, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+        archives.extract(entryPath, target, progress);
+    }
+
+    private FileEntry readEntry(Path path, boolean fresh) {
+        try {
+            AttributeCache.Attributes attributes = fresh ? attributeCache.load(path) : attributeCache.get(path);
+            return attributes == null ? null : FileEntry.of(path, attributes);
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to read attributes: " + path);
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the cached attributes of paths this application just changed itself.
+     */
+    public void invalidateAttributes(Path... paths) {
+        for (Path path : paths) {
+            attributeCache.invalidate(path);
+        }
+    }
+
+    /**
+     * Forgets everything cached about a file or folder tree that moved away or was deleted.
+     */
+    public void invalidateTree(Path path) {
+        sizeEngine.invalidateTree(path);
+        attributeCache.invalidateTree(path);
+        if (path.getParent() != null) {
+            attributeCache.invalidate(path.getParent());
+        }
+    }
+
+    public AttributeCache getAttributeCache() {
+        return attributeCache;
+    }
+
+    public OperationJournal getJournal() {
+        return journal;
+    }
+
     public List<File> searchFiles(String query, String directoryPath) {
         List<File> allFiles = listFiles(directoryPath);
         return allFiles.stream()
@@ -36,6 +240,230 @@ public class FileManagerService {
                 .collect(Collectors.toList());
     }
 
+    public boolean isIndexed(String directoryPath) {
+        return nameIndex.covers(Paths.get(directoryPath));
+    }
+
+    public void indexDirectory(String directoryPath) throws IOException {
+        Path root = Paths.get(directoryPath).toAbsolutePath().normalize();
+        nameIndex.addRoot(root);
+        DirectoryWatcher directoryWatcher = getWatcher();
+        if (directoryWatcher != null) {
+            directoryWatcher.watchTree(root);
+        }
+    }
+
+    /**
+     * The disk usage tree saved by an earlier scan of the directory, or null.
+     */
+    public DiskUsageTree loadDiskUsage(String directoryPath) throws IOException {
+        return DiskUsageTree.load(DiskUsageTree.defaultSaveFile(Paths.get(directoryPath)));
+    }
+
+    /**
+     * Scans the directory into a new disk usage tree and saves it for next time.
+     */
+    public DiskUsageTree scanDiskUsage(String directoryPath, LongConsumer progress, BooleanSupplier cancelled) throws IOException {
+        DiskUsageTree tree = DiskUsageTree.scan(Paths.get(directoryPath), progress, cancelled);
+        tree.save(DiskUsageTree.defaultSaveFile(tree.getRoot()));
+        return tree;
+    }
+
+    /**
+     * Keeps the tree up to date from change events until {@link #unfollowDiskUsage} is called.
+     */
+    public void followDiskUsage(DiskUsageTree tree) {
+        usageTrees.add(tree);
+        DirectoryWatcher directoryWatcher = getWatcher();
+        if (directoryWatcher != null) {
+            // Registering every folder of a big tree takes a while; callers are often on the EDT
+            Thread registration = new Thread(() -> directoryWatcher.watchTree(tree.getRoot()), "usage-watch-registration");
+            registration.setDaemon(true);
+            registration.start();
+        }
+    }
+
+    public void unfollowDiskUsage(DiskUsageTree tree) {
+        usageTrees.remove(tree);
+    }
+
+    /**
+     * Saves the tree with the changes it has taken since the scan, for the next time it is opened.
+     */
+    public void saveDiskUsage(DiskUsageTree tree) throws IOException {
+        tree.save(DiskUsageTree.defaultSaveFile(tree.getRoot()));
+    }
+
+    public void watchDirectory(String directoryPath) {
+        DirectoryWatcher directoryWatcher = getWatcher();
+        if (directoryWatcher != null && !ArchiveBrowser.isInsideArchive(directoryPath)) {
+            Path directory = Paths.get(directoryPath).toAbsolutePath().normalize();
+            directoryWatcher.watchCurrentDirectory(directory);
+            synchronized (this) {
+                // Events stop for the directory left behind, and start for this one
+                if (watchedDirectory != null && !directoryWatcher.isWatched(watchedDirectory)) {
+                    snapshots.setWatched(watchedDirectory, false);
+                }
+                watchedDirectory = directory;
+            }
+            DirectorySnapshots.Snapshot snapshot = snapshots.get(directory);
+            if (snapshot != null && snapshot.isFresh()) {
+                snapshots.setWatched(directory, true);
+            }
+        }
+    }
+
+    public void addChangeListener(DirectoryWatcher.ChangeListener listener) {
+        DirectoryWatcher directoryWatcher = getWatcher();
+        if (directoryWatcher != null) {
+            directoryWatcher.addListener(listener);
+        }
+    }
+
+    // The watcher thread only starts once something asks to be told about changes
+    private synchronized DirectoryWatcher getWatcher() {
+        if (watcher == null) {
+            try {
+                watcher = new DirectoryWatcher();
+            } catch (IOException e) {
+                FileManagerLogger.logError("File system watching is not available: " + e.getMessage());
+                return null;
+            }
+            watcher.addListener(this::applyChanges);
+            sizeEngine.setWatchedTree(watcher::isTreeWatched); // From here on changes there invalidate cached sizes
+            DirectoryWatcher directoryWatcher = watcher;
+            Thread registration = new Thread(() -> {
+                for (String root : nameIndex.getRoots()) {
+                    directoryWatcher.watchTree(Paths.get(root));
+                }
+            }, "index-watch-registration");
+            registration.setDaemon(true);
+            registration.start();
+        }
+        return watcher;
+    }
+
+    // Keeps the name index and the cached directory sizes in step with the file system
+    private void applyChanges(DirectoryWatcher.ChangeBatch batch) {
+        for (Path path : batch.getDeleted()) {
+            snapshots.entryChanged(path, null);
+            nameIndex.pathDeleted(path);
+            sizeEngine.invalidate(path.getParent());
+            attributeCache.invalidate(path); // Its children get events of their own, or age out
+            attributeCache.invalidate(path.getParent());
+        }
+        for (Path path : batch.getCreated()) {
+            nameIndex.pathCreated(path);
+            sizeEngine.invalidate(path.getParent());
+            attributeCache.invalidate(path);
+            attributeCache.invalidate(path.getParent());
+            patchSnapshot(path);
+        }
+        for (Path path : batch.getModified()) {
+            sizeEngine.invalidate(path.getParent());
+            attributeCache.invalidate(path);
+            patchSnapshot(path);
+        }
+        for (Path directory : batch.getOverflowed()) {
+            sizeEngine.invalidateTree(directory);
+            attributeCache.invalidateTree(directory);
+            snapshots.invalidate(directory);
+        }
+        applyUsageChanges(batch);
+        if (nameIndex.needsCompaction()) {
+            try {
+                nameIndex.save();
+            } catch (IOException e) {
+                FileManagerLogger.logError("Failed to save name index: " + e.getMessage());
+            }
+        }
+    }
+
+    private void patchSnapshot(Path path) {
+        if (path.getParent() != null && snapshots.contains(path.getParent())) {
+            snapshots.entryChanged(path, readEntry(path));
+        }
+    }
+
+    // Disk usage trees take the same events, so they stay right without another scan
+    private void applyUsageChanges(DirectoryWatcher.ChangeBatch batch) {
+        for (DiskUsageTree tree : usageTrees) {
+            for (Path path : batch.getDeleted()) {
+                tree.pathDeleted(path);
+            }
+            for (Path path : batch.getCreated()) {
+                tree.pathChanged(path);
+            }
+            for (Path path : batch.getModified()) {
+                tree.pathChanged(path);
+            }
+            for (Path directory : batch.getOverflowed()) {
+                if (tree.covers(directory)) {
+                    tree.rescan(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches the name index for entries anywhere below the directory. A query
+     * ending in '*' matches name prefixes, anything else matches substrings.
+     * Entry names are relative to the directory so nested hits can be told apart.
+     */
+    public List<FileEntry> searchRecursive(String query, String directoryPath, int limit) {
+        boolean prefix = query.endsWith("*");
+        String term = prefix ? query.substring(0, query.length() - 1) : query;
+        Path directory = Paths.get(directoryPath).toAbsolutePath().normalize();
+
+        List<FileEntry> results = new ArrayList<>();
+        for (Path path : nameIndex.search(term, directory, prefix, limit)) {
+            FileEntry entry = readEntry(path);
+            if (entry != null) {
+                results.add(new FileEntry(path, directory.relativize(path).toString(), entry.getSize(),
+                        entry.getLastModified(), entry.isDirectory()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Searches the contents of every text file below the directory for any of the
+     * '|'-separated terms, ignoring case, and hands each matching file to
+     * {@code onHit} as soon as it is found. Names are relative to the directory.
+     */
+    public void searchContent(String query, String directoryPath, int limit, Consumer<FileEntry> onHit,
+                              BooleanSupplier cancelled) throws IOException {
+        Path directory = Paths.get(directoryPath).toAbsolutePath().normalize();
+        contentSearcher.search(directory, ContentSearcher.parseTerms(query), limit, (path, attrs) ->
+                onHit.accept(new FileEntry(path, directory.relativize(path).toString(), attrs.size(),
+                        attrs.lastModifiedTime().toMillis(), false)), cancelled);
+    }
+
+    public List<DuplicateFinder.DuplicateGroup> findDuplicates(String directoryPath, FileJobEngine.ItemProgress progress) throws IOException {
+        return duplicateFinder.find(Paths.get(directoryPath).toAbsolutePath().normalize(), progress);
+    }
+
+    public long hardlinkDuplicates(DuplicateFinder.DuplicateGroup group, Path keep,
+                                   OperationJournal.Transaction transaction) throws IOException {
+        long freed = duplicateFinder.hardlinkDuplicates(group, keep, transaction);
+        invalidateGroup(group);
+        return freed;
+    }
+
+    public long deleteDuplicates(DuplicateFinder.DuplicateGroup group, Path keep,
+                                 OperationJournal.Transaction transaction) throws IOException {
+        long freed = duplicateFinder.deleteDuplicates(group, keep, transaction);
+        invalidateGroup(group);
+        return freed;
+    }
+
+    private void invalidateGroup(DuplicateFinder.DuplicateGroup group) {
+        for (FileEntry entry : group.getFiles()) {
+            attributeCache.invalidate(entry.getPath());
+            sizeEngine.invalidate(entry.getPath().getParent());
+        }
+    }
+
     public void copyFile(String sourcePath, String destinationPath) throws IOException {
         Path source = Paths.get(sourcePath);
         Path destination = Paths.get(destinationPath);
@@ -45,7 +473,7 @@ public class FileManagerService {
     public void moveFile(String sourcePath, String destinationPath) throws IOException {
         Path source = Paths.get(sourcePath);
         Path destination = Paths.get(destinationPath);
-        Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(source, destination); // Fails rather than overwrite whatever is there
     }
 
     public void deleteFile(String filePath) throws IOException {
@@ -58,12 +486,28 @@ public class FileManagerService {
         Files.createDirectory(path);
     }
 
-    public void deleteDirectory(String directoryPath) throws IOException {
+    public TreeDeleter.DeleteReport deleteDirectory(String directoryPath) {
+        return deleteDirectory(directoryPath, FileJobEngine.ItemProgress.NONE);
+    }
+
+    /**
+     * Deletes a directory and everything in it, sibling subtrees in parallel.
+     * Entries that can't be deleted are listed in the report rather than thrown.
+     */
+    public TreeDeleter.DeleteReport deleteDirectory(String directoryPath, FileJobEngine.ItemProgress progress) {
         Path path = Paths.get(directoryPath);
-        Files.walk(path)
-                .sorted(Comparator.reverseOrder())
-                .map(Path::toFile)
-                .forEach(File::delete);
+        TreeDeleter.DeleteReport report = treeDeleter.delete(path, progress);
+        sizeEngine.invalidateTree(path);
+        attributeCache.invalidateTree(path);
+        return report;
+    }
+
+    public DirectorySizeEngine.SizeRequest newDirectorySizeRequest(DirectorySizeEngine.SizeListener listener) {
+        return sizeEngine.newRequest(listener);
+    }
+
+    public long getDirectorySize(String directoryPath) {
+        return sizeEngine.calculate(Paths.get(directoryPath));
     }
 
     public boolean changeDirectory(String newDirectoryPath) {
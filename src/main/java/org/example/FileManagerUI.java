@@ -3,28 +3,40 @@ package org.example;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.text.CharacterIterator;
-import java.text.SimpleDateFormat;
-import java.text.StringCharacterIterator;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 public class FileManagerUI {
+    private static final int MAX_SEARCH_RESULTS = 10_000;
+
     private JFrame frame;
     private JTable fileTable;
-    private DefaultTableModel tableModel;
+    private FileTableModel tableModel;
     private JTextField pathField;
     private JTextField searchField;
+    private JCheckBox recursiveSearchBox;
+    private JCheckBox contentSearchBox;
     private FileManagerController controller;
+    private DirectoryLoader directoryLoader;
+    private ContentSearch contentSearch;
+    private DirectorySizeEngine.SizeRequest sizeRequest;
+    private boolean showingSearchResults;
+    private PreviewPane previewPane;
 
     public FileManagerUI(FileManagerController controller) {
         this.controller = controller;
@@ -44,20 +56,46 @@ public class FileManagerUI {
         topPanel.add(pathField, BorderLayout.CENTER);
         frame.add(topPanel, BorderLayout.NORTH);
 
-        // Update: Add a "Type" column to the table model
-        tableModel = new DefaultTableModel(new String[]{"Name", "Size", "Type", "Last Modified"}, 0);
+        tableModel = new FileTableModel();
         fileTable = new JTable(tableModel);
+        fileTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = fileTable.columnAtPoint(e.getPoint());
+                if (column != -1) {
+                    tableModel.sortBy(fileTable.convertColumnIndexToModel(column));
+                }
+            }
+        });
         JScrollPane scrollPane = new JScrollPane(fileTable);
-        frame.add(scrollPane, BorderLayout.CENTER);
+
+        // The table and the thumbnail grid share the center; the preview sits to the right
+        ThumbnailLoader thumbnailLoader = controller.getThumbnailLoader();
+        FileGridView gridView = new FileGridView(tableModel, fileTable, thumbnailLoader, controller::getCurrentDirectory,
+                this::openSelectedFile);
+        CardLayout views = new CardLayout();
+        JPanel viewPanel = new JPanel(views);
+        viewPanel.add(scrollPane, "table");
+        viewPanel.add(gridView.getComponent(), "grid");
+        frame.add(viewPanel, BorderLayout.CENTER);
+        previewPane = new PreviewPane(thumbnailLoader);
+        frame.add(previewPane.getComponent(), BorderLayout.EAST);
 
         fileTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
             @Override
             public void valueChanged(ListSelectionEvent event) {
                 int selectedRow = fileTable.getSelectedRow();
                 if (selectedRow != -1) {
-                    String fileName = (String) tableModel.getValueAt(selectedRow, 0);
+                    String fileName = tableModel.getName(selectedRow);
                     File file = new File(controller.getCurrentDirectory() + File.separator + fileName);
                     pathField.setText(file.getAbsolutePath()); // Display selected file path
+                    if (!event.getValueIsAdjusting()) {
+                        previewPane.show(file.toPath(), tableModel.isDirectory(selectedRow),
+                                tableModel.getSize(selectedRow), tableModel.getLastModified(selectedRow));
+                        if (tableModel.isDirectory(selectedRow) && !showingSearchResults) {
+                            controller.prefetch(file.getAbsolutePath()); // Likely to be opened next
+                        }
+                    }
                 }
             }
         });
@@ -70,9 +108,15 @@ public class FileManagerUI {
         JButton copyButton = new JButton("Copy");
         JButton moveButton = new JButton("Move");
         JButton deleteButton = new JButton("Delete");
+        JButton undoButton = new JButton("Undo");
+        undoButton.setToolTipText("Reverse the last copy, move, delete or new folder");
 
         searchField = new JTextField(20); // Search field with specified width
         JButton searchButton = new JButton("Search");
+        recursiveSearchBox = new JCheckBox("Recursive");
+        recursiveSearchBox.setToolTipText("Search all subfolders using the name index. End the query with * to match name prefixes.");
+        contentSearchBox = new JCheckBox("Content");
+        contentSearchBox.setToolTipText("Search inside the text files of all subfolders, ignoring case. Separate several terms with |.");
 
         buttonPanel.add(openButton);
         buttonPanel.add(backButton);
@@ -80,13 +124,51 @@ public class FileManagerUI {
         buttonPanel.add(copyButton);
         buttonPanel.add(moveButton);
         buttonPanel.add(deleteButton);
+        buttonPanel.add(undoButton);
 
         // Add search field and button to the button panel
         buttonPanel.add(searchField);
         buttonPanel.add(searchButton);
+        buttonPanel.add(recursiveSearchBox);
+        buttonPanel.add(contentSearchBox);
 
         frame.add(buttonPanel, BorderLayout.SOUTH);
 
+        // Menu for the longer-running tools that work on a whole folder tree
+        JMenuBar menuBar = new JMenuBar();
+        JMenu toolsMenu = new JMenu("Tools");
+        JMenuItem duplicatesItem = new JMenuItem("Find Duplicates...");
+        duplicatesItem.addActionListener(e -> findDuplicates());
+        toolsMenu.add(duplicatesItem);
+        JMenuItem compressItem = new JMenuItem("Compress to Zip");
+        compressItem.addActionListener(e -> compressSelectedFiles());
+        toolsMenu.add(compressItem);
+        JMenuItem syncItem = new JMenuItem("Sync Folder To...");
+        syncItem.addActionListener(e -> syncCurrentFolder());
+        toolsMenu.add(syncItem);
+        JMenuItem diskUsageItem = new JMenuItem("Disk Usage...");
+        diskUsageItem.addActionListener(e -> new DiskUsageDialog(frame, controller, controller.getCurrentDirectory()).show());
+        toolsMenu.add(diskUsageItem);
+        JMenuItem metricsItem = new JMenuItem("Operation Metrics...");
+        metricsItem.addActionListener(e -> new MetricsDialog(frame).show());
+        toolsMenu.add(metricsItem);
+        JMenuItem emptyTrashItem = new JMenuItem("Empty Trash...");
+        emptyTrashItem.addActionListener(e -> emptyTrash());
+        toolsMenu.add(emptyTrashItem);
+        menuBar.add(toolsMenu);
+        JMenu viewMenu = new JMenu("View");
+        JCheckBoxMenuItem gridItem = new JCheckBoxMenuItem("Thumbnail Grid");
+        gridItem.addActionListener(e -> views.show(viewPanel, gridItem.isSelected() ? "grid" : "table"));
+        viewMenu.add(gridItem);
+        JCheckBoxMenuItem previewItem = new JCheckBoxMenuItem("Preview Pane", true);
+        previewItem.addActionListener(e -> {
+            previewPane.getComponent().setVisible(previewItem.isSelected());
+            frame.revalidate();
+        });
+        viewMenu.add(previewItem);
+        menuBar.add(viewMenu);
+        frame.setJMenuBar(menuBar);
+
         createButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -97,33 +179,28 @@ public class FileManagerUI {
         copyButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                try {
-                    copySelectedFile();
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error copying file: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
+                copySelectedFile();
             }
         });
 
         moveButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                try {
-                    moveSelectedFile();
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error moving file: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
+                moveSelectedFile();
             }
         });
 
         deleteButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                try {
-                    deleteSelectedFile();
-                } catch (IOException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error deleting file: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
+                deleteSelectedFile();
+            }
+        });
+
+        undoButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undoLastOperation();
             }
         });
 
@@ -150,7 +227,18 @@ public class FileManagerUI {
 
         frame.setVisible(true);
 
+        controller.addChangeListener(this::changesDetected);
         loadDirectoryContents(System.getProperty("user.home"));
+
+        List<String> rolledBack = controller.getRolledBackOperations();
+        if (!rolledBack.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "These operations were interrupted last time and have been rolled back:\n"
+                    + String.join("\n", rolledBack), "Recovered", JOptionPane.INFORMATION_MESSAGE);
+        }
+        if (controller.getJournalProblem() != null) {
+            JOptionPane.showMessageDialog(frame, "Undo is off and deleted files won't go to the trash:\n"
+                    + controller.getJournalProblem(), "No Undo", JOptionPane.WARNING_MESSAGE);
+        }
     }
 
     private void loadDirectoryContents(String path) {
@@ -158,71 +246,202 @@ public class FileManagerUI {
         File currentDir = new File(path);
         pathField.setText(currentDir.getAbsolutePath()); // Set the path field to the current directory
 
-        tableModel.setRowCount(0); // Clear the table
+        cancelBackgroundWork(); // Stop streaming and sizing the previous directory
+        tableModel.clear(); // Clear the table
+        previewPane.clear();
+        showingSearchResults = false;
+        controller.watchDirectory(path);
 
-        File[] files = currentDir.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    Path filePath = file.toPath();
-                    BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
-                    long lastModified = attrs.lastModifiedTime().toMillis();
-                    String formattedDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(lastModified);
-                    String size = file.isDirectory() ? "--" : humanReadableByteCountSI(attrs.size());
-                    String type = file.isDirectory() ? "Directory" : "File";
-                    tableModel.addRow(new Object[]{file.getName(), size, type, formattedDate});
-
-                    // If it's a directory, you can calculate its size asynchronously if needed
-                    if (file.isDirectory()) {
-                        new DirectorySizeCalculator(file, tableModel.getRowCount() - 1).execute();
-                    }
+        DirectorySizeEngine.SizeRequest request = controller.newDirectorySizeRequest(
+                (directory, bytes, complete) -> SwingUtilities.invokeLater(() -> showDirectorySize(directory, bytes, complete)));
+        sizeRequest = request;
+
+        // A remembered listing shows at once; unless it is known to be current, a listing still runs to check it
+        DirectorySnapshots.Snapshot snapshot = controller.getSnapshot(path);
+        if (snapshot != null) {
+            showEntries(snapshot.getEntries(), request);
+        }
+        if (snapshot == null || !snapshot.isFresh()) {
+            directoryLoader = new DirectoryLoader(path, request, snapshot != null);
+            directoryLoader.execute();
+        }
+
+        File parent = currentDir.getParentFile();
+        if (parent != null) {
+            controller.prefetch(parent.getAbsolutePath()); // For Back
+        }
+    }
+
+    private void showEntries(List<FileEntry> entries, DirectorySizeEngine.SizeRequest request) {
+        tableModel.addEntries(entries);
+
+        if (ArchiveBrowser.isInsideArchive(controller.getCurrentDirectory())) {
+            return; // Archive folders already carry their totals
+        }
+
+        // Calculate directory sizes asynchronously
+        for (FileEntry entry : entries) {
+            if (entry.isDirectory()) {
+                request.submit(entry.getPath());
+            }
+        }
+    }
+
+    private void cancelBackgroundWork() {
+        if (directoryLoader != null) {
+            directoryLoader.cancel(true);
+        }
+        if (contentSearch != null) {
+            contentSearch.cancel(false); // The scanners check the flag; interrupting would close their channels
+            contentSearch = null;
+        }
+        if (sizeRequest != null) {
+            sizeRequest.cancel();
+            sizeRequest = null;
+        }
+        controller.getThumbnailLoader().cancelPending(); // Thumbnails of the folder being left
+    }
+
+    // Runs on the watcher thread: stat the changed rows here, then patch the table on the EDT
+    private void changesDetected(DirectoryWatcher.ChangeBatch batch) {
+        Path current = Paths.get(controller.getCurrentDirectory()).toAbsolutePath().normalize();
+        if (batch.getOverflowed().contains(current)) {
+            SwingUtilities.invokeLater(() -> {
+                if (!showingSearchResults && current.toString().equals(controller.getCurrentDirectory())) {
+                    loadDirectoryContents(current.toString());
+                }
+            });
+            return;
+        }
+        List<Path> changed = new ArrayList<>();
+        changed.addAll(batch.getCreated());
+        changed.addAll(batch.getDeleted());
+        changed.addAll(batch.getModified());
+        applyEntryChanges(current, changed);
+    }
+
+    // Own operations patch the table right away instead of waiting for the watcher
+    private void refreshPaths(Path... paths) {
+        refreshPaths(Arrays.asList(paths));
+    }
+
+    private void refreshPaths(List<Path> paths) {
+        Path current = Paths.get(controller.getCurrentDirectory()).toAbsolutePath().normalize();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                applyEntryChanges(current, paths);
+                return null;
+            }
+        }.execute();
+    }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
+    private void applyEntryChanges(Path current, Collection<Path> paths) {
+        Set<String> removed = new HashSet<>();
+        List<FileEntry> updated = new ArrayList<>();
+        for (Path path : paths) {
+            Path absolutePath = path.toAbsolutePath().normalize();
+            if (!current.equals(absolutePath.getParent())) {
+                continue;
+            }
+            FileEntry entry = controller.readEntry(absolutePath);
+            if (entry == null) {
+                removed.add(absolutePath.getFileName().toString());
+            } else {
+                updated.add(entry);
+            }
+        }
+        if (removed.isEmpty() && updated.isEmpty()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (showingSearchResults || !current.equals(Paths.get(controller.getCurrentDirectory()).toAbsolutePath().normalize())) {
+                return;
+            }
+            tableModel.removeEntries(removed);
+            tableModel.upsertEntries(updated);
+            for (FileEntry entry : updated) {
+                if (entry.isDirectory() && sizeRequest != null) {
+                    sizeRequest.submit(entry.getPath());
                 }
             }
+        });
+    }
+
+    private void showDirectorySize(Path directory, long bytes, boolean complete) {
+        if (sizeRequest == null || sizeRequest.isCancelled()) {
+            return; // Late result from a directory we already left
+        }
+        // Look the row up by name, rows move around when the table is sorted
+        int rowIndex = tableModel.indexOf(directory.getFileName().toString());
+        if (rowIndex != -1 && tableModel.isDirectory(rowIndex)) {
+            tableModel.setSize(rowIndex, bytes, complete);
         }
     }
 
-    private class DirectorySizeCalculator extends SwingWorker<Long, Void> {
-        private final File directory;
-        private final int rowIndex;
+    private class DirectoryLoader extends SwingWorker<Void, List<FileEntry>> {
+        private final String path;
+        private final DirectorySizeEngine.SizeRequest sizeRequest;
+        private final boolean checking; // The table already shows a snapshot; patch it instead of filling it
+        private final Set<String> seen = new HashSet<>();
 
-        public DirectorySizeCalculator(File directory, int rowIndex) {
-            this.directory = directory;
-            this.rowIndex = rowIndex;
+        public DirectoryLoader(String path, DirectorySizeEngine.SizeRequest sizeRequest, boolean checking) {
+            this.path = path;
+            this.sizeRequest = sizeRequest;
+            this.checking = checking;
         }
 
         @Override
-        protected Long doInBackground() throws Exception {
-            return getDirectorySize(directory);
+        protected Void doInBackground() throws Exception {
+            controller.streamFiles(path, this::publish);
+            return null;
         }
 
         @Override
-        protected void done() {
-            try {
-                long size = get();
-                String readableSize = humanReadableByteCountSI(size);
-                tableModel.setValueAt(readableSize, rowIndex, 1);
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+        protected void process(List<List<FileEntry>> batches) {
+            if (isCancelled()) {
+                return;
+            }
+            for (List<FileEntry> batch : batches) {
+                if (!checking) {
+                    showEntries(batch, sizeRequest);
+                    continue;
+                }
+                for (FileEntry entry : batch) {
+                    seen.add(entry.getName());
+                }
+                for (FileEntry entry : tableModel.upsertEntries(batch)) {
+                    if (entry.isDirectory()) {
+                        sizeRequest.submit(entry.getPath());
+                    }
+                }
             }
         }
-    }
 
-    private long getDirectorySize(File directory) {
-        long size = 0;
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile()) {
-                    size += file.length();
-                } else {
-                    size += getDirectorySize(file);
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                get();
+                if (checking) {
+                    // Whatever the snapshot had that the disk no longer does
+                    List<String> gone = new ArrayList<>();
+                    for (int row = 0; row < tableModel.getRowCount(); row++) {
+                        if (!seen.contains(tableModel.getName(row))) {
+                            gone.add(tableModel.getName(row));
+                        }
+                    }
+                    tableModel.removeEntries(gone);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                FileManagerLogger.logError("Failed to list directory: " + path);
+                JOptionPane.showMessageDialog(frame, "Error listing directory: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
-        return size;
     }
 
     private void performSearch() {
@@ -234,128 +453,337 @@ public class FileManagerUI {
             return;
         }
 
+        cancelBackgroundWork();
+        showingSearchResults = true;
+
+        if (contentSearchBox.isSelected()) {
+            tableModel.clear();
+            contentSearch = new ContentSearch(query, controller.getCurrentDirectory());
+            contentSearch.execute();
+            return;
+        }
+
+        if (recursiveSearchBox.isSelected()) {
+            new RecursiveSearch(query, controller.getCurrentDirectory()).execute();
+            return;
+        }
+
         File currentDir = new File(controller.getCurrentDirectory());
-        File[] files = currentDir.listFiles();
-
-        tableModel.setRowCount(0); // Clear the table
-
-        if (files != null) {
-            for (File file : files) {
-                if (file.getName().toLowerCase().contains(query.toLowerCase())) {
-                    long lastModified = file.lastModified();
-                    String formattedDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(lastModified);
-                    String size = file.isDirectory() ? "" : humanReadableByteCountSI(file.length());
-                    String type = file.isDirectory() ? "Directory" : "File";
-                    tableModel.addRow(new Object[]{file.getName(), size, type, formattedDate});
+        String[] names = currentDir.list();
+        String foldedQuery = Formats.fold(query);
+
+        // Only names are listed here; attributes of the matches come from the cache the listing filled
+        List<FileEntry> matches = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (Formats.containsFolded(name, foldedQuery)) {
+                    FileEntry entry = controller.readEntry(new File(currentDir, name).toPath());
+                    if (entry != null) {
+                        matches.add(entry);
+                    }
                 }
             }
         }
+        tableModel.setEntries(matches); // One table event for all the results
+    }
+
+    private class RecursiveSearch extends SwingWorker<List<FileEntry>, Void> {
+        private final String query;
+        private final String directory;
+
+        public RecursiveSearch(String query, String directory) {
+            this.query = query;
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<FileEntry> doInBackground() throws Exception {
+            if (!controller.isIndexed(directory)) {
+                SwingUtilities.invokeLater(() -> pathField.setText("Indexing " + directory + "..."));
+                controller.indexDirectory(directory);
+            }
+            return controller.searchRecursive(query, MAX_SEARCH_RESULTS);
+        }
+
+        @Override
+        protected void done() {
+            pathField.setText(new File(directory).getAbsolutePath());
+            if (!directory.equals(controller.getCurrentDirectory())) {
+                return; // The user navigated elsewhere while we were searching
+            }
+            try {
+                tableModel.setEntries(get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                FileManagerLogger.logError("Recursive search failed in: " + directory);
+                JOptionPane.showMessageDialog(frame, "Error searching: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    // Hits reach the table while the rest of the tree is still being scanned
+    private class ContentSearch extends SwingWorker<Void, FileEntry> {
+        private final String query;
+        private final String directory;
+
+        public ContentSearch(String query, String directory) {
+            this.query = query;
+            this.directory = directory;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            SwingUtilities.invokeLater(() -> pathField.setText("Searching contents of " + directory + "..."));
+            controller.searchContent(query, MAX_SEARCH_RESULTS, this::publish, this::isCancelled);
+            return null;
+        }
+
+        @Override
+        protected void process(List<FileEntry> hits) {
+            if (!isCancelled()) {
+                tableModel.addEntries(hits);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            pathField.setText(new File(directory).getAbsolutePath());
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                FileManagerLogger.logError("Content search failed in: " + directory);
+                JOptionPane.showMessageDialog(frame, "Error searching: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private void findDuplicates() {
+        new DuplicatesDialog(frame, controller, controller.getCurrentDirectory(), this::refreshPaths).show();
     }
 
     private void createNewFolder() {
         String folderName = JOptionPane.showInputDialog(frame, "Enter the name of the new folder:");
         if (folderName != null && !folderName.trim().isEmpty()) {
-            File newFolder = new File(controller.getCurrentDirectory() + File.separator + folderName);
-            if (newFolder.mkdir()) {
+            try {
+                Path newFolder = controller.createNewFolder(folderName);
                 JOptionPane.showMessageDialog(frame, "Folder created successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                loadDirectoryContents(controller.getCurrentDirectory());
-            } else {
+                refreshPaths(newFolder);
+            } catch (IOException e) {
                 JOptionPane.showMessageDialog(frame, "Failed to create folder.", "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
 
-    private void copySelectedFile() throws IOException {
-        int selectedRow = fileTable.getSelectedRow();
-        if (selectedRow != -1) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
-            File sourceFile = new File(controller.getCurrentDirectory() + File.separator + fileName);
-
-            JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setDialogTitle("Select Destination Directory");
-            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-
-            int returnValue = fileChooser.showOpenDialog(frame);
-            if (returnValue == JFileChooser.APPROVE_OPTION) {
-                File destinationDirectory = fileChooser.getSelectedFile();
-                File destinationFile = new File(destinationDirectory, sourceFile.getName());
-
-                if (destinationFile.exists()) {
-                    int choice = JOptionPane.showConfirmDialog(frame, "File already exists. Do you want to rename it?", "File Exists", JOptionPane.YES_NO_OPTION);
-                    if (choice == JOptionPane.YES_OPTION) {
-                        destinationFile = getNonConflictingFile(destinationDirectory, sourceFile.getName());
+    private void undoLastOperation() {
+        String label = controller.getUndoLabel();
+        if (label == null) {
+            JOptionPane.showMessageDialog(frame, "Nothing to undo.");
+            return;
+        }
+        new SwingWorker<List<Path>, Void>() {
+            @Override
+            protected List<Path> doInBackground() throws IOException {
+                return controller.undo();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    refreshPaths(get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    FileManagerLogger.logError("Undo failed: " + label);
+                    JOptionPane.showMessageDialog(frame, "Error undoing: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void emptyTrash() {
+        int choice = JOptionPane.showConfirmDialog(frame, "Delete everything in the trash for good? Deletes can't be undone afterwards.",
+                "Empty Trash", JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws IOException {
+                    controller.emptyTrash();
+                    return null;
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        JOptionPane.showMessageDialog(frame, "Error emptying trash: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                     }
                 }
+            }.execute();
+        }
+    }
 
-                controller.copyFile(sourceFile.getAbsolutePath(), destinationFile.getAbsolutePath()); // Use getAbsolutePath() to pass Strings
-                JOptionPane.showMessageDialog(frame, "File copied successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
+    private void copySelectedFile() {
+        List<String> sourcePaths = getSelectedPaths();
+        if (!sourcePaths.isEmpty()) {
+            JCheckBox preserveAttributesBox = new JCheckBox("Keep timestamps and permissions");
+            JComboBox<ResumableFileCopier.Verification> verificationBox = new JComboBox<>(ResumableFileCopier.Verification.values());
+            JPanel options = new JPanel(new GridLayout(3, 1));
+            options.add(preserveAttributesBox);
+            options.add(new JLabel("Verify huge files:"));
+            options.add(verificationBox);
+
+            File destinationDirectory = chooseDestinationDirectory(options);
+            if (destinationDirectory != null) {
+                // Name clashes get a numbered copy instead of overwriting the existing file
+                CopyOptions copyOptions = new CopyOptions(preserveAttributesBox.isSelected(),
+                        (ResumableFileCopier.Verification) verificationBox.getSelectedItem());
+                JobProgressDialog progressDialog = new JobProgressDialog(frame, "Copying", this::refreshPaths);
+                progressDialog.attach(controller.copyFiles(sourcePaths, destinationDirectory.getAbsolutePath(),
+                        copyOptions, progressDialog));
             }
         }
     }
 
-    private File getNonConflictingFile(File directory, String fileName) {
-        File file = new File(directory, fileName);
-        String name = file.getName();
-        String extension = "";
-        int dotIndex = name.lastIndexOf('.');
-        if (dotIndex > 0) {
-            extension = name.substring(dotIndex); // includes the dot
-            name = name.substring(0, dotIndex);
-        }
-        int count = 1;
-        while (file.exists()) {
-            file = new File(directory, name + "_" + count + extension);
-            count++;
-        }
-        return file;
+    private void moveSelectedFile() {
+        List<String> sourcePaths = getSelectedPaths();
+        if (!sourcePaths.isEmpty()) {
+            File destinationDirectory = chooseDestinationDirectory(null);
+            if (destinationDirectory != null) {
+                JobProgressDialog progressDialog = new JobProgressDialog(frame, "Moving", this::refreshPaths);
+                progressDialog.attach(controller.moveFiles(sourcePaths, destinationDirectory.getAbsolutePath(), progressDialog));
+            }
+        }
     }
 
-    private void moveSelectedFile() throws IOException {
-        int selectedRow = fileTable.getSelectedRow();
-        if (selectedRow != -1) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
-            File sourceFile = new File(controller.getCurrentDirectory() + File.separator + fileName);
+    private void compressSelectedFiles() {
+        List<String> sourcePaths = getSelectedPaths();
+        if (!sourcePaths.isEmpty()) {
+            if (ArchiveBrowser.isInsideArchive(controller.getCurrentDirectory())) {
+                JOptionPane.showMessageDialog(frame, "Archives can only be read.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            JobProgressDialog progressDialog = new JobProgressDialog(frame, "Compressing", this::refreshPaths);
+            progressDialog.attach(controller.compressFiles(sourcePaths, controller.getCurrentDirectory(), progressDialog));
+        }
+    }
 
-            JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setDialogTitle("Select Destination Directory");
-            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    // Mirrors the folder on show into another one: compare, confirm the plan, then run it as one job
+    private void syncCurrentFolder() {
+        String sourceDirectory = controller.getCurrentDirectory();
+        if (ArchiveBrowser.isInsideArchive(sourceDirectory)) {
+            JOptionPane.showMessageDialog(frame, "Archives can't be synced.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JCheckBox compareContentsBox = new JCheckBox("Compare contents, not just size and time");
+        JCheckBox deleteExtraBox = new JCheckBox("Delete what isn't in this folder");
+        JPanel options = new JPanel(new GridLayout(2, 1));
+        options.add(compareContentsBox);
+        options.add(deleteExtraBox);
+        File targetDirectory = chooseDestinationDirectory(options);
+        if (targetDirectory == null) {
+            return;
+        }
+        pathField.setText("Comparing " + sourceDirectory + " with " + targetDirectory + "...");
+        new SwingWorker<FolderSync.Plan, Void>() {
+            @Override
+            protected FolderSync.Plan doInBackground() throws IOException {
+                return controller.planSync(sourceDirectory, targetDirectory.getAbsolutePath(), compareContentsBox.isSelected(),
+                        deleteExtraBox.isSelected(), FileJobEngine.ItemProgress.NONE);
+            }
 
-            int returnValue = fileChooser.showOpenDialog(frame);
-            if (returnValue == JFileChooser.APPROVE_OPTION) {
-                File destinationDirectory = fileChooser.getSelectedFile();
-                File destinationFile = new File(destinationDirectory, sourceFile.getName());
+            @Override
+            protected void done() {
+                pathField.setText(controller.getCurrentDirectory());
+                FolderSync.Plan plan;
+                try {
+                    plan = get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(frame, "Error comparing folders: " + e.getCause().getMessage(), "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (plan.isEmpty()) {
+                    JOptionPane.showMessageDialog(frame, "The folders are already in sync.");
+                    return;
+                }
+                int choice = JOptionPane.showConfirmDialog(frame, "Sync to " + plan.getTarget() + ": " + plan + ". Go ahead?",
+                        "Sync Folder", JOptionPane.YES_NO_OPTION);
+                if (choice == JOptionPane.YES_OPTION) {
+                    JobProgressDialog progressDialog = new JobProgressDialog(frame, "Syncing", FileManagerUI.this::refreshPaths);
+                    progressDialog.attach(controller.syncFolders(plan, progressDialog));
+                }
+            }
+        }.execute();
+    }
 
-                controller.moveFile(sourceFile.getAbsolutePath(), destinationFile.getAbsolutePath()); // Use getAbsolutePath() to pass Strings
-                JOptionPane.showMessageDialog(frame, "File moved successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                loadDirectoryContents(controller.getCurrentDirectory());
+    private void deleteSelectedFile() {
+        List<String> filePaths = getSelectedPaths();
+        if (!filePaths.isEmpty()) {
+            String question;
+            if (controller.isTrashAvailable()) {
+                question = filePaths.size() == 1
+                        ? "Move this file to the trash? Folders go with everything in them."
+                        : "Move these " + filePaths.size() + " files to the trash? Folders go with everything in them.";
+            } else {
+                question = filePaths.size() == 1
+                        ? "Delete this file for good? Folders go with everything in them."
+                        : "Delete these " + filePaths.size() + " files for good? Folders go with everything in them.";
+            }
+            int choice = JOptionPane.showConfirmDialog(frame, question, "Confirm Delete", JOptionPane.YES_NO_OPTION);
+            if (choice == JOptionPane.YES_OPTION) {
+                JobProgressDialog progressDialog = new JobProgressDialog(frame, "Deleting", this::refreshPaths);
+                progressDialog.attach(controller.deleteFiles(filePaths, progressDialog));
             }
         }
     }
 
-    private void deleteSelectedFile() throws IOException {
-        int selectedRow = fileTable.getSelectedRow();
-        if (selectedRow != -1) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
-            File fileToDelete = new File(controller.getCurrentDirectory() + File.separator + fileName);
+    private List<String> getSelectedPaths() {
+        List<String> paths = new ArrayList<>();
+        for (int selectedRow : fileTable.getSelectedRows()) {
+            String fileName = tableModel.getName(selectedRow);
+            paths.add(new File(controller.getCurrentDirectory() + File.separator + fileName).getAbsolutePath());
+        }
+        return paths;
+    }
 
-            int choice = JOptionPane.showConfirmDialog(frame, "Are you sure you want to delete this file?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
-            if (choice == JOptionPane.YES_OPTION) {
-                controller.deleteFile(fileToDelete.getAbsolutePath()); // Use getAbsolutePath() to pass Strings
-                JOptionPane.showMessageDialog(frame, "File deleted successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                loadDirectoryContents(controller.getCurrentDirectory());
-            }
+    private File chooseDestinationDirectory(JComponent options) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Select Destination Directory");
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (options != null) {
+            fileChooser.setAccessory(options);
         }
+
+        int returnValue = fileChooser.showOpenDialog(frame);
+        return returnValue == JFileChooser.APPROVE_OPTION ? fileChooser.getSelectedFile() : null;
     }
 
     private void openSelectedFile() {
         int selectedRow = fileTable.getSelectedRow();
         if (selectedRow != -1) {
-            String fileName = (String) tableModel.getValueAt(selectedRow, 0);
+            String fileName = tableModel.getName(selectedRow);
             File fileToOpen = new File(controller.getCurrentDirectory() + File.separator + fileName);
 
-            if (fileToOpen.isDirectory()) {
+            if (tableModel.isDirectory(selectedRow)) {
                 // If the selected file is a directory, navigate into it
                 loadDirectoryContents(fileToOpen.getAbsolutePath());
+            } else if (ArchiveBrowser.isInsideArchive(fileToOpen.getPath())) {
+                openArchiveEntry(fileToOpen.getPath());
+            } else if (ArchiveBrowser.isArchiveName(fileName)) {
+                // Archives open like folders
+                loadDirectoryContents(ArchiveBrowser.rootOf(fileToOpen.getAbsolutePath()));
             } else {
                 // If it's a file, open it using the system's default application
                 if (Desktop.isDesktopSupported()) {
@@ -371,6 +799,32 @@ public class FileManagerUI {
         }
     }
 
+    // Other programs can't read inside an archive, so the entry goes to a temporary file first
+    private void openArchiveEntry(String entryPath) {
+        if (!Desktop.isDesktopSupported()) {
+            JOptionPane.showMessageDialog(frame, "Desktop operations are not supported on this system.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        new SwingWorker<Path, Void>() {
+            @Override
+            protected Path doInBackground() throws IOException {
+                return controller.extractForViewing(entryPath);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Desktop.getDesktop().open(get().toFile());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | IOException e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(frame, "Error opening file: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
     private void navigateToParentDirectory() {
         File currentDir = new File(controller.getCurrentDirectory());
         File parentDir = currentDir.getParentFile();
@@ -380,15 +834,7 @@ public class FileManagerUI {
     }
 
     public static String humanReadableByteCountSI(long bytes) {
-        if (-1000 < bytes && bytes < 1000) {
-            return bytes + " B";
-        }
-        CharacterIterator ci = new StringCharacterIterator("kMGTPE");
-        while (bytes <= -999_950 || bytes >= 999_950) {
-            bytes /= 1000;
-            ci.next();
-        }
-        return String.format("%.1f %cB", bytes / 1000.0, ci.current());
+        return Formats.size(bytes);
     }
 }
 
@@ -0,0 +1,520 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Persistent index of every path under a set of roots, used for recursive name search.
+ *
+ * <p>The index file is memory-mapped on first use and holds the paths sorted in one
+ * UTF-8 blob plus a trigram table over the lower-cased file names:
+ * <pre>
+ * int magic, int version
+ * int rootCount, (int length, byte[] utf8)*
+ * int entryCount, int[entryCount + 1] pathOffsets, int[entryCount] nameOffsets
+ * int blobLength, byte[blobLength] paths
+ * int trigramCount, long[trigramCount] trigrams, int[trigramCount + 1] postingStarts
+ * int postingCount, int[postingCount] postings
+ * </pre>
+ * Changes made after the file was written are kept in a small in-memory overlay and
+ * folded into a new file by {@link #save()} once enough of them pile up.
+ */
+public class FileNameIndex {
+    private static final int MAGIC = 0x464D4958; // "FMIX"
+    private static final int VERSION = 3; // Any other version is dropped and the folders indexed again
+    private static final int COMPACT_THRESHOLD = 50_000;
+
+    private final Path indexFile;
+    private final Set<String> roots = new LinkedHashSet<>();
+
+    // Memory-mapped base index
+    private boolean loaded;
+    private MappedByteBuffer mapped;
+    private int entryCount;
+    private int pathOffsetsPosition;
+    private int nameOffsetsPosition;
+    private int blobPosition;
+    private int trigramCount;
+    private int trigramsPosition;
+    private int postingStartsPosition;
+    private int postingsPosition;
+
+    // Changes since the base index was written
+    private final BitSet removed = new BitSet();
+    private final Map<String, String> added = new TreeMap<>(); // path -> lower-cased name
+    private int pendingChanges;
+
+    public FileNameIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public static Path defaultIndexFile() {
+        return Paths.get(System.getProperty("user.home"), ".fileman", "filename.idx");
+    }
+
+    public synchronized Set<String> getRoots() {
+        ensureLoaded();
+        return Collections.unmodifiableSet(new LinkedHashSet<>(roots));
+    }
+
+    /**
+     * Returns true when the directory is inside one of the indexed roots.
+     */
+    public synchronized boolean covers(Path directory) {
+        ensureLoaded();
+        String path = directory.toAbsolutePath().normalize().toString();
+        return roots.contains(path) || isUnderRoot(path);
+    }
+
+    /**
+     * Walks the root and replaces everything previously indexed under it, then writes the index file.
+     */
+    public void addRoot(Path root) throws IOException {
+        Path normalizedRoot = root.toAbsolutePath().normalize();
+        List<String> paths = new ArrayList<>();
+        Files.walkFileTree(normalizedRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(normalizedRoot)) {
+                    paths.add(dir.toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                paths.add(file.toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE; // Skip what we aren't allowed to read
+            }
+        });
+
+        synchronized (this) {
+            ensureLoaded();
+            removeTree(normalizedRoot);
+            roots.add(normalizedRoot.toString());
+            for (String path : paths) {
+                added.put(path, Formats.fold(nameOf(path)));
+            }
+            pendingChanges += paths.size();
+            save();
+        }
+        FileManagerLogger.logInfo("Indexed " + paths.size() + " paths under " + normalizedRoot);
+    }
+
+    public synchronized void pathCreated(Path path) {
+        ensureLoaded();
+        String key = path.toAbsolutePath().normalize().toString();
+        if (!isUnderRoot(key)) {
+            return;
+        }
+        if (!added.containsKey(key) && findBase(key) < 0) {
+            added.put(key, Formats.fold(nameOf(key)));
+            pendingChanges++;
+        }
+    }
+
+    /**
+     * Drops the path and, when it was a directory, everything below it.
+     */
+    public synchronized void pathDeleted(Path path) {
+        ensureLoaded();
+        removeTree(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Returns true when enough changes have piled up that {@link #save()} should fold them in.
+     */
+    public synchronized boolean needsCompaction() {
+        return pendingChanges >= COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Finds paths under the directory whose file name contains the query, or starts
+     * with it when {@code prefix} is set. Matching ignores case.
+     */
+    public synchronized List<Path> search(String query, Path directory, boolean prefix, int limit) {
+        ensureLoaded();
+        String needle = Formats.fold(query);
+        String scope = directory.toAbsolutePath().normalize().toString();
+        List<Path> results = new ArrayList<>();
+
+        int[] candidates = needle.length() >= 3 ? trigramCandidates(needle) : null;
+        if (candidates != null) {
+            for (int i = 0; i < candidates.length && results.size() < limit; i++) {
+                collectIfMatches(candidates[i], needle, scope, prefix, results);
+            }
+        } else {
+            // Too short for trigrams, scan the names of the scope's range instead
+            String scopePrefix = asPrefix(scope);
+            for (int id = lowerBound(scopePrefix); id < entryCount && results.size() < limit; id++) {
+                if (!pathAt(id).startsWith(scopePrefix)) {
+                    break;
+                }
+                collectIfMatches(id, needle, scope, prefix, results);
+            }
+        }
+
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            if (results.size() >= limit) {
+                break;
+            }
+            String name = entry.getValue();
+            if (isUnder(entry.getKey(), scope) && (prefix ? name.startsWith(needle) : name.contains(needle))) {
+                results.add(Paths.get(entry.getKey()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Writes the base index plus the overlay to a new file and maps it in place of the old one.
+     */
+    public synchronized void save() throws IOException {
+        ensureLoaded();
+        List<String> paths = new ArrayList<>(entryCount + added.size());
+        for (int id = 0; id < entryCount; id++) {
+            if (!removed.get(id)) {
+                paths.add(pathAt(id));
+            }
+        }
+        paths.addAll(added.keySet());
+        Collections.sort(paths);
+
+        Files.createDirectories(indexFile.getParent());
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        write(tempFile, paths);
+        mapped = null;
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        removed.clear();
+        added.clear();
+        pendingChanges = 0;
+        loaded = false;
+        ensureLoaded();
+    }
+
+    private void write(Path file, List<String> paths) throws IOException {
+        byte[][] encoded = new byte[paths.size()][];
+        int[] nameOffsets = new int[paths.size()];
+        long blobLength = 0;
+        Map<Long, IntList> postingsByTrigram = new HashMap<>();
+        for (int id = 0; id < paths.size(); id++) {
+            String path = paths.get(id);
+            encoded[id] = path.getBytes(StandardCharsets.UTF_8);
+            String name = nameOf(path);
+            nameOffsets[id] = path.substring(0, path.length() - name.length()).getBytes(StandardCharsets.UTF_8).length;
+            blobLength += encoded[id].length;
+            addTrigrams(Formats.fold(name), id, postingsByTrigram);
+        }
+        if (blobLength > Integer.MAX_VALUE) {
+            throw new IOException("Too many paths to index");
+        }
+
+        long[] trigrams = new long[postingsByTrigram.size()];
+        int t = 0;
+        for (Long trigram : postingsByTrigram.keySet()) {
+            trigrams[t++] = trigram;
+        }
+        Arrays.sort(trigrams);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(roots.size());
+            for (String root : roots) {
+                byte[] bytes = root.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(paths.size());
+            int offset = 0;
+            for (byte[] bytes : encoded) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (int nameOffset : nameOffsets) {
+                out.writeInt(nameOffset);
+            }
+            out.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+
+            out.writeInt(trigrams.length);
+            for (long trigram : trigrams) {
+                out.writeLong(trigram);
+            }
+            int postingStart = 0;
+            for (long trigram : trigrams) {
+                out.writeInt(postingStart);
+                postingStart += postingsByTrigram.get(trigram).size;
+            }
+            out.writeInt(postingStart);
+            out.writeInt(postingStart);
+            for (long trigram : trigrams) {
+                IntList postings = postingsByTrigram.get(trigram);
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.values[i]);
+                }
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        entryCount = 0;
+        trigramCount = 0;
+        if (Files.notExists(indexFile)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != MAGIC) {
+                FileManagerLogger.logError("Ignoring unreadable name index: " + indexFile);
+                return;
+            }
+            if (version != VERSION) {
+                FileManagerLogger.logError("Ignoring name index written by another version, its folders need indexing again: " + indexFile);
+                return;
+            }
+            roots.clear();
+            int rootCount = buffer.getInt();
+            for (int i = 0; i < rootCount; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                roots.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            entryCount = buffer.getInt();
+            pathOffsetsPosition = buffer.position();
+            nameOffsetsPosition = pathOffsetsPosition + (entryCount + 1) * Integer.BYTES;
+            buffer.position(nameOffsetsPosition + entryCount * Integer.BYTES);
+            int blobLength = buffer.getInt();
+            blobPosition = buffer.position();
+            buffer.position(blobPosition + blobLength);
+
+            trigramCount = buffer.getInt();
+            trigramsPosition = buffer.position();
+            postingStartsPosition = trigramsPosition + trigramCount * Long.BYTES;
+            buffer.position(postingStartsPosition + (trigramCount + 1) * Integer.BYTES);
+            buffer.getInt(); // Posting count
+            postingsPosition = buffer.position();
+            mapped = buffer;
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to load name index: " + e.getMessage());
+            entryCount = 0;
+            trigramCount = 0;
+        }
+    }
+
+    // Intersects the posting lists of every trigram in the needle, smallest list first
+    private int[] trigramCandidates(String needle) {
+        List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            int slot = findTrigram(trigram(needle, i));
+            if (slot < 0) {
+                return new int[0];
+            }
+            int start = mapped.getInt(postingStartsPosition + slot * Integer.BYTES);
+            int end = mapped.getInt(postingStartsPosition + (slot + 1) * Integer.BYTES);
+            ranges.add(new int[]{start, end});
+        }
+        ranges.sort((a, b) -> Integer.compare(a[1] - a[0], b[1] - b[0]));
+
+        int[] smallest = ranges.get(0);
+        int[] candidates = new int[smallest[1] - smallest[0]];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = mapped.getInt(postingsPosition + (smallest[0] + i) * Integer.BYTES);
+        }
+        int count = candidates.length;
+        for (int r = 1; r < ranges.size() && count > 0; r++) {
+            int[] range = ranges.get(r);
+            int kept = 0;
+            int p = range[0];
+            for (int i = 0; i < count; i++) {
+                while (p < range[1] && mapped.getInt(postingsPosition + p * Integer.BYTES) < candidates[i]) {
+                    p++;
+                }
+                if (p < range[1] && mapped.getInt(postingsPosition + p * Integer.BYTES) == candidates[i]) {
+                    candidates[kept++] = candidates[i];
+                }
+            }
+            count = kept;
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    private void collectIfMatches(int id, String needle, String scope, boolean prefix, List<Path> results) {
+        if (removed.get(id)) {
+            return;
+        }
+        String name = Formats.fold(nameAt(id));
+        if (prefix ? !name.startsWith(needle) : !name.contains(needle)) {
+            return;
+        }
+        String path = pathAt(id);
+        if (isUnder(path, scope)) {
+            results.add(Paths.get(path));
+        }
+    }
+
+    private void removeTree(Path path) {
+        String key = path.toString();
+        int self = findBase(key);
+        if (self >= 0) {
+            removed.set(self);
+            pendingChanges++;
+        }
+        // Sorted paths that share a prefix are contiguous, so the subtree is one range
+        String keyPrefix = asPrefix(key);
+        for (int id = lowerBound(keyPrefix); id < entryCount; id++) {
+            if (!pathAt(id).startsWith(keyPrefix)) {
+                break;
+            }
+            if (!removed.get(id)) {
+                removed.set(id);
+                pendingChanges++;
+            }
+        }
+        added.keySet().removeIf(candidate -> candidate.equals(key) || isUnder(candidate, key));
+    }
+
+    private boolean isUnderRoot(String path) {
+        for (String root : roots) {
+            if (isUnder(path, root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int findBase(String path) {
+        int id = lowerBound(path);
+        return id < entryCount && !removed.get(id) && pathAt(id).equals(path) ? id : -1;
+    }
+
+    // First entry whose path sorts at or after the key
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (pathAt(middle).compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int findTrigram(long trigram) {
+        int low = 0;
+        int high = trigramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = mapped.getLong(trigramsPosition + middle * Long.BYTES);
+            if (value < trigram) {
+                low = middle + 1;
+            } else if (value > trigram) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private String pathAt(int id) {
+        int start = mapped.getInt(pathOffsetsPosition + id * Integer.BYTES);
+        int end = mapped.getInt(pathOffsetsPosition + (id + 1) * Integer.BYTES);
+        return decode(start, end);
+    }
+
+    private String nameAt(int id) {
+        int start = mapped.getInt(pathOffsetsPosition + id * Integer.BYTES);
+        int end = mapped.getInt(pathOffsetsPosition + (id + 1) * Integer.BYTES);
+        return decode(start + mapped.getInt(nameOffsetsPosition + id * Integer.BYTES), end);
+    }
+
+    private String decode(int start, int end) {
+        ByteBuffer slice = mapped.duplicate();
+        slice.position(blobPosition + start).limit(blobPosition + end);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    private static void addTrigrams(String name, int id, Map<Long, IntList> postingsByTrigram) {
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            IntList postings = postingsByTrigram.computeIfAbsent(trigram(name, i), key -> new IntList());
+            // Ids arrive in order, so a repeated trigram in one name only needs a check against the last id
+            if (postings.size == 0 || postings.values[postings.size - 1] != id) {
+                postings.add(id);
+            }
+        }
+    }
+
+    private static long trigram(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+
+    private static String nameOf(String path) {
+        Path fileName = Paths.get(path).getFileName();
+        return fileName != null ? fileName.toString() : path;
+    }
+
+    private static boolean isUnder(String path, String directory) {
+        return path.startsWith(asPrefix(directory)) && path.length() > directory.length();
+    }
+
+    private static String asPrefix(String directory) {
+        return directory.endsWith(File.separator) ? directory : directory + File.separator;
+    }
+
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
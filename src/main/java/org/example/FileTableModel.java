@@ -0,0 +1,356 @@
+package org.example;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table model that keeps rows in parallel primitive columns instead of one
+ * Object[] per row. Cells are formatted only when the table asks for them, and
+ * kept until the row changes, so repainting formats nothing again.
+ */
+public class FileTableModel extends AbstractTableModel {
+    public static final int COLUMN_NAME = 0;
+    public static final int COLUMN_SIZE = 1;
+    public static final int COLUMN_TYPE = 2;
+    public static final int COLUMN_MODIFIED = 3;
+
+    private static final String[] COLUMN_NAMES = {"Name", "Size", "Type", "Last Modified"};
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long UNKNOWN_SIZE = -1;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] foldedNames = new String[INITIAL_CAPACITY]; // Sort keys, folded once per entry
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModified = new long[INITIAL_CAPACITY];
+    private BitSet directories = new BitSet();
+    private BitSet partialSizes = new BitSet(); // Directory totals that are still being walked
+    private String[] sizeLabels = new String[INITIAL_CAPACITY];
+    private String[] modifiedLabels = new String[INITIAL_CAPACITY];
+    private int rowCount;
+
+    private final Map<String, Integer> rowsByName = new HashMap<>();
+
+    private int sortColumn = -1;
+    private boolean sortAscending = true;
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        switch (columnIndex) {
+            case COLUMN_NAME:
+                return names[rowIndex];
+            case COLUMN_SIZE:
+                String sizeLabel = sizeLabels[rowIndex];
+                if (sizeLabel == null) {
+                    sizeLabel = sizeLabel(rowIndex);
+                    sizeLabels[rowIndex] = sizeLabel;
+                }
+                return sizeLabel;
+            case COLUMN_TYPE:
+                return directories.get(rowIndex) ? "Directory" : "File";
+            case COLUMN_MODIFIED:
+                String modifiedLabel = modifiedLabels[rowIndex];
+                if (modifiedLabel == null) {
+                    modifiedLabel = Formats.dateTime(lastModified[rowIndex]);
+                    modifiedLabels[rowIndex] = modifiedLabel;
+                }
+                return modifiedLabel;
+            default:
+                return null;
+        }
+    }
+
+    private String sizeLabel(int row) {
+        long size = sizes[row];
+        if (size == UNKNOWN_SIZE) {
+            return "--";
+        }
+        String readableSize = Formats.size(size);
+        return partialSizes.get(row) ? readableSize + "..." : readableSize;
+    }
+
+    public String getName(int row) {
+        return names[row];
+    }
+
+    public long getSize(int row) {
+        return sizes[row];
+    }
+
+    public long getLastModified(int row) {
+        return lastModified[row];
+    }
+
+    public boolean isDirectory(int row) {
+        return directories.get(row);
+    }
+
+    public int indexOf(String name) {
+        Integer row = rowsByName.get(name);
+        return row != null ? row : -1;
+    }
+
+    public void clear() {
+        int oldCount = rowCount;
+        Arrays.fill(names, 0, rowCount, null);
+        Arrays.fill(foldedNames, 0, rowCount, null);
+        Arrays.fill(sizeLabels, 0, rowCount, null);
+        Arrays.fill(modifiedLabels, 0, rowCount, null);
+        directories.clear();
+        partialSizes.clear();
+        rowsByName.clear();
+        rowCount = 0;
+        if (oldCount > 0) {
+            fireTableRowsDeleted(0, oldCount - 1);
+        }
+    }
+
+    public void setEntries(List<FileEntry> entries) {
+        clear();
+        addEntries(entries);
+    }
+
+    /**
+     * Appends a batch of entries and fires a single insert event for the whole batch.
+     * Directory sizes start out unknown until {@link #setSize} fills them in.
+     */
+    public void addEntries(List<FileEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ensureCapacity(rowCount + entries.size());
+        int firstRow = rowCount;
+        for (FileEntry entry : entries) {
+            names[rowCount] = entry.getName();
+            foldedNames[rowCount] = Formats.fold(entry.getName());
+            sizeLabels[rowCount] = null;
+            modifiedLabels[rowCount] = null;
+            sizes[rowCount] = entry.isDirectory() ? UNKNOWN_SIZE : entry.getSize();
+            lastModified[rowCount] = entry.getLastModified();
+            directories.set(rowCount, entry.isDirectory());
+            partialSizes.clear(rowCount);
+            rowsByName.put(entry.getName(), rowCount);
+            rowCount++;
+        }
+        fireTableRowsInserted(firstRow, rowCount - 1);
+    }
+
+    /**
+     * Adds entries that aren't in the table yet and refreshes the ones that are.
+     * Returns the entries that ended up as new rows.
+     */
+    public List<FileEntry> upsertEntries(List<FileEntry> entries) {
+        List<FileEntry> newEntries = new ArrayList<>();
+        for (FileEntry entry : entries) {
+            int row = indexOf(entry.getName());
+            if (row == -1) {
+                newEntries.add(entry);
+                continue;
+            }
+            if (!entry.isDirectory()) {
+                sizes[row] = entry.getSize();
+            } else if (!directories.get(row)) {
+                sizes[row] = UNKNOWN_SIZE; // A file was replaced by a directory
+            }
+            lastModified[row] = entry.getLastModified();
+            directories.set(row, entry.isDirectory());
+            sizeLabels[row] = null;
+            modifiedLabels[row] = null;
+            fireTableRowsUpdated(row, row);
+        }
+        addEntries(newEntries);
+        return newEntries;
+    }
+
+    /**
+     * Removes the rows with the given names, compacting the columns in one pass.
+     */
+    public void removeEntries(Collection<String> entryNames) {
+        BitSet removedRows = new BitSet(rowCount);
+        for (String name : entryNames) {
+            int row = indexOf(name);
+            if (row != -1) {
+                removedRows.set(row);
+            }
+        }
+        if (removedRows.isEmpty()) {
+            return;
+        }
+        if (removedRows.cardinality() == 1) {
+            int row = removedRows.nextSetBit(0);
+            compact(removedRows);
+            fireTableRowsDeleted(row, row);
+        } else {
+            compact(removedRows);
+            fireTableDataChanged();
+        }
+    }
+
+    private void compact(BitSet removedRows) {
+        int kept = 0;
+        rowsByName.clear();
+        for (int row = 0; row < rowCount; row++) {
+            if (removedRows.get(row)) {
+                continue;
+            }
+            names[kept] = names[row];
+            foldedNames[kept] = foldedNames[row];
+            sizeLabels[kept] = sizeLabels[row];
+            modifiedLabels[kept] = modifiedLabels[row];
+            sizes[kept] = sizes[row];
+            lastModified[kept] = lastModified[row];
+            directories.set(kept, directories.get(row));
+            partialSizes.set(kept, partialSizes.get(row));
+            rowsByName.put(names[kept], kept);
+            kept++;
+        }
+        Arrays.fill(names, kept, rowCount, null);
+        Arrays.fill(foldedNames, kept, rowCount, null);
+        Arrays.fill(sizeLabels, kept, rowCount, null);
+        Arrays.fill(modifiedLabels, kept, rowCount, null);
+        directories.clear(kept, rowCount);
+        partialSizes.clear(kept, rowCount);
+        rowCount = kept;
+    }
+
+    public void setSize(int row, long size, boolean complete) {
+        sizes[row] = size;
+        partialSizes.set(row, !complete);
+        sizeLabels[row] = null;
+        fireTableCellUpdated(row, COLUMN_SIZE);
+    }
+
+    /**
+     * Sorts on the given column, flipping the direction when the same column is
+     * sorted twice. Compares the primitive columns directly so nothing gets boxed.
+     */
+    public void sortBy(int column) {
+        sortAscending = column != sortColumn || !sortAscending;
+        sortColumn = column;
+        if (rowCount < 2) {
+            return;
+        }
+
+        RowComparator comparator;
+        switch (column) {
+            case COLUMN_SIZE:
+                comparator = (a, b) -> Long.compare(sizes[a], sizes[b]);
+                break;
+            case COLUMN_TYPE:
+                comparator = (a, b) -> Boolean.compare(directories.get(b), directories.get(a));
+                break;
+            case COLUMN_MODIFIED:
+                comparator = (a, b) -> Long.compare(lastModified[a], lastModified[b]);
+                break;
+            default:
+                comparator = (a, b) -> foldedNames[a].compareTo(foldedNames[b]);
+                break;
+        }
+        RowComparator ordered = sortAscending ? comparator : (a, b) -> comparator.compare(b, a);
+
+        int[] order = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[rowCount], 0, rowCount, ordered);
+        applyOrder(order);
+        fireTableDataChanged();
+    }
+
+    private void applyOrder(int[] order) {
+        String[] sortedNames = new String[names.length];
+        String[] sortedFoldedNames = new String[foldedNames.length];
+        String[] sortedSizeLabels = new String[sizeLabels.length];
+        String[] sortedModifiedLabels = new String[modifiedLabels.length];
+        long[] sortedSizes = new long[sizes.length];
+        long[] sortedModified = new long[lastModified.length];
+        BitSet sortedDirectories = new BitSet(rowCount);
+        BitSet sortedPartialSizes = new BitSet(rowCount);
+        rowsByName.clear();
+        for (int i = 0; i < rowCount; i++) {
+            int from = order[i];
+            sortedNames[i] = names[from];
+            sortedFoldedNames[i] = foldedNames[from];
+            sortedSizeLabels[i] = sizeLabels[from];
+            sortedModifiedLabels[i] = modifiedLabels[from];
+            sortedSizes[i] = sizes[from];
+            sortedModified[i] = lastModified[from];
+            sortedDirectories.set(i, directories.get(from));
+            sortedPartialSizes.set(i, partialSizes.get(from));
+            rowsByName.put(sortedNames[i], i);
+        }
+        names = sortedNames;
+        foldedNames = sortedFoldedNames;
+        sizeLabels = sortedSizeLabels;
+        modifiedLabels = sortedModifiedLabels;
+        sizes = sortedSizes;
+        lastModified = sortedModified;
+        directories = sortedDirectories;
+        partialSizes = sortedPartialSizes;
+    }
+
+    // Stable merge sort over row indexes; Arrays.sort would need an Integer[] to take a comparator
+    private static void mergeSort(int[] rows, int[] buffer, int from, int to, RowComparator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle, comparator);
+        mergeSort(rows, buffer, middle, to, comparator);
+        if (comparator.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return; // Already in order
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, names.length + (names.length >> 1));
+        names = Arrays.copyOf(names, newCapacity);
+        foldedNames = Arrays.copyOf(foldedNames, newCapacity);
+        sizeLabels = Arrays.copyOf(sizeLabels, newCapacity);
+        modifiedLabels = Arrays.copyOf(modifiedLabels, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+        lastModified = Arrays.copyOf(lastModified, newCapacity);
+    }
+
+    private interface RowComparator {
+        int compare(int rowA, int rowB);
+    }
+}
@@ -0,0 +1,314 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Works out what it takes to make a target folder a mirror of a source folder. Both
+ * trees are walked once; a file is up to date when size and modification time match,
+ * or, when contents are compared, when its bytes do too. The result is a plan of
+ * folders to create, files to copy or update and, when asked, extra files to delete,
+ * which the controller then runs as one job.
+ */
+public class FolderSync {
+    // FAT and exFAT backup drives keep times to two seconds, so closer than that counts as equal
+    private static final long MODIFY_WINDOW_MILLIS = 2000;
+    private static final int COMPARE_BUFFER_SIZE = 1024 * 1024;
+
+    public enum Action { CREATE, COPY, UPDATE, DELETE }
+
+    public static final class Change {
+        private final Action action;
+        private final Path relative;
+        private final long size;
+
+        Change(Action action, Path relative, long size) {
+            this.action = action;
+            this.relative = relative;
+            this.size = size;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * The path below both folders; empty for the target folder itself.
+         */
+        public Path getRelative() {
+            return relative;
+        }
+
+        /**
+         * Bytes to copy, or for a delete the size of what goes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + relative;
+        }
+    }
+
+    public static final class Plan {
+        private final Path source;
+        private final Path target;
+        private final List<Change> changes;
+
+        Plan(Path source, Path target, List<Change> changes) {
+            this.source = source;
+            this.target = target;
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        public int count(Action action) {
+            int count = 0;
+            for (Change change : changes) {
+                if (change.action == action) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public long getBytesToCopy() {
+            long bytes = 0;
+            for (Change change : changes) {
+                if (change.action == Action.COPY || change.action == Action.UPDATE) {
+                    bytes += change.size;
+                }
+            }
+            return bytes;
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return count(Action.COPY) + " to copy, " + count(Action.UPDATE) + " to update, "
+                    + count(Action.DELETE) + " to delete, " + count(Action.CREATE) + " new folders ("
+                    + FileManagerUI.humanReadableByteCountSI(getBytesToCopy()) + ")";
+        }
+    }
+
+    private static final class Node {
+        private final long size;
+        private final long lastModified;
+        private final boolean directory;
+
+        Node(BasicFileAttributes attrs) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.directory = attrs.isDirectory();
+        }
+    }
+
+    private final ExecutorService pool;
+
+    public FolderSync() {
+        this.pool = IoExecutors.newExecutor("sync-compare", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Plans the changes that make {@code target} match {@code source}. With {@code compareContents}
+     * files that look the same are read on both sides as well; with {@code deleteExtra} files
+     * only the target has are deleted. Bytes compared go to {@code progress}.
+     */
+    public Plan plan(Path source, Path target, boolean compareContents, boolean deleteExtra,
+                     FileJobEngine.ItemProgress progress) throws IOException {
+        Path sourceRoot = source.toAbsolutePath().normalize();
+        Path targetRoot = target.toAbsolutePath().normalize();
+        if (!Files.isDirectory(sourceRoot)) {
+            throw new IOException("Not a folder: " + source);
+        }
+        if (sourceRoot.startsWith(targetRoot) || targetRoot.startsWith(sourceRoot)) {
+            throw new IOException("Can't sync a folder with one inside it: " + source + ", " + target);
+        }
+
+        Map<Path, Node> sourceNodes = walk(sourceRoot, progress);
+        List<Change> changes = new ArrayList<>();
+        List<Path> unsure = new ArrayList<>(); // Same size and time; read both when comparing contents
+
+        if (!Files.exists(targetRoot, LinkOption.NOFOLLOW_LINKS)) {
+            changes.add(new Change(Action.CREATE, targetRoot.relativize(targetRoot), 0));
+        } else if (!Files.isDirectory(targetRoot, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a folder: " + target);
+        }
+        Map<Path, Node> targetNodes = Files.isDirectory(targetRoot) ? walk(targetRoot, progress) : Collections.emptyMap();
+
+        // Source order puts every folder before what it holds
+        for (Map.Entry<Path, Node> entry : sourceNodes.entrySet()) {
+            Path relative = entry.getKey();
+            Node wanted = entry.getValue();
+            Node existing = targetNodes.get(relative);
+            if (wanted.directory) {
+                if (existing == null || !existing.directory) {
+                    changes.add(new Change(Action.CREATE, relative, 0));
+                }
+            } else if (existing == null || existing.directory) {
+                changes.add(new Change(Action.COPY, relative, wanted.size));
+            } else if (existing.size != wanted.size
+                    || Math.abs(existing.lastModified - wanted.lastModified) >= MODIFY_WINDOW_MILLIS) {
+                changes.add(new Change(Action.UPDATE, relative, wanted.size));
+            } else if (compareContents) {
+                unsure.add(relative);
+            }
+        }
+
+        if (deleteExtra) {
+            for (Map.Entry<Path, Node> entry : targetNodes.entrySet()) {
+                Path relative = entry.getKey();
+                if (!sourceNodes.containsKey(relative) && !insideDeleted(relative, sourceNodes)) {
+                    Node extra = entry.getValue();
+                    changes.add(new Change(Action.DELETE, relative, extra.directory ? 0 : extra.size));
+                }
+            }
+        }
+
+        for (Path relative : differing(sourceRoot, targetRoot, unsure, progress)) {
+            changes.add(new Change(Action.UPDATE, relative, sourceNodes.get(relative).size));
+        }
+        if (progress.isCancelled()) {
+            throw new IOException("Sync cancelled");
+        }
+        return new Plan(sourceRoot, targetRoot, changes);
+    }
+
+    // A target-only path goes with its folder when that folder is deleted or replaced by a file
+    private static boolean insideDeleted(Path relative, Map<Path, Node> sourceNodes) {
+        Path parent = relative.getParent();
+        if (parent == null) {
+            return false;
+        }
+        Node sourceParent = sourceNodes.get(parent);
+        return sourceParent == null || !sourceParent.directory;
+    }
+
+    // Relative path to attributes for everything below the root, parents first
+    private static Map<Path, Node> walk(Path root, FileJobEngine.ItemProgress progress) throws IOException {
+        Map<Path, Node> nodes = new LinkedHashMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (progress.isCancelled()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (!dir.equals(root)) {
+                    nodes.put(root.relativize(dir), new Node(attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                nodes.put(root.relativize(file), new Node(attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                throw exc; // Syncing past something unreadable could delete its copy on the other side
+            }
+        });
+        return nodes;
+    }
+
+    // Reads the pairs side by side in parallel and returns the ones whose bytes differ
+    private List<Path> differing(Path sourceRoot, Path targetRoot, List<Path> relatives,
+                                 FileJobEngine.ItemProgress progress) throws IOException {
+        List<Future<Boolean>> results = new ArrayList<>(relatives.size());
+        for (Path relative : relatives) {
+            Path source = sourceRoot.resolve(relative);
+            Path target = targetRoot.resolve(relative);
+            results.add(pool.submit(() -> progress.isCancelled() ? Boolean.FALSE
+                    : MountLimiter.shared().call(target, () -> !sameContents(source, target, progress))));
+        }
+        List<Path> differing = new ArrayList<>();
+        for (int i = 0; i < relatives.size(); i++) {
+            try {
+                if (results.get(i).get()) {
+                    differing.add(relatives.get(i));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while comparing files");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+        return differing;
+    }
+
+    static boolean sameContents(Path first, Path second, FileJobEngine.ItemProgress progress) throws IOException {
+        ByteBuffer firstBuffer = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+        ByteBuffer secondBuffer = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+        try (FileChannel a = FileChannel.open(first, StandardOpenOption.READ);
+             FileChannel b = FileChannel.open(second, StandardOpenOption.READ)) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            while (true) {
+                firstBuffer.clear();
+                secondBuffer.clear();
+                int read = fill(a, firstBuffer);
+                if (fill(b, secondBuffer) != read) {
+                    return false;
+                }
+                if (read <= 0) {
+                    return true;
+                }
+                firstBuffer.flip();
+                secondBuffer.flip();
+                if (!firstBuffer.equals(secondBuffer) || progress.isCancelled()) {
+                    return false;
+                }
+                progress.addBytes(read);
+            }
+        }
+    }
+
+    private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,106 @@
+package org.example;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Text for sizes, dates and name matching, shared by every view. All of it is safe to
+ * call from any thread: the date formatters are immutable, and size labels are built
+ * once and then handed out again, so painting a big table makes no garbage.
+ */
+public final class Formats {
+    public static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+    public static final DateTimeFormatter DATE_MINUTES = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+
+    private static final char[] UNITS = {'k', 'M', 'G', 'T', 'P', 'E'};
+    private static final int TENTHS = 10_000; // 0.0 to 999.9 of a unit
+    private static final String[] BYTE_LABELS = new String[1000];
+    // One table per unit, filled in as labels are asked for; a racing fill just builds an equal string
+    private static final String[][] UNIT_LABELS = new String[UNITS.length][];
+
+    static {
+        for (int i = 0; i < BYTE_LABELS.length; i++) {
+            BYTE_LABELS[i] = i + " B";
+        }
+    }
+
+    private Formats() {
+    }
+
+    public static String dateTime(long epochMillis) {
+        return DATE_TIME.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    public static String dateMinutes(long epochMillis) {
+        return DATE_MINUTES.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * A size in SI units with one decimal, such as "999 B", "1.0 kB" or "4.7 GB".
+     */
+    public static String size(long bytes) {
+        if (-1000 < bytes && bytes < 1000) {
+            return bytes >= 0 ? BYTE_LABELS[(int) bytes] : bytes + " B";
+        }
+        int unit = 0;
+        while (bytes <= -999_950 || bytes >= 999_950) {
+            bytes /= 1000;
+            unit++;
+        }
+        // bytes is now below a million: tenths of a kilo-unit, rounded half up like %.1f
+        boolean negative = bytes < 0;
+        int tenths = (int) ((Math.abs(bytes) + 50) / 100);
+        if (negative) {
+            return "-" + label(unit, tenths);
+        }
+        return label(unit, tenths);
+    }
+
+    private static String label(int unit, int tenths) {
+        String[] labels = UNIT_LABELS[unit];
+        if (labels == null) {
+            labels = new String[TENTHS];
+            UNIT_LABELS[unit] = labels;
+        }
+        String label = labels[tenths];
+        if (label == null) {
+            label = (tenths / 10) + "." + (tenths % 10) + " " + UNITS[unit] + "B";
+            labels[tenths] = label;
+        }
+        return label;
+    }
+
+    /**
+     * The key names are compared and searched by, folded the same way for every locale.
+     */
+    public static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Whether {@code name} contains {@code foldedQuery}, ignoring case, without building a lowered copy of the name.
+     */
+    public static boolean containsFolded(String name, String foldedQuery) {
+        if (foldedQuery.isEmpty()) {
+            return true;
+        }
+        char first = foldedQuery.charAt(0);
+        char firstUpper = Character.toUpperCase(first);
+        int last = name.length() - foldedQuery.length();
+        for (int start = 0; start <= last; start++) {
+            // Cheap first-character test before the full case-blind comparison
+            char c = name.charAt(start);
+            if (c != first && c != firstUpper && (c < 128 || Character.toLowerCase(c) != first)) {
+                continue;
+            }
+            if (name.regionMatches(true, start, foldedQuery, 0, foldedQuery.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
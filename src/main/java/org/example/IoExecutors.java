@@ -0,0 +1,78 @@
+package org.example;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where blocking file system work runs. By default that is a pool of platform threads
+ * per use. A build with the {@code java21} profile also contains a backend that starts
+ * a virtual thread per task instead, so thousands of slow stats or copies on a network
+ * mount wait side by side rather than queueing behind a handful of threads; how many
+ * actually hit one mount at once is then up to {@link MountLimiter}.
+ *
+ * <p>The backend is picked once: {@code -Dfileman.threads=platform} or {@code virtual}
+ * forces one, anything else takes virtual threads when they are there.
+ */
+public final class IoExecutors {
+    private static final String VIRTUAL_BACKEND = "org.example.VirtualThreadBackend";
+
+    /**
+     * Makes the executors; {@code platformThreads} is how many threads a pooled backend uses.
+     */
+    public interface Backend {
+        ExecutorService newExecutor(String name, int platformThreads);
+
+        boolean isVirtual();
+    }
+
+    private static final Backend BACKEND = pickBackend();
+
+    private IoExecutors() {
+    }
+
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        return BACKEND.newExecutor(name, platformThreads);
+    }
+
+    public static boolean isVirtual() {
+        return BACKEND.isVirtual();
+    }
+
+    private static Backend pickBackend() {
+        String wanted = System.getProperty("fileman.threads", "auto");
+        if (!"platform".equals(wanted)) {
+            try {
+                // Only there when built with -Pjava21, and only loadable on a Java 21 runtime
+                return (Backend) Class.forName(VIRTUAL_BACKEND).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                if ("virtual".equals(wanted)) {
+                    FileManagerLogger.logError("Virtual threads are not available, using platform threads: " + e);
+                }
+            }
+        }
+        return new PlatformBackend();
+    }
+
+    private static final class PlatformBackend implements Backend {
+        @Override
+        public ExecutorService newExecutor(String name, int platformThreads) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(platformThreads, platformThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return false;
+        }
+    }
+}
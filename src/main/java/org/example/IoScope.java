@@ -0,0 +1,80 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a group of blocking calls side by side and waits for all of them, the way
+ * structured concurrency does: nothing forked outlives the scope, the first call to
+ * fail cancels the others, and closing the scope early cancels whatever still runs.
+ * {@code StructuredTaskScope} itself is still a preview API, so this does the same
+ * over an {@link IoExecutors} executor.
+ */
+public class IoScope<T> implements AutoCloseable {
+    // Enough platform threads to overlap a directory's worth of network stats
+    private static final ExecutorService SHARED = IoExecutors.newExecutor("io", 32);
+
+    private final CompletionService<Indexed<T>> completion = new ExecutorCompletionService<>(SHARED);
+    private final List<Future<Indexed<T>>> forks = new ArrayList<>();
+
+    private static final class Indexed<T> {
+        private final int index;
+        private final T value;
+
+        Indexed(int index, T value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    public void fork(Callable<T> task) {
+        int index = forks.size();
+        forks.add(completion.submit(() -> new Indexed<>(index, task.call())));
+    }
+
+    /**
+     * Waits for every forked call and returns their results in the order they were forked.
+     */
+    public List<T> join() throws IOException {
+        Object[] results = new Object[forks.size()];
+        try {
+            for (int i = 0; i < forks.size(); i++) {
+                Indexed<T> done = completion.take().get();
+                results[done.index] = done.value;
+            }
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for file system calls");
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        @SuppressWarnings("unchecked")
+        List<T> ordered = (List<T>) Arrays.asList(results);
+        return ordered;
+    }
+
+    @Override
+    public void close() {
+        for (Future<Indexed<T>> fork : forks) {
+            fork.cancel(true);
+        }
+    }
+}
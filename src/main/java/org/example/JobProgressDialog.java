@@ -0,0 +1,128 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Non-modal window that follows a {@link FileJobEngine.Job}: progress bar,
+ * throughput and ETA, plus Pause/Resume and Cancel buttons.
+ */
+public class JobProgressDialog implements FileJobEngine.JobListener {
+    private final JDialog dialog;
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JButton pauseButton = new JButton("Pause");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final List<Path> touchedPaths = new ArrayList<>();
+    private final Consumer<List<Path>> onFinished;
+    private FileJobEngine.Job job;
+
+    /**
+     * @param onFinished gets every source and result path the job touched, on the EDT, once it is done
+     */
+    public JobProgressDialog(Frame owner, String title, Consumer<List<Path>> onFinished) {
+        this.onFinished = onFinished;
+        dialog = new JDialog(owner, title, false);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.setLayout(new BorderLayout(8, 8));
+
+        progressBar.setStringPainted(true);
+        JPanel center = new JPanel(new GridLayout(2, 1, 4, 4));
+        center.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+        center.add(progressBar);
+        center.add(statusLabel);
+        dialog.add(center, BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel();
+        buttons.add(pauseButton);
+        buttons.add(cancelButton);
+        dialog.add(buttons, BorderLayout.SOUTH);
+
+        pauseButton.addActionListener(e -> {
+            if (job == null) {
+                return;
+            }
+            if (job.isPaused()) {
+                job.resume();
+                pauseButton.setText("Pause");
+            } else {
+                job.pause();
+                pauseButton.setText("Resume");
+            }
+        });
+        cancelButton.addActionListener(e -> {
+            if (job != null) {
+                job.cancel();
+                cancelButton.setEnabled(false);
+            }
+        });
+
+        dialog.setSize(480, 150);
+        dialog.setLocationRelativeTo(owner);
+    }
+
+    public void attach(FileJobEngine.Job job) {
+        this.job = job;
+        dialog.setVisible(true);
+    }
+
+    @Override
+    public void progressUpdated(FileJobEngine.JobProgress progress) {
+        SwingUtilities.invokeLater(() -> showProgress(progress));
+    }
+
+    @Override
+    public void itemCompleted(Path item, Path result) {
+        synchronized (touchedPaths) {
+            touchedPaths.add(item);
+            if (result != null) {
+                touchedPaths.add(result);
+            }
+        }
+    }
+
+    @Override
+    public void jobFinished(FileJobEngine.JobProgress progress) {
+        SwingUtilities.invokeLater(() -> {
+            showProgress(progress);
+            dialog.dispose();
+            List<Path> paths;
+            synchronized (touchedPaths) {
+                paths = new ArrayList<>(touchedPaths);
+            }
+            onFinished.accept(paths);
+
+            List<FileJobEngine.ItemFailure> failures = progress.getFailures();
+            if (!failures.isEmpty()) {
+                StringBuilder message = new StringBuilder(failures.size() + " of " + progress.getTotalItems() + " items failed:\n");
+                for (int i = 0; i < Math.min(10, failures.size()); i++) {
+                    message.append(failures.get(i)).append('\n');
+                }
+                if (failures.size() > 10) {
+                    message.append("... see file_manager.log for the rest");
+                }
+                JOptionPane.showMessageDialog(dialog.getOwner(), message.toString(), progress.getName() + " Errors", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    private void showProgress(FileJobEngine.JobProgress progress) {
+        progressBar.setValue(progress.getPercentDone());
+        long eta = progress.getEtaMillis();
+        String status = String.format("%d/%d files, %.1f MB/s, %.1f files/s", progress.getCompletedItems(),
+                progress.getTotalItems(), progress.getMegabytesPerSecond(), progress.getFilesPerSecond());
+        if (progress.isPaused()) {
+            status += ", paused";
+        } else if (eta >= 0) {
+            status += ", " + (eta / 1000) + "s left";
+        }
+        if (!progress.getFailures().isEmpty()) {
+            status += ", " + progress.getFailures().size() + " failed";
+        }
+        statusLabel.setText(status);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * Builds one flat JSON object for the line-oriented output of {@link FileManagerCli}.
+ * Values can be strings, numbers, booleans, null or lists of those.
+ */
+class Json {
+    private final StringBuilder text = new StringBuilder("{");
+
+    Json put(String key, Object value) {
+        if (text.length() > 1) {
+            text.append(',');
+        }
+        appendString(key);
+        text.append(':');
+        appendValue(value);
+        return this;
+    }
+
+    private void appendValue(Object value) {
+        if (value == null || value instanceof Number || value instanceof Boolean) {
+            text.append(value);
+        } else if (value instanceof List) {
+            text.append('[');
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    text.append(',');
+                }
+                appendValue(list.get(i));
+            }
+            text.append(']');
+        } else {
+            appendString(value.toString());
+        }
+    }
+
+    private void appendString(String value) {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    text.append("\\\"");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        text.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        text.append(c);
+                    }
+            }
+        }
+        text.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return text.toString() + '}';
+    }
+}
@@ -2,6 +2,11 @@ package org.example;
 
 public class Main {
     public static void main(String[] args) {
+        // Any arguments mean a headless command; the GUI classes are never loaded then
+        if (args.length > 0) {
+            FileManagerCli.main(args);
+            return;
+        }
         javax.swing.SwingUtilities.invokeLater(() -> {
             FileManagerController controller = new FileManagerController(); // Create controller instance
             FileManagerUI ui = new FileManagerUI(controller); // Pass the controller to the UI
@@ -9,5 +14,3 @@ public class Main {
         });
     }
 }
-
-
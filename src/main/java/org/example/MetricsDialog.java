@@ -0,0 +1,88 @@
+package org.example;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Status window showing what {@link OperationMetrics} has counted so far, refreshed every second.
+ */
+public class MetricsDialog {
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final JDialog dialog;
+    private final DefaultTableModel tableModel = new DefaultTableModel(new Object[]{"Operation", "Count", "Failures",
+            "Error Rate", "Bytes", "Mean (ms)", "p50", "p90", "p99", "p99.9", "Max (ms)"}, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    public MetricsDialog(Frame owner) {
+        dialog = new JDialog(owner, "Operation Metrics", false);
+        dialog.setLayout(new BorderLayout(8, 8));
+        dialog.add(new JScrollPane(new JTable(tableModel)), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel();
+        JButton dumpButton = new JButton("Dump to File...");
+        JButton closeButton = new JButton("Close");
+        buttons.add(dumpButton);
+        buttons.add(closeButton);
+        dialog.add(buttons, BorderLayout.SOUTH);
+
+        dumpButton.addActionListener(e -> dump());
+        closeButton.addActionListener(e -> dialog.dispose());
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+
+        dialog.setSize(900, 300);
+        dialog.setLocationRelativeTo(owner);
+    }
+
+    public void show() {
+        refresh();
+        refreshTimer.start();
+        dialog.setVisible(true);
+    }
+
+    private void refresh() {
+        tableModel.setRowCount(0);
+        for (OperationMetrics.OperationStats stats : OperationMetrics.snapshot()) {
+            tableModel.addRow(new Object[]{stats.getOperation().getLabel(), stats.getCount(), stats.getFailures(),
+                    String.format(Locale.ROOT, "%.1f%%", stats.getErrorRate() * 100),
+                    FileManagerUI.humanReadableByteCountSI(stats.getBytes()), millis(stats.getMeanMillis()),
+                    millis(stats.getPercentileMillis(50)), millis(stats.getPercentileMillis(90)),
+                    millis(stats.getPercentileMillis(99)), millis(stats.getPercentileMillis(99.9)),
+                    millis(stats.getMaxMillis())});
+        }
+    }
+
+    private static String millis(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private void dump() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("file_manager_metrics.csv"));
+        if (chooser.showSaveDialog(dialog) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            OperationMetrics.dump(chooser.getSelectedFile().toPath());
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to dump operation metrics to: " + chooser.getSelectedFile());
+            JOptionPane.showMessageDialog(dialog, "Error writing metrics: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
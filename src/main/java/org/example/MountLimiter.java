@@ -0,0 +1,112 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps how many blocking calls run against one mount at a time, with a semaphore per
+ * {@link FileStore}. Network mounts get more permits than local disks - their calls
+ * spend most of the time waiting for the server, so overlapping many of them pays -
+ * but still a limit, so a thousand virtual threads don't all land on one share.
+ *
+ * <p>Permits can be set with {@code -Dfileman.localConcurrency} and
+ * {@code -Dfileman.remoteConcurrency}. Limiters that wrap each other need separate
+ * instances, or a caller holding a permit could wait for its own callees forever.
+ */
+public class MountLimiter {
+    private static final Set<String> REMOTE_TYPES = Set.of("nfs", "nfs4", "cifs", "smb", "smb2", "smb3", "smbfs",
+            "afpfs", "webdav", "davfs", "fuse.sshfs", "9p", "ncpfs");
+    private static final int STORE_CACHE_SIZE = 256;
+    private static final MountLimiter SHARED = new MountLimiter(Integer.getInteger("fileman.localConcurrency", 16),
+            Integer.getInteger("fileman.remoteConcurrency", 64));
+
+    public interface Call<T> {
+        T run() throws IOException;
+    }
+
+    private final int localPermits;
+    private final int remotePermits;
+    private final Map<FileStore, Semaphore> semaphores = new ConcurrentHashMap<>();
+    // Finding a path's store reads the mount table, so directories remember theirs
+    private final Map<Path, FileStore> stores = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileStore> eldest) {
+            return size() > STORE_CACHE_SIZE;
+        }
+    };
+
+    public MountLimiter(int localPermits, int remotePermits) {
+        this.localPermits = localPermits;
+        this.remotePermits = remotePermits;
+    }
+
+    /**
+     * The limiter for leaf calls - single stats, reads and copies - shared by everything.
+     */
+    public static MountLimiter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Runs the call once the mount holding the path has a permit free. A path whose
+     * mount can't be found runs straight away.
+     */
+    public <T> T call(Path path, Call<T> call) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        FileStore store = storeOf(directory != null ? directory : path.toAbsolutePath());
+        if (store == null) {
+            return call.run();
+        }
+        Semaphore semaphore = semaphores.computeIfAbsent(store, s -> new Semaphore(isRemote(s) ? remotePermits : localPermits));
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + store);
+        }
+        try {
+            return call.run();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * True when the directory's entries live on a network mount.
+     */
+    public boolean isRemoteDirectory(Path directory) {
+        FileStore store = storeOf(directory.toAbsolutePath());
+        return store != null && isRemote(store);
+    }
+
+    private static boolean isRemote(FileStore store) {
+        return REMOTE_TYPES.contains(store.type().toLowerCase(Locale.ROOT));
+    }
+
+    private FileStore storeOf(Path directory) {
+        synchronized (stores) {
+            FileStore store = stores.get(directory);
+            if (store != null) {
+                return store;
+            }
+        }
+        try {
+            FileStore store = Files.getFileStore(directory);
+            synchronized (stores) {
+                stores.put(directory, store);
+            }
+            return store;
+        } catch (IOException e) {
+            return null; // Gone, or not allowed to look; nothing to queue behind
+        }
+    }
+}
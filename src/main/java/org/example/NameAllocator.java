@@ -0,0 +1,167 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Hands out free names for copies, in the form {@code name_1.ext}, {@code name_2.ext}, ...
+ *
+ * <p>Each destination directory is read once and its names are grouped by base name
+ * and extension, with a bitset of the counters already taken. Picking a name is then
+ * a {@code nextClearBit} instead of one {@code exists} call per counter. The name is
+ * claimed on disk with an atomic create-new, so concurrent copies never get the same
+ * one, and a name somebody else took in the meantime just moves on to the next counter.
+ */
+public class NameAllocator {
+    private static final int MAX_DIRECTORIES = 32;
+    private static final long MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final Map<Path, DirectoryNames> directories = new LinkedHashMap<Path, DirectoryNames>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, DirectoryNames> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+
+    /**
+     * Claims a free name for {@code fileName} in the directory by creating an empty
+     * placeholder (a file, or a directory when {@code directoryEntry} is set) that the
+     * caller then overwrites. A name that is already taken but passes {@code reusable}
+     * is returned as is, which lets an interrupted copy go back to its old target.
+     */
+    public Path claim(Path directory, String fileName, boolean directoryEntry, Predicate<Path> reusable) throws IOException {
+        String baseName = fileName;
+        String extension = "";
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex > 0 && !directoryEntry) {
+            baseName = fileName.substring(0, dotIndex);
+            extension = fileName.substring(dotIndex); // Include the dot (e.g., ".png")
+        }
+
+        DirectoryNames names = namesFor(directory);
+        synchronized (names) {
+            BitSet taken = names.families.computeIfAbsent(familyKey(baseName, extension), key -> new BitSet());
+            while (true) {
+                int counter = taken.nextClearBit(0);
+                taken.set(counter);
+                Path candidate = directory.resolve(counter == 0 ? fileName : baseName + "_" + counter + extension);
+                try {
+                    if (directoryEntry) {
+                        Files.createDirectory(candidate);
+                    } else {
+                        Files.createFile(candidate);
+                    }
+                    return candidate;
+                } catch (FileAlreadyExistsException e) {
+                    // Taken behind our back; the bit is already set so the next round moves on
+                    if (reusable.test(candidate)) {
+                        return candidate;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a placeholder from {@link #claim} that never got its content, so the name can be used again.
+     */
+    public void release(Path claimed) {
+        try {
+            if (Files.isDirectory(claimed)) {
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(claimed)) {
+                    if (children.iterator().hasNext()) {
+                        return;
+                    }
+                }
+            } else if (Files.size(claimed) > 0) {
+                return;
+            }
+            Files.deleteIfExists(claimed);
+        } catch (IOException e) {
+            return; // Leave it; it will just look like a taken name
+        }
+        synchronized (directories) {
+            directories.remove(claimed.getParent()); // Re-read next time so the freed counter is seen
+        }
+    }
+
+    private DirectoryNames namesFor(Path directory) throws IOException {
+        synchronized (directories) {
+            DirectoryNames names = directories.get(directory);
+            if (names != null && System.nanoTime() - names.loadedAt < MAX_AGE_NANOS) {
+                return names;
+            }
+        }
+        DirectoryNames names = read(directory);
+        synchronized (directories) {
+            DirectoryNames existing = directories.get(directory);
+            if (existing != null && existing.loadedAt > names.loadedAt) {
+                return existing; // Another thread read it first
+            }
+            directories.put(directory, names);
+        }
+        return names;
+    }
+
+    // One directory read, grouping every existing name into its base/extension family
+    private static DirectoryNames read(Path directory) throws IOException {
+        DirectoryNames names = new DirectoryNames();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                names.add(name, "", 0); // Directories and names without an extension
+                int dotIndex = name.lastIndexOf('.');
+                String baseName = dotIndex > 0 ? name.substring(0, dotIndex) : name;
+                String extension = dotIndex > 0 ? name.substring(dotIndex) : "";
+                names.add(baseName, extension, 0);
+
+                int underscore = baseName.lastIndexOf('_');
+                if (underscore > 0 && underscore < baseName.length() - 1) {
+                    int counter = parseCounter(baseName.substring(underscore + 1));
+                    if (counter > 0) {
+                        names.add(baseName.substring(0, underscore), extension, counter);
+                        names.add(name.substring(0, underscore), "", counter);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private static int parseCounter(String digits) {
+        if (digits.length() > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static String familyKey(String baseName, String extension) {
+        return baseName + '\0' + extension;
+    }
+
+    private static class DirectoryNames {
+        private final Map<String, BitSet> families = new HashMap<>();
+        private final long loadedAt = System.nanoTime();
+
+        void add(String baseName, String extension, int counter) {
+            families.computeIfAbsent(familyKey(baseName, extension), key -> new BitSet()).set(counter);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+
+/**
+ * Lists directories the user is likely to open next - the selected folder, the
+ * parent - on one low-priority background thread, so their snapshots are ready
+ * when the user gets there. Only the last few requests are kept, newest first:
+ * a folder selected a minute ago is no longer a good guess.
+ */
+public class NavigationPrefetcher {
+    private static final int MAX_QUEUED = 8;
+
+    private final DirectorySnapshots snapshots;
+    private final Consumer<Path> lister;
+    private final LinkedBlockingDeque<Path> queue = new LinkedBlockingDeque<>();
+    private Thread worker;
+
+    /**
+     * @param lister lists a directory and leaves its snapshot behind
+     */
+    public NavigationPrefetcher(DirectorySnapshots snapshots, Consumer<Path> lister) {
+        this.snapshots = snapshots;
+        this.lister = lister;
+    }
+
+    public synchronized void prefetch(Path directory) {
+        if (queue.contains(directory)) {
+            return;
+        }
+        queue.offerFirst(directory);
+        while (queue.size() > MAX_QUEUED) {
+            queue.pollLast();
+        }
+        if (worker == null) {
+            worker = new Thread(this::run, "navigation-prefetch");
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Path directory;
+            try {
+                directory = queue.takeFirst();
+            } catch (InterruptedException e) {
+                return;
+            }
+            DirectorySnapshots.Snapshot snapshot = snapshots.get(directory);
+            if (snapshot == null || !snapshot.isFresh()) {
+                lister.accept(directory);
+            }
+        }
+    }
+}
@@ -0,0 +1,685 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the operations that change files. Every move, copy, delete
+ * and folder creation is appended to the journal and forced to disk before it runs,
+ * grouped into transactions (one per bulk operation). Deleted files are moved into
+ * a trash folder rather than deleted, so every step of a transaction can be reversed.
+ *
+ * <p>On {@link #open()} transactions that never committed - the application died in
+ * the middle of them - are rolled back, and the committed ones become the undo history.
+ * One process at a time owns the journal, through a lock on a file next to it; another
+ * process that finds it taken runs without undo, and deletes for good, rather than
+ * roll back operations that are still running.
+ *
+ * <p>The journal is a binary append-only file of length- and CRC-prefixed records. Threads
+ * appending at the same time share one {@code force}: whoever finds no flush in progress
+ * writes out everything queued so far, and the others wait for it (group commit).
+ */
+public class OperationJournal {
+    private static final int MAGIC = 0x464D4A31; // "FMJ1"
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    private static final int HISTORY_LIMIT = 50;
+
+    // Record types
+    private static final byte BEGIN = 1;
+    private static final byte STEP = 2;
+    private static final byte COMMIT = 3;
+    private static final byte UNDONE = 4;
+    private static final byte FORGET = 5; // Committed but no longer undoable, its trash was emptied
+
+    public enum StepKind { MOVE, COPY, TRASH, DELETE, CREATE, PATCH }
+
+    private final Path journalFile;
+    private final Path trashDirectory;
+    private final TreeDeleter treeDeleter;
+
+    private final Object lock = new Object();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel ownerChannel; // Holds the lock on the journal for as long as it is open
+    private FileChannel channel; // Null while the journal isn't open; operations then run without it
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private IOException failure;
+    private long nextId = 1;
+    private long forces;
+
+    private final Deque<TransactionRecord> history = new ArrayDeque<>(); // Newest first
+
+    public OperationJournal(Path journalFile, Path trashDirectory, TreeDeleter treeDeleter) {
+        this.journalFile = journalFile;
+        this.trashDirectory = trashDirectory;
+        this.treeDeleter = treeDeleter;
+    }
+
+    public static Path defaultJournalFile() {
+        return Paths.get(System.getProperty("user.home"), ".fileman", "journal.log");
+    }
+
+    public static Path defaultTrashDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".fileman", "trash");
+    }
+
+    /**
+     * Takes ownership of the journal, rolls back the transactions that never finished and
+     * compacts the file down to the undo history. Returns the labels of the rolled back
+     * transactions. Fails, changing nothing, when another process has the journal open.
+     */
+    public synchronized List<String> open() throws IOException {
+        Files.createDirectories(journalFile.getParent());
+        Files.createDirectories(trashDirectory);
+        lockOwnership();
+        try {
+            List<String> rolledBack = recover();
+            compact();
+            channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            return rolledBack;
+        } catch (IOException | RuntimeException e) {
+            releaseOwnership();
+            throw e;
+        }
+    }
+
+    // The lock dies with its process, so holding it means whoever wrote the unfinished transactions is gone
+    private void lockOwnership() throws IOException {
+        Path lockFile = journalFile.resolveSibling(journalFile.getFileName() + ".lock");
+        FileChannel owner = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock taken;
+        try {
+            taken = owner.tryLock();
+        } catch (OverlappingFileLockException e) {
+            taken = null; // Held elsewhere in this process
+        } catch (IOException | RuntimeException e) {
+            owner.close();
+            throw e;
+        }
+        if (taken == null) {
+            owner.close();
+            throw new IOException("Operation journal is in use by another FileMan process: " + journalFile);
+        }
+        ownerChannel = owner;
+    }
+
+    private void releaseOwnership() throws IOException {
+        if (ownerChannel != null) {
+            ownerChannel.close(); // Releases the lock too
+            ownerChannel = null;
+        }
+    }
+
+    private List<String> recover() throws IOException {
+        Map<Long, TransactionRecord> transactions = read();
+        List<String> rolledBack = new ArrayList<>();
+        List<TransactionRecord> committed = new ArrayList<>();
+        for (TransactionRecord transaction : transactions.values()) {
+            nextId = Math.max(nextId, transaction.id + 1);
+            if (!transaction.finished) {
+                List<String> errors = revert(transaction, false);
+                FileManagerLogger.logInfo("Rolled back unfinished operation: " + transaction.label
+                        + (errors.isEmpty() ? "" : " (" + String.join("; ", errors) + ")"));
+                rolledBack.add(transaction.label);
+            } else if (transaction.undoable && !transaction.steps.isEmpty()) {
+                committed.add(transaction);
+            }
+        }
+        int keepFrom = Math.max(0, committed.size() - HISTORY_LIMIT);
+        for (TransactionRecord transaction : committed.subList(keepFrom, committed.size())) {
+            history.addFirst(transaction);
+        }
+        return rolledBack;
+    }
+
+    /**
+     * True once {@link #open()} succeeded. Until then nothing is journaled, nothing goes to the
+     * trash and there is no undo.
+     */
+    public boolean isOpen() {
+        synchronized (lock) {
+            return channel != null;
+        }
+    }
+
+    // Rewrites the journal with only the undo history, and drops trash nothing refers to any more
+    private void compact() throws IOException {
+        Path temporary = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        Set<String> keptTrash = new HashSet<>();
+        List<TransactionRecord> oldestFirst = new ArrayList<>(history);
+        Collections.reverse(oldestFirst);
+        for (TransactionRecord transaction : oldestFirst) {
+            encode(bytes, BEGIN, transaction.id, transaction.label, null);
+            for (Step step : transaction.steps) {
+                encode(bytes, STEP, transaction.id, null, step);
+            }
+            encode(bytes, COMMIT, transaction.id, null, null);
+            keptTrash.add(Long.toString(transaction.id));
+        }
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(trashDirectory)) {
+            for (Path entry : stream) {
+                if (!keptTrash.contains(entry.getFileName().toString())) {
+                    discardForGood(entry);
+                }
+            }
+        }
+    }
+
+    private Map<Long, TransactionRecord> read() throws IOException {
+        Map<Long, TransactionRecord> transactions = new LinkedHashMap<>();
+        if (Files.notExists(journalFile)) {
+            return transactions;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journalFile))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an operation journal: " + journalFile);
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // A record torn by a crash ends the journal; it was never acknowledged
+                }
+                apply(transactions, new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+        } catch (EOFException e) {
+            // Empty file, nothing was ever written
+        }
+        return transactions;
+    }
+
+    private static void apply(Map<Long, TransactionRecord> transactions, DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        long id = record.readLong();
+        if (type == BEGIN) {
+            transactions.put(id, new TransactionRecord(id, record.readUTF()));
+            return;
+        }
+        TransactionRecord transaction = transactions.get(id);
+        if (transaction == null) {
+            return;
+        }
+        switch (type) {
+            case STEP:
+                StepKind kind = StepKind.values()[record.readByte()];
+                transaction.steps.add(new Step(kind, record.readUTF(), record.readUTF()));
+                break;
+            case COMMIT:
+                transaction.finished = true;
+                break;
+            case UNDONE:
+            case FORGET:
+                transaction.finished = true;
+                transaction.undoable = false;
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void encode(ByteArrayOutputStream out, byte type, long id, String label, Step step) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeByte(type);
+        data.writeLong(id);
+        if (label != null) {
+            data.writeUTF(label);
+        }
+        if (step != null) {
+            data.writeByte(step.kind.ordinal());
+            data.writeUTF(step.source);
+            data.writeUTF(step.target);
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        DataOutputStream framed = new DataOutputStream(out);
+        framed.writeInt(bytes.length);
+        framed.writeInt((int) crc.getValue());
+        framed.write(bytes);
+    }
+
+    // Appends a record and returns once it is on disk
+    private void append(byte type, long id, String label, Step step) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            if (channel == null) {
+                return; // The journal couldn't be opened; operations run without undo
+            }
+            if (failure != null) {
+                throw new IOException("Operation journal is unusable", failure);
+            }
+            encode(pending, type, id, label, step);
+            sequence = ++appended;
+        }
+        sync(sequence);
+    }
+
+    private void sync(long sequence) throws IOException {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            synchronized (lock) {
+                while (flushing && durable < sequence) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for the operation journal");
+                    }
+                }
+                if (failure != null) {
+                    throw new IOException("Operation journal is unusable", failure);
+                }
+                if (durable >= sequence) {
+                    return;
+                }
+                // Nobody is flushing: write out everything queued, ours and whatever came after
+                flushing = true;
+                batch = ByteBuffer.wrap(pending.toByteArray());
+                pending.reset();
+                batchEnd = appended;
+            }
+            IOException error = null;
+            try {
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (lock) {
+                flushing = false;
+                forces++;
+                if (error == null) {
+                    durable = batchEnd;
+                } else {
+                    failure = error;
+                    FileManagerLogger.logError("Failed to write the operation journal: " + error.getMessage());
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts a transaction; everything done through it is undone together. Nothing is
+     * written until its first step, so a transaction that changes nothing costs nothing.
+     */
+    public synchronized Transaction begin(String label) {
+        return new Transaction(new TransactionRecord(nextId++, label));
+    }
+
+    public class Transaction {
+        private final TransactionRecord record;
+        private final AtomicInteger trashCounter = new AtomicInteger();
+        private boolean begun;
+
+        private Transaction(TransactionRecord record) {
+            this.record = record;
+        }
+
+        /**
+         * Moves a file or folder. Fails rather than replacing anything at the target.
+         */
+        public void move(Path source, Path target) throws IOException {
+            log(StepKind.MOVE, source, target);
+            MountLimiter.shared().call(source, () -> Files.move(source, target));
+        }
+
+        /**
+         * Records a copy that is about to be made to a target this transaction owns.
+         */
+        public void recordCopy(Path source, Path target) throws IOException {
+            log(StepKind.COPY, source, target);
+        }
+
+        public void recordCreate(Path directory) throws IOException {
+            log(StepKind.CREATE, directory, directory);
+        }
+
+        /**
+         * Moves the file or folder into the trash. Returns false, having done nothing, when the
+         * trash is on another drive or the journal isn't open; the caller then deletes it with
+         * {@link #recordDelete} first.
+         */
+        public boolean trash(Path path) throws IOException {
+            if (!isOpen()) {
+                return false; // Nothing would ever restore it, and the owner of the journal would purge it
+            }
+            Path target = trashDirectory.resolve(Long.toString(record.id))
+                    .resolve(trashCounter.incrementAndGet() + "_" + path.getFileName());
+            Files.createDirectories(target.getParent());
+            log(StepKind.TRASH, path, target);
+            try {
+                MountLimiter.shared().call(path, () -> Files.move(path, target, StandardCopyOption.ATOMIC_MOVE));
+                return true;
+            } catch (AtomicMoveNotSupportedException e) {
+                removeLastStep(); // Nothing moved, so there is nothing to put back
+                return false;
+            }
+        }
+
+        /**
+         * Saves the old contents of the blocks an in-place update is about to overwrite to a
+         * patch in the trash, and records it; undo writes them back. Does nothing while the journal
+         * isn't open, there being no undo then.
+         */
+        public void recordPatch(DeltaUpdater deltaUpdater, DeltaUpdater.Delta delta) throws IOException {
+            if (!isOpen()) {
+                return;
+            }
+            Path target = delta.getTarget();
+            Path patch = trashDirectory.resolve(Long.toString(record.id))
+                    .resolve(trashCounter.incrementAndGet() + "_" + target.getFileName() + ".patch");
+            Files.createDirectories(patch.getParent());
+            deltaUpdater.writeUndoPatch(delta, patch);
+            log(StepKind.PATCH, target, patch);
+        }
+
+        /**
+         * Records a delete that can't be undone.
+         */
+        public void recordDelete(Path path) throws IOException {
+            log(StepKind.DELETE, path, path);
+        }
+
+        private void log(StepKind kind, Path source, Path target) throws IOException {
+            Step step = new Step(kind, source.toAbsolutePath().toString(), target.toAbsolutePath().toString());
+            synchronized (this) {
+                if (!begun) {
+                    append(BEGIN, record.id, record.label, null);
+                    begun = true;
+                }
+            }
+            synchronized (record.steps) {
+                record.steps.add(step);
+            }
+            append(STEP, record.id, null, step);
+        }
+
+        private void removeLastStep() {
+            // The journal still has the TRASH step; reverting it finds the item in place and skips it
+            synchronized (record.steps) {
+                record.steps.remove(record.steps.size() - 1);
+            }
+        }
+
+        /**
+         * Marks the transaction finished. It is kept for undo if it changed anything.
+         */
+        public void commit() throws IOException {
+            synchronized (this) {
+                if (!begun) {
+                    return;
+                }
+            }
+            append(COMMIT, record.id, null, null);
+            record.finished = true;
+            synchronized (OperationJournal.this) {
+                if (!record.steps.isEmpty() && isOpen()) {
+                    history.addFirst(record);
+                    while (history.size() > HISTORY_LIMIT) {
+                        history.removeLast(); // Its trash goes when the journal is next compacted
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized boolean canUndo() {
+        return !history.isEmpty();
+    }
+
+    /**
+     * The label of the transaction {@link #undo()} would reverse next, or null.
+     */
+    public synchronized String getUndoLabel() {
+        return history.isEmpty() ? null : history.peekFirst().label;
+    }
+
+    /**
+     * Reverses the newest transaction in the history. If some step can't be reversed
+     * (say a moved file was moved on again) the rest are still reversed, the error lists
+     * the ones that failed, and the transaction stays in the history to try again.
+     * Returns the affected paths, sources and targets both.
+     */
+    public synchronized List<Path> undo() throws IOException {
+        TransactionRecord transaction = history.peekFirst();
+        if (transaction == null) {
+            throw new IllegalStateException("Nothing to undo.");
+        }
+        List<String> errors = revert(transaction, true);
+        if (!errors.isEmpty()) {
+            throw new IOException("Could not undo all of " + transaction.label + ": " + String.join("; ", errors));
+        }
+        append(UNDONE, transaction.id, null, null);
+        history.removeFirst();
+        FileManagerLogger.logInfo("Undid " + transaction.label);
+        List<Path> affected = new ArrayList<>();
+        for (Step step : transaction.steps) {
+            affected.add(Paths.get(step.source));
+            affected.add(Paths.get(step.target));
+        }
+        return affected;
+    }
+
+    /**
+     * Deletes everything in the trash for good. Transactions that put things there can't be undone afterwards.
+     */
+    public synchronized void emptyTrash() throws IOException {
+        if (!isOpen()) {
+            throw new IOException("The trash belongs to another FileMan process");
+        }
+        for (TransactionRecord transaction : new ArrayList<>(history)) {
+            for (Step step : transaction.steps) {
+                if (step.kind == StepKind.TRASH || step.kind == StepKind.PATCH) {
+                    append(FORGET, transaction.id, null, null);
+                    history.remove(transaction);
+                    break;
+                }
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(trashDirectory)) {
+            for (Path entry : stream) {
+                discardForGood(entry);
+            }
+        }
+        FileManagerLogger.logInfo("Emptied the trash");
+    }
+
+    // Reverses the steps newest first. An undo keeps copies in the trash, a crash rollback deletes them
+    // but leaves the partial file of a huge copy, so copying it again resumes where the crash stopped.
+    private List<String> revert(TransactionRecord transaction, boolean keepCopies) {
+        List<String> errors = new ArrayList<>();
+        List<Step> steps = new ArrayList<>(transaction.steps);
+        Collections.reverse(steps);
+        int index = 0;
+        for (Step step : steps) {
+            Path source = Paths.get(step.source);
+            Path target = Paths.get(step.target);
+            try {
+                switch (step.kind) {
+                    case MOVE:
+                    case TRASH:
+                        // Put back only what is still where the step left it
+                        if (exists(target) && !exists(source)) {
+                            Files.move(target, source);
+                        } else if (exists(target)) {
+                            errors.add(source + " exists again");
+                        } else if (!exists(source)) {
+                            errors.add(target + " is gone");
+                        }
+                        break;
+                    case COPY:
+                        if (keepCopies) {
+                            Files.deleteIfExists(ResumableFileCopier.partFile(target));
+                            Files.deleteIfExists(ResumableFileCopier.journalFile(target));
+                        }
+                        if (exists(target)) {
+                            if (keepCopies) {
+                                Path trashed = trashDirectory.resolve(Long.toString(transaction.id))
+                                        .resolve("undo_" + (++index) + "_" + target.getFileName());
+                                Files.createDirectories(trashed.getParent());
+                                try {
+                                    Files.move(target, trashed, StandardCopyOption.ATOMIC_MOVE);
+                                    break;
+                                } catch (AtomicMoveNotSupportedException e) {
+                                    // Another drive; the original is still there, so delete the copy
+                                }
+                            }
+                            discardForGood(target);
+                        }
+                        break;
+                    case CREATE:
+                        try {
+                            Files.deleteIfExists(target);
+                        } catch (DirectoryNotEmptyException e) {
+                            errors.add(target + " is no longer empty");
+                        }
+                        break;
+                    case DELETE:
+                        errors.add(source + " was deleted for good");
+                        break;
+                    case PATCH:
+                        if (!exists(target)) {
+                            errors.add(source + " can't be restored, the trash was emptied");
+                        } else if (!exists(source)) {
+                            errors.add(source + " is gone");
+                        } else {
+                            DeltaUpdater.restore(source, target);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                errors.add(source + ": " + e.getMessage());
+            }
+        }
+        return errors;
+    }
+
+    private static boolean exists(Path path) {
+        return Files.exists(path, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private void discardForGood(Path path) throws IOException {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            TreeDeleter.DeleteReport report = treeDeleter.delete(path, FileJobEngine.ItemProgress.NONE);
+            if (!report.isComplete()) {
+                throw new IOException(report.toString());
+            }
+        } else {
+            try {
+                Files.delete(path);
+            } catch (NoSuchFileException e) {
+                // Already gone
+            }
+        }
+    }
+
+    /**
+     * How many times the journal was forced to disk; fewer than records appended when commits were grouped.
+     */
+    public long getForceCount() {
+        synchronized (lock) {
+            return forces;
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+        synchronized (this) {
+            releaseOwnership();
+        }
+    }
+
+    private static class TransactionRecord {
+        private final long id;
+        private final String label;
+        private final List<Step> steps = new ArrayList<>();
+        private volatile boolean finished;
+        private boolean undoable = true;
+
+        TransactionRecord(long id, String label) {
+            this.id = id;
+            this.label = label;
+        }
+    }
+
+    private static class Step {
+        private final StepKind kind;
+        private final String source;
+        private final String target;
+
+        Step(StepKind kind, String source, String target) {
+            this.kind = kind;
+            this.source = source;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts, bytes, failures and latency histograms for every kind of file operation.
+ *
+ * <p>Recording goes to one of a fixed set of stripes picked by thread, so threads
+ * rarely share counters and there are no locks, yet short-lived threads (a virtual
+ * thread per job item) cost nothing once they end; readers add up all stripes when
+ * they want a snapshot. Latencies go into log-linear buckets (16 per power of two, so
+ * within about 6%) like HdrHistogram does, from which percentiles are read off.
+ * Every operation is also a JFR event, for when a recording needs the detail.
+ */
+public final class OperationMetrics {
+
+    public enum Operation {
+        LIST("List"),
+        SEARCH("Name search"),
+        RECURSIVE_SEARCH("Recursive search"),
+        CONTENT_SEARCH("Content search"),
+        COPY("Copy"),
+        MOVE("Move"),
+        DELETE("Delete"),
+        SIZE("Directory size"),
+        DUPLICATES("Find duplicates"),
+        DISK_USAGE("Disk usage scan"),
+        COMPRESS("Compress"),
+        SYNC_PLAN("Sync compare");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 43; // 2^44 ns is almost five hours; anything slower lands in the last bucket
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    // Slots of a recorder's array per operation: counters first, then the histogram
+    private static final int COUNT = 0;
+    private static final int FAILURES = 1;
+    private static final int BYTES = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int MAX_NANOS = 4;
+    private static final int HISTOGRAM = 5;
+    private static final int SLOTS = HISTOGRAM + BUCKETS;
+
+    // A power of two, about four per core, so each one is mostly written by a single thread at a time
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4;
+    // Per stripe, one array per operation, made the first time the stripe records that operation
+    private static final AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>> recorders = newRecorders();
+
+    private OperationMetrics() {
+    }
+
+    @Name("org.example.FileOperation")
+    @Label("File Operation")
+    @Category("File Manager")
+    @Description("One operation run through the file manager")
+    @StackTrace(false)
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    /**
+     * One operation in progress; finish it with {@link #end} or {@link #fail}.
+     */
+    public static final class Sample {
+        private final Operation operation;
+        private final String path;
+        private final long startNanos = System.nanoTime();
+        private final OperationEvent event = new OperationEvent();
+
+        private Sample(Operation operation, String path) {
+            this.operation = operation;
+            this.path = path;
+            event.begin();
+        }
+
+        public void end(long bytes) {
+            finish(bytes, false);
+        }
+
+        public void fail() {
+            finish(0, true);
+        }
+
+        private void finish(long bytes, boolean failed) {
+            long nanos = System.nanoTime() - startNanos;
+            record(operation, nanos, bytes, failed);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.getLabel();
+                event.path = path;
+                event.bytes = bytes;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    public static Sample start(Operation operation, Object path) {
+        return new Sample(operation, String.valueOf(path));
+    }
+
+    public static void record(Operation operation, long nanos, long bytes, boolean failed) {
+        AtomicReferenceArray<AtomicLongArray> recorder = recorders.get(stripe());
+        AtomicLongArray slots = recorder.get(operation.ordinal());
+        if (slots == null) {
+            recorder.compareAndSet(operation.ordinal(), null, new AtomicLongArray(SLOTS));
+            slots = recorder.get(operation.ordinal());
+        }
+        // Threads that share the stripe add atomically; sharing is rare, so these seldom contend
+        slots.getAndIncrement(COUNT);
+        if (failed) {
+            slots.getAndIncrement(FAILURES);
+        }
+        slots.getAndAdd(BYTES, bytes);
+        slots.getAndAdd(TOTAL_NANOS, nanos);
+        if (nanos > slots.get(MAX_NANOS)) {
+            slots.accumulateAndGet(MAX_NANOS, nanos, Math::max);
+        }
+        slots.getAndIncrement(HISTOGRAM + bucketOf(nanos));
+    }
+
+    private static AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>> newRecorders() {
+        AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>> stripes = new AtomicReferenceArray<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.set(i, new AtomicReferenceArray<>(Operation.values().length));
+        }
+        return stripes;
+    }
+
+    // Spreads thread ids, which count up, over the stripes
+    private static int stripe() {
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & (STRIPES - 1);
+    }
+
+    // Values below 16 get a bucket each; above that, 16 buckets per power of two
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    // The highest value that falls into the bucket
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public static final class OperationStats {
+        private final Operation operation;
+        private final long count;
+        private final long failures;
+        private final long bytes;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        OperationStats(Operation operation, long count, long failures, long bytes, long totalNanos, long maxNanos, long[] histogram) {
+            this.operation = operation;
+            this.count = count;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getErrorRate() {
+            return count == 0 ? 0 : (double) failures / count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        /**
+         * The latency at the given percentile (0-100) in milliseconds, accurate to the bucket width.
+         */
+        public double getPercentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < histogram.length; bucket++) {
+                seen += histogram[bucket];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(bucket), maxNanos) / 1e6;
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+
+    /**
+     * Adds up every stripe. Operations that never ran are left out.
+     */
+    public static List<OperationStats> snapshot() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            long count = 0;
+            long failures = 0;
+            long bytes = 0;
+            long totalNanos = 0;
+            long maxNanos = 0;
+            long[] histogram = new long[BUCKETS];
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                AtomicLongArray slots = recorders.get(stripe).get(operation.ordinal());
+                if (slots == null) {
+                    continue;
+                }
+                count += slots.get(COUNT);
+                failures += slots.get(FAILURES);
+                bytes += slots.get(BYTES);
+                totalNanos += slots.get(TOTAL_NANOS);
+                maxNanos = Math.max(maxNanos, slots.get(MAX_NANOS));
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    histogram[bucket] += slots.get(HISTOGRAM + bucket);
+                }
+            }
+            if (count > 0) {
+                stats.add(new OperationStats(operation, count, failures, bytes, totalNanos, maxNanos, histogram));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Writes the current numbers to a file as a table, one operation per line.
+     */
+    public static void dump(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("# File manager operation metrics, " + Instant.now());
+            out.println("operation,count,failures,error_rate,bytes,mean_ms,p50_ms,p90_ms,p99_ms,p99.9_ms,max_ms");
+            for (OperationStats stats : snapshot()) {
+                out.printf(Locale.ROOT, "%s,%d,%d,%.4f,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+                        stats.getOperation().getLabel(), stats.getCount(), stats.getFailures(), stats.getErrorRate(),
+                        stats.getBytes(), stats.getMeanMillis(), stats.getPercentileMillis(50),
+                        stats.getPercentileMillis(90), stats.getPercentileMillis(99), stats.getPercentileMillis(99.9),
+                        stats.getMaxMillis());
+            }
+        }
+        FileManagerLogger.logInfo("Dumped operation metrics to " + file);
+    }
+}
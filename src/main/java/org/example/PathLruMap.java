@@ -0,0 +1,73 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A least recently used map keyed by path that can also drop a whole subtree without
+ * looking at the rest: next to the usage order it keeps the keys sorted by name, where
+ * everything below a folder is one contiguous range. Not thread-safe, callers lock.
+ */
+class PathLruMap<V> {
+    private final Map<Path, V> entries;
+    private final NavigableMap<String, Path> byName = new TreeMap<>();
+
+    PathLruMap(int maxEntries, Runnable onEviction) {
+        this.entries = new LinkedHashMap<Path, V>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, V> eldest) {
+                if (size() > maxEntries) {
+                    byName.remove(eldest.getKey().toString());
+                    onEviction.run();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    V get(Path path) {
+        return entries.get(path);
+    }
+
+    void put(Path path, V value) {
+        // Add to the name index first, the put may evict the eldest entry from both
+        byName.put(path.toString(), path);
+        entries.put(path, value);
+    }
+
+    void remove(Path path) {
+        if (entries.remove(path) != null) {
+            byName.remove(path.toString());
+        }
+    }
+
+    /**
+     * Removes the path and every key below it.
+     */
+    void removeTree(Path directory) {
+        remove(directory);
+        String separator = directory.getFileSystem().getSeparator();
+        String prefix = directory.toString();
+        if (!prefix.endsWith(separator)) {
+            prefix += separator;
+        }
+        // Names below the folder all start with the prefix, so they sort right after it
+        String end = prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1);
+        NavigableMap<String, Path> below = byName.subMap(prefix, true, end, false);
+        List<Path> paths = new ArrayList<>(below.values());
+        below.clear();
+        for (Path path : paths) {
+            entries.remove(path);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
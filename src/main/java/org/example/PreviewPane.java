@@ -0,0 +1,74 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Side panel showing the selected file: a larger picture for images, decoded in the
+ * background, and its name, size and date.
+ */
+public class PreviewPane {
+    private static final int PREVIEW_EDGE = 320;
+
+    private final ThumbnailLoader loader;
+    private final JPanel panel = new JPanel(new BorderLayout(4, 4));
+    private final JLabel imageLabel = new JLabel("", SwingConstants.CENTER);
+    private final JLabel infoLabel = new JLabel(" ");
+    private int generation; // Bumped on every selection, so a slow decode can't replace a newer preview
+
+    public PreviewPane(ThumbnailLoader loader) {
+        this.loader = loader;
+        panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        panel.setPreferredSize(new Dimension(PREVIEW_EDGE + 16, 0));
+        panel.add(imageLabel, BorderLayout.CENTER);
+        panel.add(infoLabel, BorderLayout.SOUTH);
+    }
+
+    public JComponent getComponent() {
+        return panel;
+    }
+
+    public void clear() {
+        generation++;
+        imageLabel.setIcon(null);
+        imageLabel.setText("");
+        infoLabel.setText(" ");
+    }
+
+    public void show(Path path, boolean directory, long size, long lastModified) {
+        clear();
+        infoLabel.setText("<html><b>" + path.getFileName() + "</b><br>"
+                + (directory ? "Folder" : FileManagerUI.humanReadableByteCountSI(size)) + "<br>"
+                + Formats.dateTime(lastModified) + "</html>");
+        if (directory || !ThumbnailLoader.isImage(path.getFileName().toString())) {
+            imageLabel.setIcon(UIManager.getIcon(directory ? "FileView.directoryIcon" : "FileView.fileIcon"));
+            return;
+        }
+        int current = generation;
+        imageLabel.setText("Loading...");
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() throws Exception {
+                return loader.loadPreview(path, PREVIEW_EDGE);
+            }
+
+            @Override
+            protected void done() {
+                if (current != generation) {
+                    return;
+                }
+                imageLabel.setText("");
+                try {
+                    imageLabel.setIcon(new ImageIcon(get()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    imageLabel.setText("No preview");
+                }
+            }
+        }.execute();
+    }
+}
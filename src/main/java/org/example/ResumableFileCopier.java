@@ -0,0 +1,232 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32C;
+
+/**
+ * Copies very large files in fixed-size chunks that survive a crash or a cancel.
+ *
+ * <p>Data goes to {@code <target>.fmpart}. After each chunk is forced to disk its
+ * index and CRC32C are appended to a sidecar journal, {@code <target>.fmjournal}.
+ * Copying to the same target again skips the chunks the journal already lists, as
+ * long as the source still has the same size and modification time. The checksums
+ * of the source are computed in the same pass that copies it, and the destination
+ * is read back to compare against them before the file is moved into place.
+ */
+public class ResumableFileCopier {
+
+    public enum Verification { NONE, CRC32C, SHA256 }
+
+    public static final long RESUMABLE_THRESHOLD = 256L * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int JOURNAL_MAGIC = 0x464D4A52; // "FMJR"
+    private static final int JOURNAL_HEADER_SIZE = 4 + 8 + 8 + 4;
+    private static final int JOURNAL_RECORD_SIZE = 4 + 4;
+    private static final String PART_SUFFIX = ".fmpart";
+    private static final String JOURNAL_SUFFIX = ".fmjournal";
+
+    public static Path partFile(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    public static Path journalFile(Path target) {
+        return target.resolveSibling(target.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Returns true when an earlier copy of this source into the target was interrupted and can be resumed.
+     */
+    public static boolean canResume(Path source, Path target) {
+        try {
+            return Files.exists(partFile(target)) && readJournal(source, journalFile(target)) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void copy(Path source, Path target, Verification verification, FileJobEngine.ItemProgress progress) throws IOException {
+        Path part = partFile(target);
+        Path journal = journalFile(target);
+        long size = Files.size(source);
+        int chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        JournalState state = Files.exists(part) ? readJournal(source, journal) : null;
+        if (state == null) {
+            Files.deleteIfExists(part);
+            state = new JournalState(chunkCount);
+            writeJournalHeader(source, journal);
+        } else {
+            FileManagerLogger.logInfo("Resuming copy of " + source + " with " + state.done.cardinality() + " of " + chunkCount + " chunks done");
+        }
+
+        MessageDigest sourceDigest = verification == Verification.SHA256 ? sha256() : null;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        CRC32C crc = new CRC32C();
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel journalOut = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer record = ByteBuffer.allocate(JOURNAL_RECORD_SIZE);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                if (progress.isCancelled()) {
+                    throw new IOException("Copy cancelled, it will resume from chunk " + chunk + ": " + source);
+                }
+                long position = (long) chunk * CHUNK_SIZE;
+                boolean alreadyCopied = state.done.get(chunk);
+                // A skipped chunk still has to be read when the whole-file digest needs it
+                if (alreadyCopied && sourceDigest == null) {
+                    progress.addBytes(Math.min(CHUNK_SIZE, size - position));
+                    continue;
+                }
+
+                readFully(in, buffer, position, (int) Math.min(CHUNK_SIZE, size - position));
+                if (sourceDigest != null) {
+                    sourceDigest.update(buffer.duplicate());
+                }
+                if (!alreadyCopied) {
+                    crc.reset();
+                    crc.update(buffer.duplicate());
+                    writeFully(out, buffer.duplicate(), position);
+                    out.force(false); // The chunk must be on disk before the journal says so
+
+                    record.clear();
+                    record.putInt(chunk).putInt((int) crc.getValue()).flip();
+                    while (record.hasRemaining()) {
+                        journalOut.write(record);
+                    }
+                    state.done.set(chunk);
+                    state.crcs[chunk] = (int) crc.getValue();
+                }
+                progress.addBytes(buffer.remaining());
+            }
+            out.truncate(size);
+        }
+
+        if (verification != Verification.NONE) {
+            verify(source, target, size, verification, state, sourceDigest, buffer);
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journal);
+    }
+
+    private void verify(Path source, Path target, long size, Verification verification, JournalState state,
+                        MessageDigest sourceDigest, ByteBuffer buffer) throws IOException {
+        MessageDigest targetDigest = verification == Verification.SHA256 ? sha256() : null;
+        CRC32C crc = new CRC32C();
+        try (FileChannel copied = FileChannel.open(partFile(target), StandardOpenOption.READ)) {
+            for (int chunk = 0; (long) chunk * CHUNK_SIZE < size; chunk++) {
+                long position = (long) chunk * CHUNK_SIZE;
+                readFully(copied, buffer, position, (int) Math.min(CHUNK_SIZE, size - position));
+                if (targetDigest != null) {
+                    targetDigest.update(buffer);
+                } else {
+                    crc.reset();
+                    crc.update(buffer);
+                    if ((int) crc.getValue() != state.crcs[chunk]) {
+                        discard(target);
+                        throw new IOException("Checksum mismatch in chunk " + chunk + " copying " + source);
+                    }
+                }
+            }
+        }
+        if (targetDigest != null && !Arrays.equals(sourceDigest.digest(), targetDigest.digest())) {
+            discard(target);
+            throw new IOException("SHA-256 mismatch copying " + source);
+        }
+    }
+
+    // A copy that failed verification can't be trusted, so don't let it be resumed either
+    private static void discard(Path target) throws IOException {
+        Files.deleteIfExists(partFile(target));
+        Files.deleteIfExists(journalFile(target));
+    }
+
+    private static void writeJournalHeader(Path source, Path journal) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC)
+                .putLong(Files.size(source))
+                .putLong(Files.getLastModifiedTime(source).toMillis())
+                .putInt(CHUNK_SIZE)
+                .flip();
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+    }
+
+    // Returns null when there is no journal or it belongs to a different version of the source
+    private static JournalState readJournal(Path source, Path journal) throws IOException {
+        if (Files.notExists(journal)) {
+            return null;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(journal));
+        if (bytes.remaining() < JOURNAL_HEADER_SIZE || bytes.getInt() != JOURNAL_MAGIC) {
+            return null;
+        }
+        long size = bytes.getLong();
+        long lastModified = bytes.getLong();
+        int chunkSize = bytes.getInt();
+        if (size != Files.size(source) || lastModified != Files.getLastModifiedTime(source).toMillis() || chunkSize != CHUNK_SIZE) {
+            return null;
+        }
+        JournalState state = new JournalState((int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE));
+        // A record torn by a crash is simply ignored, that chunk gets copied again
+        while (bytes.remaining() >= JOURNAL_RECORD_SIZE) {
+            int chunk = bytes.getInt();
+            int crc = bytes.getInt();
+            if (chunk >= 0 && chunk < state.crcs.length) {
+                state.done.set(chunk);
+                state.crcs[chunk] = crc;
+            }
+        }
+        return state;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File changed while it was being copied");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class JournalState {
+        private final BitSet done;
+        private final int[] crcs;
+
+        JournalState(int chunkCount) {
+            this.done = new BitSet(chunkCount);
+            this.crcs = new int[chunkCount];
+        }
+    }
+}
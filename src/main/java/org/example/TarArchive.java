@@ -0,0 +1,382 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A tar file, gzipped or not, seen as an {@link ArchiveBrowser.Archive}. Tar has no
+ * table of contents, so opening it reads every header once, skipping over the data,
+ * and keeps the index. Extracting reads through the file again and streams the
+ * matching entries out in that one pass. Understands ustar, GNU long names and pax
+ * path and size records; links and devices show as empty files and are not extracted.
+ */
+public class TarArchive implements ArchiveBrowser.Archive {
+    private static final int BLOCK = 512;
+
+    private interface EntryVisitor {
+        /**
+         * Called for every entry in file order, with its data readable from {@code data}.
+         */
+        void visit(ArchiveBrowser.Entry entry, boolean regularFile, InputStream data) throws IOException;
+    }
+
+    private final Path file;
+    private final boolean gzipped;
+    private final Map<String, ArchiveBrowser.Entry> entries = new LinkedHashMap<>();
+    private final Map<String, List<String>> children = new HashMap<>();
+
+    public TarArchive(Path file) throws IOException {
+        this.file = file;
+        this.gzipped = isGzip(file);
+        entries.put("", new ArchiveBrowser.Entry("", 0, Files.getLastModifiedTime(file).toMillis(), true));
+        Map<String, Long> directorySizes = new HashMap<>();
+        scan((entry, regularFile, data) -> {
+            addWithParents(entry);
+            if (!entry.isDirectory()) {
+                for (String parent = parentOf(entry.getInner()); parent != null; parent = parentOf(parent)) {
+                    directorySizes.merge(parent, entry.getSize(), Long::sum);
+                }
+            }
+        });
+        // Folders hold the total of everything below them, as the zip view does
+        for (Map.Entry<String, ArchiveBrowser.Entry> entry : entries.entrySet()) {
+            ArchiveBrowser.Entry value = entry.getValue();
+            if (value.isDirectory()) {
+                entry.setValue(new ArchiveBrowser.Entry(value.getInner(), directorySizes.getOrDefault(value.getInner(), 0L),
+                        value.getLastModified(), true));
+            }
+        }
+    }
+
+    private static boolean isGzip(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    // Parents are often not in the archive themselves, so they are made up as needed
+    private void addWithParents(ArchiveBrowser.Entry entry) {
+        ArchiveBrowser.Entry previous = entries.put(entry.getInner(), entry);
+        if (previous != null) {
+            return; // A later copy of the same name replaces the earlier one, as tar does on extraction
+        }
+        String parent = parentOf(entry.getInner());
+        children.computeIfAbsent(parent, p -> new ArrayList<>()).add(entry.getInner());
+        if (!entries.containsKey(parent)) {
+            addWithParents(new ArchiveBrowser.Entry(parent, 0, entry.getLastModified(), true));
+        }
+    }
+
+    private static String parentOf(String inner) {
+        if (inner.isEmpty()) {
+            return null;
+        }
+        int slash = inner.lastIndexOf('/');
+        return slash < 0 ? "" : inner.substring(0, slash);
+    }
+
+    @Override
+    public ArchiveBrowser.Entry stat(String inner) {
+        return entries.get(inner);
+    }
+
+    @Override
+    public List<ArchiveBrowser.Entry> list(String inner) throws IOException {
+        ArchiveBrowser.Entry directory = entries.get(inner);
+        if (directory == null || !directory.isDirectory()) {
+            throw new IOException("Not a folder in " + file + ": " + inner);
+        }
+        List<ArchiveBrowser.Entry> listed = new ArrayList<>();
+        for (String child : children.getOrDefault(inner, List.of())) {
+            listed.add(entries.get(child));
+        }
+        return listed;
+    }
+
+    @Override
+    public void extract(String inner, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+        ArchiveBrowser.Entry root = entries.get(inner);
+        if (root == null) {
+            throw new IOException("No such entry in " + file + ": " + inner);
+        }
+        String prefix = inner.isEmpty() ? "" : inner + "/";
+        if (root.isDirectory()) {
+            // Made up folders have no header, so every folder is created from the index first
+            Files.createDirectories(target);
+            for (ArchiveBrowser.Entry entry : entries.values()) {
+                if (entry.isDirectory() && entry.getInner().startsWith(prefix) && !entry.getInner().equals(inner)) {
+                    Files.createDirectories(ArchiveBrowser.safeResolve(target, entry.getInner().substring(prefix.length())));
+                }
+            }
+        }
+        scan((entry, regularFile, data) -> {
+            if (progress.isCancelled()) {
+                throw new IOException("Extraction cancelled");
+            }
+            ArchiveBrowser.Entry indexed = entries.get(entry.getInner());
+            if (!regularFile || indexed == null || indexed.isDirectory()) {
+                return;
+            }
+            if (entry.getInner().equals(inner)) {
+                Files.deleteIfExists(target); // A later copy of the same name wins
+                ArchiveBrowser.copyToFile(data, target, progress);
+            } else if (root.isDirectory() && entry.getInner().startsWith(prefix)) {
+                Path destination = ArchiveBrowser.safeResolve(target, entry.getInner().substring(prefix.length()));
+                Files.deleteIfExists(destination); // A later copy of the same name wins
+                ArchiveBrowser.copyToFile(data, destination, progress);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        // Nothing stays open between scans
+    }
+
+    /**
+     * Reads the archive from the start, passing each entry to the visitor and skipping
+     * whatever data the visitor leaves unread.
+     */
+    private void scan(EntryVisitor visitor) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+        try (InputStream in = gzipped ? new GZIPInputStream(raw, 64 * 1024) : raw) {
+            byte[] header = new byte[BLOCK];
+            String longName = null;
+            String paxPath = null;
+            long paxSize = -1;
+            while (readBlock(in, header)) {
+                if (isZeroBlock(header)) {
+                    return; // End of archive
+                }
+                long size = parseNumber(header, 124, 12);
+                char type = (char) header[156];
+                long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+                if (type == 'L' || type == 'x') {
+                    byte[] extra = readData(in, size);
+                    skipFully(in, padded - size);
+                    if (type == 'L') {
+                        longName = cString(extra, 0, extra.length);
+                    } else {
+                        Map<String, String> records = parsePax(extra);
+                        paxPath = records.get("path");
+                        paxSize = records.containsKey("size") ? Long.parseLong(records.get("size")) : -1;
+                    }
+                    continue;
+                }
+                if (paxSize >= 0) {
+                    size = paxSize;
+                    padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+                }
+                String name = paxPath != null ? paxPath : longName != null ? longName : headerName(header);
+                longName = null;
+                paxPath = null;
+                paxSize = -1;
+
+                BoundedInputStream data = new BoundedInputStream(in, size);
+                String inner = trim(name);
+                boolean directory = type == '5' || name.endsWith("/");
+                boolean regularFile = type == '0' || type == '\0' || type == '7';
+                boolean skipped = type == 'g' || type == 'K' || inner.isEmpty();
+                if (!skipped) {
+                    long lastModified = parseNumber(header, 136, 12) * 1000;
+                    visitor.visit(new ArchiveBrowser.Entry(inner, directory || !regularFile ? 0 : size, lastModified, directory),
+                            regularFile && !directory, data);
+                }
+                skipFully(in, data.remaining + padded - size);
+            }
+        }
+    }
+
+    private static String headerName(byte[] header) {
+        String name = cString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        if (ustar) {
+            String prefix = cString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    // No leading "./" or slashes, no trailing slash
+    private static String trim(String name) {
+        String trimmed = name;
+        while (trimmed.startsWith("./") || trimmed.startsWith("/")) {
+            trimmed = trimmed.substring(trimmed.startsWith("./") ? 2 : 1);
+        }
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed.equals(".") ? "" : trimmed;
+    }
+
+    private static Map<String, String> parsePax(byte[] data) {
+        // Records are "<length> <key>=<value>\n", the length counting the whole record
+        Map<String, String> records = new HashMap<>();
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            if (space >= data.length) {
+                break;
+            }
+            int length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            if (length <= 0 || position + length > data.length) {
+                break;
+            }
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            position += length;
+        }
+        return records;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // Octal, or big-endian binary when the top bit of the first byte is set (GNU, for sizes over 8 GB)
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xff);
+            }
+            return value;
+        }
+        int i = offset;
+        int end = offset + length;
+        while (i < end && header[i] == ' ') {
+            i++;
+        }
+        long value = 0;
+        for (; i < end && header[i] >= '0' && header[i] <= '7'; i++) {
+            value = value * 8 + (header[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int count = in.read(block, read, block.length - read);
+            if (count < 0) {
+                if (read == 0) {
+                    return false; // Some writers leave out the closing zero blocks
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static byte[] readData(InputStream in, long size) throws IOException {
+        if (size > 16 * 1024 * 1024) {
+            throw new IOException("Tar extension header too large: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length) {
+            int count = in.read(data, read, data.length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated tar extension header");
+            }
+            read += count;
+        }
+        return data;
+    }
+
+    // skip() on a file seeks, so headers of a plain tar are read without touching the data
+    private static void skipFully(InputStream in, long count) throws IOException {
+        long left = count;
+        while (left > 0) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                skipped = 1;
+            }
+            left -= skipped;
+        }
+    }
+
+    /**
+     * The data of one entry: reads stop at its end, and closing leaves the archive open.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = in.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
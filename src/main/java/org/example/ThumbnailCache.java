@@ -0,0 +1,247 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Two-level cache of thumbnails keyed by path, modification time and size, so an
+ * edited image never shows its old thumbnail.
+ *
+ * <p>The memory level keeps pixels outside the Java heap, in direct buffers carved
+ * into fixed slots of one thumbnail each; it is bounded by slot count, evicts the
+ * least recently used entry and never makes garbage. The disk level keeps PNGs under
+ * {@code ~/.fileman/thumbnails}, pruned oldest-first when it grows past its budget,
+ * so a folder opened again is never decoded again.
+ */
+public class ThumbnailCache {
+    public static final int THUMBNAIL_EDGE = 128;
+    private static final int SLOT_INTS = THUMBNAIL_EDGE * THUMBNAIL_EDGE;
+    private static final int SLOTS_PER_CHUNK = 64; // 4 MB per direct buffer, allocated as the cache fills
+    private static final long DISK_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    public static final class Key {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+
+        public Key(Path path, long lastModified, long size) {
+            this.path = path.toAbsolutePath().toString();
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        public Path getPath() {
+            return Paths.get(path);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return lastModified == other.lastModified && size == other.size && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, size);
+        }
+    }
+
+    private static final class Slot {
+        private final int index;
+        private final int width;
+        private final int height;
+
+        Slot(int index, int width, int height) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final Path diskDirectory;
+    private final int maxSlots;
+    private final List<IntBuffer> chunks = new ArrayList<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int allocatedSlots;
+    private final LinkedHashMap<Key, Slot> slots = new LinkedHashMap<>(256, 0.75f, true);
+
+    public ThumbnailCache(Path diskDirectory, long memoryBudgetBytes) {
+        this.diskDirectory = diskDirectory;
+        this.maxSlots = (int) Math.max(SLOTS_PER_CHUNK, memoryBudgetBytes / (SLOT_INTS * 4L));
+    }
+
+    public static Path defaultDiskDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".fileman", "thumbnails");
+    }
+
+    /**
+     * The thumbnail from memory, or null. Each call copies the pixels into a new image.
+     */
+    public synchronized BufferedImage getFromMemory(Key key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            return null;
+        }
+        BufferedImage image = new BufferedImage(slot.width, slot.height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[slot.width * slot.height];
+        IntBuffer chunk = chunks.get(slot.index / SLOTS_PER_CHUNK).duplicate();
+        chunk.position((slot.index % SLOTS_PER_CHUNK) * SLOT_INTS);
+        chunk.get(pixels);
+        image.setRGB(0, 0, slot.width, slot.height, pixels, 0, slot.width);
+        return image;
+    }
+
+    /**
+     * Keeps a thumbnail, at most {@link #THUMBNAIL_EDGE} on each side, in memory.
+     */
+    public synchronized void putInMemory(Key key, BufferedImage image) {
+        int width = Math.min(image.getWidth(), THUMBNAIL_EDGE);
+        int height = Math.min(image.getHeight(), THUMBNAIL_EDGE);
+        Slot previous = slots.remove(key);
+        int index = previous != null ? previous.index : takeSlot();
+        IntBuffer chunk = chunks.get(index / SLOTS_PER_CHUNK).duplicate();
+        chunk.position((index % SLOTS_PER_CHUNK) * SLOT_INTS);
+        chunk.put(image.getRGB(0, 0, width, height, null, 0, width));
+        slots.put(key, new Slot(index, width, height));
+    }
+
+    private int takeSlot() {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.pop();
+        }
+        if (allocatedSlots < maxSlots) {
+            if (allocatedSlots % SLOTS_PER_CHUNK == 0) {
+                chunks.add(ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * SLOT_INTS * 4).asIntBuffer());
+            }
+            return allocatedSlots++;
+        }
+        // Full: reuse the least recently used thumbnail's slot
+        Iterator<Map.Entry<Key, Slot>> eldest = slots.entrySet().iterator();
+        int index = eldest.next().getValue().index;
+        eldest.remove();
+        return index;
+    }
+
+    public synchronized void invalidate(Path path) {
+        String absolute = path.toAbsolutePath().toString();
+        Iterator<Map.Entry<Key, Slot>> entries = slots.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Slot> entry = entries.next();
+            if (entry.getKey().path.equals(absolute)) {
+                freeSlots.push(entry.getValue().index);
+                entries.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * The thumbnail from disk, or null when it was never written or can't be read.
+     */
+    public BufferedImage getFromDisk(Key key) {
+        Path file = diskFile(key);
+        try {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image != null) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); // Recently used for pruning
+            }
+            return image;
+        } catch (IOException e) {
+            return null; // Not there, or a half-written leftover: decode again
+        }
+    }
+
+    public void putOnDisk(Key key, BufferedImage image) {
+        Path file = diskFile(key);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(diskDirectory);
+            if (ImageIO.write(image, "png", temporary.toFile())) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to store thumbnail for: " + key.path);
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails on disk until they fit the budget again.
+     */
+    public void pruneDisk() {
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(diskDirectory)) {
+            for (Path file : stream) {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                files.add(file);
+                attributes.put(file, attrs);
+                total += attrs.size();
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            FileManagerLogger.logError("Failed to read thumbnail directory: " + diskDirectory);
+            return;
+        }
+        if (total <= DISK_BUDGET_BYTES) {
+            return;
+        }
+        files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        long target = DISK_BUDGET_BYTES * 4 / 5; // Some headroom, so this doesn't run again right away
+        for (Path file : files) {
+            if (total <= target) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(file);
+                total -= attributes.get(file).size();
+            } catch (IOException e) {
+                // In use or already gone, try the next one
+            }
+        }
+    }
+
+    private Path diskFile(Key key) {
+        String name = key.path + '\0' + key.lastModified + '\0' + key.size;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(name.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(44);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return diskDirectory.resolve(hex.append(".png").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+}
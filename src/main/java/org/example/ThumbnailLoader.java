@@ -0,0 +1,207 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Makes thumbnails in the background. Images are decoded at reduced resolution -
+ * ImageIO skips pixels while reading (subsampling) and the rest is scaled smoothly -
+ * on a small pool whose queue serves visible rows before prefetched ones and the
+ * newest request before older ones, so the rows the user is looking at come first.
+ */
+public class ThumbnailLoader {
+    public enum Priority { VISIBLE, PREFETCH }
+
+    private static final Set<String> IMAGE_SUFFIXES = new HashSet<>();
+
+    static {
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            IMAGE_SUFFIXES.add(suffix.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private final ThumbnailCache cache;
+    private final ThreadPoolExecutor pool;
+    private final Map<ThumbnailCache.Key, Request> pending = new ConcurrentHashMap<>();
+    private final Set<ThumbnailCache.Key> failed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ThumbnailLoader(ThumbnailCache cache) {
+        this.cache = cache;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1); // Decoding must never make the UI stutter
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        // Trimming the disk cache waits behind everything the user is looking at
+        pool.execute(new Request(null, Priority.PREFETCH, null) {
+            @Override
+            public void run() {
+                cache.pruneDisk();
+            }
+        });
+    }
+
+    public static boolean isImage(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && IMAGE_SUFFIXES.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The thumbnail if it is in memory right now, else null.
+     */
+    public BufferedImage getCached(ThumbnailCache.Key key) {
+        return cache.getFromMemory(key);
+    }
+
+    /**
+     * True when the file couldn't be decoded; it isn't tried again until it changes.
+     */
+    public boolean hasFailed(ThumbnailCache.Key key) {
+        return failed.contains(key);
+    }
+
+    /**
+     * Loads the thumbnail from disk or decodes it, then passes it to {@code onLoaded} on
+     * a pool thread. Asking again for a queued thumbnail only moves it up the queue.
+     */
+    public void request(ThumbnailCache.Key key, Priority priority, Consumer<BufferedImage> onLoaded) {
+        if (failed.contains(key)) {
+            return;
+        }
+        Request queued = pending.get(key);
+        if (queued != null) {
+            if (priority.ordinal() >= queued.priority.ordinal() || !pool.remove(queued)) {
+                return;
+            }
+            pending.remove(key, queued);
+        }
+        Request request = new Request(key, priority, onLoaded);
+        if (pending.putIfAbsent(key, request) == null) {
+            pool.execute(request);
+        }
+    }
+
+    /**
+     * Drops every queued request, say because the view scrolled; running ones finish.
+     */
+    public void cancelPending() {
+        Iterator<Request> requests = pending.values().iterator();
+        while (requests.hasNext()) {
+            pool.remove(requests.next());
+            requests.remove();
+        }
+    }
+
+    /**
+     * Decodes a larger preview on the calling thread; it is not cached.
+     */
+    public BufferedImage loadPreview(Path file, int maxEdge) throws IOException {
+        return decode(file, maxEdge);
+    }
+
+    static BufferedImage decode(Path file, int maxEdge) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) {
+                throw new IOException("Cannot read " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not an image: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // Skip pixels while reading down to about twice the size wanted, then scale smoothly the rest of the way
+                int step = Math.max(1, Math.max(width, height) / (maxEdge * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scale(reader.read(0, param), maxEdge);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int maxEdge) {
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private class Request implements Runnable, Comparable<Request> {
+        private final ThumbnailCache.Key key;
+        private final Priority priority;
+        private final Consumer<BufferedImage> onLoaded;
+        private final long order = sequence.incrementAndGet();
+
+        Request(ThumbnailCache.Key key, Priority priority, Consumer<BufferedImage> onLoaded) {
+            this.key = key;
+            this.priority = priority;
+            this.onLoaded = onLoaded;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return Long.compare(other.order, order); // Newest first: what was scrolled to last
+        }
+
+        @Override
+        public void run() {
+            if (!pending.remove(key, this)) {
+                return; // Cancelled or replaced after it was taken off the queue
+            }
+            BufferedImage thumbnail = cache.getFromDisk(key);
+            if (thumbnail == null) {
+                try {
+                    thumbnail = decode(key.getPath(), ThumbnailCache.THUMBNAIL_EDGE);
+                } catch (IOException | RuntimeException e) {
+                    failed.add(key); // Corrupt or unsupported; the table still shows the file
+                    return;
+                }
+                cache.putOnDisk(key, thumbnail);
+            }
+            cache.putInMemory(key, thumbnail);
+            onLoaded.accept(thumbnail);
+        }
+    }
+}
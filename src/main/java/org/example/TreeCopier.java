@@ -0,0 +1,227 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Copies a directory tree. The whole directory structure is created up front
+ * during the walk, then file contents are copied in parallel: large files one per
+ * task through {@link FileChannel#transferTo} so the kernel moves the bytes, and
+ * small files grouped into batches so each task does a useful amount of work.
+ */
+public class TreeCopier {
+    private static final long LARGE_FILE_THRESHOLD = 4L * 1024 * 1024;
+    private static final long TRANSFER_CHUNK = 64L * 1024 * 1024;
+    private static final int BATCH_MAX_FILES = 64;
+    private static final long BATCH_MAX_BYTES = 8L * 1024 * 1024;
+
+    private final ExecutorService pool;
+    private final ResumableFileCopier resumableCopier = new ResumableFileCopier();
+
+    public TreeCopier() {
+        int threads = Math.max(4, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        this.pool = IoExecutors.newExecutor("tree-copy", threads);
+    }
+
+    /**
+     * Copies {@code source} to {@code target}, which must not exist yet. Files that
+     * fail are skipped and reported together in the exception thrown at the end; a
+     * cancelled copy fails too, with what was copied so far left in place.
+     */
+    public void copyTree(Path source, Path target, CopyOptions options, FileJobEngine.ItemProgress progress) throws IOException {
+        List<Path[]> directories = new ArrayList<>();
+        List<Path[]> files = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (progress.isCancelled()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                Path targetDir = target.resolve(source.relativize(dir).toString());
+                Files.createDirectories(targetDir);
+                directories.add(new Path[]{dir, targetDir});
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(new Path[]{file, target.resolve(source.relativize(file).toString())});
+                sizes.add(attrs.isRegularFile() ? attrs.size() : 0);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                failures.add(file + ": " + exc.getMessage()); // Skipped, with what is below it
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (exc != null) {
+                    failures.add(dir + ": " + exc.getMessage()); // Listing broke off; what was found is copied
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (progress.isCancelled()) {
+            throw new IOException("Copy cancelled: " + source);
+        }
+
+        List<Future<?>> tasks = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (int i = 0; i < files.size(); i++) {
+            long size = sizes.get(i);
+            if (size >= LARGE_FILE_THRESHOLD) {
+                Path[] pair = files.get(i);
+                tasks.add(pool.submit(() -> copyOne(pair[0], pair[1], options, progress, failures)));
+                continue;
+            }
+            batch.add(i);
+            batchBytes += size;
+            if (batch.size() >= BATCH_MAX_FILES || batchBytes >= BATCH_MAX_BYTES) {
+                tasks.add(submitBatch(batch, files, options, progress, failures));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            tasks.add(submitBatch(batch, files, options, progress, failures));
+        }
+
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while copying " + source);
+            } catch (ExecutionException e) {
+                failures.add(e.getCause().toString());
+            }
+        }
+        if (progress.isCancelled()) {
+            throw new IOException("Copy cancelled: " + source); // Files not started yet were skipped
+        }
+
+        // Writing the files touched every directory's timestamp, so restore them last, deepest first
+        if (options.isPreserveAttributes()) {
+            for (int i = directories.size() - 1; i >= 0; i--) {
+                try {
+                    copyAttributes(directories.get(i)[0], directories.get(i)[1]);
+                } catch (IOException e) {
+                    failures.add(directories.get(i)[0] + ": " + e.getMessage());
+                }
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IOException(failures.size() + " entries could not be copied, first: " + failures.get(0));
+        }
+    }
+
+    private Future<?> submitBatch(List<Integer> batch, List<Path[]> files, CopyOptions options,
+                                  FileJobEngine.ItemProgress progress, List<String> failures) {
+        return pool.submit(() -> {
+            for (int index : batch) {
+                Path[] pair = files.get(index);
+                copyOne(pair[0], pair[1], options, progress, failures);
+            }
+        });
+    }
+
+    private void copyOne(Path source, Path target, CopyOptions options, FileJobEngine.ItemProgress progress, List<String> failures) {
+        if (progress.isCancelled()) {
+            return;
+        }
+        try {
+            MountLimiter.shared().call(source, () -> {
+                copyFile(source, target, options, progress);
+                return null;
+            });
+        } catch (IOException e) {
+            failures.add(source + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copies a single file, picking the method by size: the chunked resumable copy
+     * for huge files, {@link #transfer} for large ones and {@link Files#copy} otherwise.
+     * An existing target, such as the placeholder left by {@link NameAllocator#claim}, is replaced.
+     */
+    public void copyFile(Path source, Path target, CopyOptions options, FileJobEngine.ItemProgress progress) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isRegularFile() || attrs.size() < LARGE_FILE_THRESHOLD) {
+            if (options.isPreserveAttributes()) {
+                Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
+            } else {
+                Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+            }
+            progress.addBytes(attrs.isRegularFile() ? attrs.size() : 0);
+            return;
+        }
+
+        if (attrs.size() >= ResumableFileCopier.RESUMABLE_THRESHOLD) {
+            resumableCopier.copy(source, target, options.getVerification(), progress);
+        } else {
+            transfer(source, target, progress);
+        }
+        if (options.isPreserveAttributes()) {
+            copyAttributes(source, target);
+        }
+    }
+
+    /**
+     * Copies one file with {@link FileChannel#transferTo}, which lets the kernel move
+     * the bytes without passing them through Java buffers where the OS supports it.
+     */
+    public static void transfer(Path source, Path target, FileJobEngine.ItemProgress progress) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            // transferTo may move fewer bytes than asked for, and smaller chunks keep progress moving
+            while (position < size) {
+                if (progress.isCancelled()) {
+                    throw new IOException("Copy cancelled: " + source);
+                }
+                long transferred = in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                progress.addBytes(transferred);
+            }
+        }
+    }
+
+    private static void copyAttributes(Path source, Path target) throws IOException {
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source, LinkOption.NOFOLLOW_LINKS));
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (targetView != null) {
+            PosixFileAttributes sourceAttributes = Files.readAttributes(source, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            targetView.setPermissions(sourceAttributes.permissions());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes directory trees on a work-stealing pool. Each directory is its own task:
+ * its entries are streamed, files are deleted as they come, subdirectories are
+ * deleted in parallel in small groups, and the directory itself goes once all of
+ * its children are gone. Only a group of subdirectory paths per level is held in
+ * memory, never the whole tree. Symbolic links are deleted, not followed. Every
+ * stat and delete takes a permit from {@link MountLimiter#shared()}, like other leaf I/O.
+ */
+public class TreeDeleter {
+    private static final int SUBDIRECTORY_GROUP = 32;
+    private static final int MAX_REPORTED_FAILURES = 1000;
+
+    public static class DeleteReport {
+        private final long filesDeleted;
+        private final long directoriesDeleted;
+        private final long bytesFreed;
+        private final int failureCount;
+        private final List<FileJobEngine.ItemFailure> failures;
+        private final boolean cancelled;
+
+        DeleteReport(long filesDeleted, long directoriesDeleted, long bytesFreed, int failureCount,
+                     List<FileJobEngine.ItemFailure> failures, boolean cancelled) {
+            this.filesDeleted = filesDeleted;
+            this.directoriesDeleted = directoriesDeleted;
+            this.bytesFreed = bytesFreed;
+            this.failureCount = failureCount;
+            this.failures = failures;
+            this.cancelled = cancelled;
+        }
+
+        public long getFilesDeleted() {
+            return filesDeleted;
+        }
+
+        public long getDirectoriesDeleted() {
+            return directoriesDeleted;
+        }
+
+        public long getBytesFreed() {
+            return bytesFreed;
+        }
+
+        /**
+         * Number of entries that could not be deleted; may be more than {@link #getFailures()} holds.
+         */
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        public List<FileJobEngine.ItemFailure> getFailures() {
+            return failures;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isComplete() {
+            return failureCount == 0 && !cancelled;
+        }
+
+        @Override
+        public String toString() {
+            String summary = filesDeleted + " files and " + directoriesDeleted + " folders deleted";
+            if (failureCount > 0) {
+                summary += ", " + failureCount + " failed, first: " + failures.get(0);
+            }
+            return cancelled ? summary + " (cancelled)" : summary;
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    public TreeDeleter() {
+        int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("tree-delete-" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+    }
+
+    /**
+     * Deletes {@code root}, which may be a file or a directory, and everything below it.
+     * Entries that fail are skipped, along with the directories that contain them.
+     */
+    public DeleteReport delete(Path root, FileJobEngine.ItemProgress progress) {
+        Deletion deletion = new Deletion(progress);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory()) {
+                pool.invoke(new DeleteTask(root, deletion));
+            } else {
+                deletion.deleteFile(root, attrs.size());
+            }
+        } catch (IOException e) {
+            deletion.fail(root, e);
+        }
+        return deletion.report();
+    }
+
+    // Shared counters for one call to delete
+    private static class Deletion {
+        private final FileJobEngine.ItemProgress progress;
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong directories = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger failureCount = new AtomicInteger();
+        private final List<FileJobEngine.ItemFailure> failures = Collections.synchronizedList(new ArrayList<>());
+
+        Deletion(FileJobEngine.ItemProgress progress) {
+            this.progress = progress;
+        }
+
+        boolean deleteFile(Path file, long size) {
+            try {
+                MountLimiter.shared().call(file, () -> {
+                    Files.delete(file);
+                    return null;
+                });
+            } catch (NoSuchFileException e) {
+                return true; // Someone else got there first, which is what we wanted
+            } catch (IOException e) {
+                fail(file, e);
+                return false;
+            }
+            files.incrementAndGet();
+            bytes.addAndGet(size);
+            progress.addBytes(size);
+            return true;
+        }
+
+        void fail(Path path, IOException e) {
+            // Keep the first few for the report; the count stays exact
+            if (failureCount.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+                failures.add(new FileJobEngine.ItemFailure(path, e.toString()));
+            }
+            FileManagerLogger.logError("Failed to delete " + path + ": " + e.getMessage());
+        }
+
+        DeleteReport report() {
+            List<FileJobEngine.ItemFailure> failureSnapshot;
+            synchronized (failures) {
+                failureSnapshot = new ArrayList<>(failures);
+            }
+            return new DeleteReport(files.get(), directories.get(), bytes.get(), failureCount.get(),
+                    Collections.unmodifiableList(failureSnapshot), progress.isCancelled());
+        }
+    }
+
+    private static class DeleteTask extends RecursiveAction {
+        private final Path directory;
+        private final Deletion deletion;
+        private boolean emptied = true;
+
+        DeleteTask(Path directory, Deletion deletion) {
+            this.directory = directory;
+            this.deletion = deletion;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> group = new ArrayList<>(SUBDIRECTORY_GROUP);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (deletion.progress.isCancelled()) {
+                        emptied = false;
+                        break;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = MountLimiter.shared().call(entry,
+                                () -> Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    } catch (IOException e) {
+                        deletion.fail(entry, e);
+                        emptied = false;
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        group.add(new DeleteTask(entry, deletion));
+                        if (group.size() == SUBDIRECTORY_GROUP) {
+                            runGroup(group);
+                        }
+                    } else if (!deletion.deleteFile(entry, attrs.size())) {
+                        emptied = false;
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                deletion.fail(directory, e);
+                emptied = false;
+            }
+            runGroup(group);
+
+            // A child that failed keeps this directory alive; that failure is already reported
+            if (emptied && !deletion.progress.isCancelled()) {
+                try {
+                    MountLimiter.shared().call(directory, () -> {
+                        Files.delete(directory);
+                        return null;
+                    });
+                    deletion.directories.incrementAndGet();
+                } catch (NoSuchFileException e) {
+                    // Already gone
+                } catch (IOException e) {
+                    deletion.fail(directory, e);
+                    emptied = false;
+                }
+            }
+        }
+
+        private void runGroup(List<DeleteTask> group) {
+            if (group.isEmpty()) {
+                return;
+            }
+            for (DeleteTask subtask : ForkJoinTask.invokeAll(group)) {
+                if (!subtask.emptied) {
+                    emptied = false;
+                }
+            }
+            group.clear();
+        }
+    }
+}
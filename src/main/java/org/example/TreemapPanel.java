@@ -0,0 +1,224 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Draws the children of one folder in a {@link DiskUsageTree} as a squarified treemap:
+ * each a rectangle with an area in proportion to its size, laid out in rows so they
+ * stay close to square, with big folders showing their own contents inside them.
+ * Clicking a folder calls the open listener with it.
+ */
+public class TreemapPanel extends JComponent {
+    private static final int MAX_DEPTH = 3;
+    private static final int HEADER_HEIGHT = 14; // Room for a folder's name above its contents
+    private static final double MIN_NESTED_AREA = 40 * 40;
+
+    private static final class Tile {
+        private final int node;
+        private final int depth;
+        private final float hue;
+        private final Rectangle2D.Double bounds;
+
+        Tile(int node, int depth, float hue, Rectangle2D.Double bounds) {
+            this.node = node;
+            this.depth = depth;
+            this.hue = hue;
+            this.bounds = bounds;
+        }
+    }
+
+    private DiskUsageTree tree;
+    private int node;
+    private IntConsumer openListener = opened -> { };
+    // Layout is kept until the tree, the folder or the size changes
+    private List<Tile> tiles = new ArrayList<>();
+    private int laidOutVersion = -1;
+    private Dimension laidOutSize;
+
+    public TreemapPanel() {
+        setPreferredSize(new Dimension(500, 400));
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                Tile tile = tileAt(e.getPoint(), 0);
+                if (tile != null && tree.isDirectory(tile.node)) {
+                    openListener.accept(tile.node);
+                }
+            }
+        });
+    }
+
+    public void setOpenListener(IntConsumer openListener) {
+        this.openListener = openListener;
+    }
+
+    public void setNode(DiskUsageTree tree, int node) {
+        this.tree = tree;
+        this.node = node;
+        laidOutVersion = -1;
+        repaint();
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        Tile tile = tileAt(event.getPoint(), MAX_DEPTH);
+        if (tile == null) {
+            return null;
+        }
+        return tree.getPath(tile.node) + " - " + FileManagerUI.humanReadableByteCountSI(tree.getSize(tile.node));
+    }
+
+    // The deepest tile under the point, no deeper than maxDepth
+    private Tile tileAt(Point point, int maxDepth) {
+        Tile found = null;
+        for (Tile tile : tiles) {
+            if (tile.depth <= maxDepth && tile.bounds.contains(point) && (found == null || tile.depth >= found.depth)) {
+                found = tile;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D graphics = (Graphics2D) g;
+        graphics.setColor(getBackground() != null ? getBackground() : Color.WHITE);
+        graphics.fillRect(0, 0, getWidth(), getHeight());
+        if (tree == null) {
+            return;
+        }
+        if (laidOutVersion != tree.getVersion() || !getSize().equals(laidOutSize)) {
+            laidOutVersion = tree.getVersion();
+            laidOutSize = getSize();
+            tiles = new ArrayList<>();
+            layout(node, new Rectangle2D.Double(0, 0, getWidth(), getHeight()), 0, -1f);
+        }
+        FontMetrics metrics = graphics.getFontMetrics();
+        for (Tile tile : tiles) {
+            Rectangle2D.Double bounds = tile.bounds;
+            boolean directory = tree.isDirectory(tile.node);
+            float brightness = Math.max(0.45f, 0.95f - tile.depth * 0.12f);
+            graphics.setColor(Color.getHSBColor(tile.hue, directory ? 0.45f : 0.25f, brightness));
+            graphics.fill(bounds);
+            graphics.setColor(Color.GRAY);
+            graphics.draw(bounds);
+            String name = tree.getName(tile.node);
+            if (bounds.width > metrics.stringWidth(name) + 6 && bounds.height > metrics.getHeight()) {
+                graphics.setColor(Color.BLACK);
+                graphics.drawString(name, (float) bounds.x + 3, (float) bounds.y + metrics.getAscent());
+            }
+        }
+    }
+
+    private void layout(int parent, Rectangle2D.Double area, int depth, float hue) {
+        int[] children = tree.getChildren(parent);
+        long[] sizes = new long[children.length];
+        Integer[] order = new Integer[children.length];
+        for (int i = 0; i < children.length; i++) {
+            sizes[i] = tree.getSize(children[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a])); // Squarifying wants the biggest first
+        int count = 0;
+        double total = 0;
+        while (count < order.length && sizes[order[count]] > 0) {
+            total += sizes[order[count]];
+            count++;
+        }
+        if (count == 0 || area.width < 1 || area.height < 1) {
+            return;
+        }
+        double[] areas = new double[count];
+        double scale = area.width * area.height / total;
+        for (int i = 0; i < count; i++) {
+            areas[i] = sizes[order[i]] * scale;
+        }
+        Rectangle2D.Double[] bounds = squarify(areas, area);
+        for (int i = 0; i < count; i++) {
+            Rectangle2D.Double rectangle = bounds[i];
+            if (rectangle.width < 1 || rectangle.height < 1) {
+                continue; // Too small to see; the rest are smaller still or squeezed out
+            }
+            int child = children[order[i]];
+            float tileHue = depth == 0 ? (i * 0.618034f) % 1f : hue; // Golden-ratio steps keep neighbours apart
+            tiles.add(new Tile(child, depth, tileHue, rectangle));
+            if (depth + 1 < MAX_DEPTH && tree.isDirectory(child)
+                    && rectangle.width * rectangle.height >= MIN_NESTED_AREA && rectangle.height > HEADER_HEIGHT * 2) {
+                layout(child, new Rectangle2D.Double(rectangle.x + 2, rectangle.y + HEADER_HEIGHT,
+                        rectangle.width - 4, rectangle.height - HEADER_HEIGHT - 2), depth + 1, tileHue);
+            }
+        }
+    }
+
+    /**
+     * Squarified layout (Bruls, Huizing, van Wijk): areas, biggest first, are added to a
+     * row along the shorter side of what is left for as long as that improves the row's
+     * worst aspect ratio; then the row is fixed and the rest goes in the remaining space.
+     */
+    static Rectangle2D.Double[] squarify(double[] areas, Rectangle2D.Double area) {
+        Rectangle2D.Double[] result = new Rectangle2D.Double[areas.length];
+        double x = area.x;
+        double y = area.y;
+        double width = area.width;
+        double height = area.height;
+        int start = 0;
+        while (start < areas.length) {
+            double side = Math.min(width, height);
+            double rowSum = 0;
+            double worst = Double.MAX_VALUE;
+            int end = start;
+            while (end < areas.length) {
+                double sum = rowSum + areas[end];
+                double candidate = worstRatio(areas[start], areas[end], sum, side);
+                if (end > start && candidate > worst) {
+                    break;
+                }
+                worst = candidate;
+                rowSum = sum;
+                end++;
+            }
+            if (width >= height) {
+                // A column down the left edge
+                double columnWidth = height > 0 ? rowSum / height : 0;
+                double top = y;
+                for (int i = start; i < end; i++) {
+                    double tileHeight = columnWidth > 0 ? areas[i] / columnWidth : 0;
+                    result[i] = new Rectangle2D.Double(x, top, columnWidth, tileHeight);
+                    top += tileHeight;
+                }
+                x += columnWidth;
+                width -= columnWidth;
+            } else {
+                // A row along the top edge
+                double rowHeight = width > 0 ? rowSum / width : 0;
+                double left = x;
+                for (int i = start; i < end; i++) {
+                    double tileWidth = rowHeight > 0 ? areas[i] / rowHeight : 0;
+                    result[i] = new Rectangle2D.Double(left, y, tileWidth, rowHeight);
+                    left += tileWidth;
+                }
+                y += rowHeight;
+                height -= rowHeight;
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    // Sorted biggest first, so the row's extremes are its first and last areas
+    private static double worstRatio(double largest, double smallest, double sum, double side) {
+        double sideSquared = side * side;
+        double sumSquared = sum * sum;
+        return Math.max(sideSquared * largest / sumSquared, sumSquared / (sideSquared * smallest));
+    }
+}
@@ -0,0 +1,389 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes folders and files into a new zip, deflating entries on several threads at
+ * once. {@link ZipOutputStream} compresses one entry after the other, so instead each
+ * entry is deflated raw by a pool task - into memory when small, into a temporary
+ * file when large - and one writer puts the finished entries into the zip in order
+ * with their headers, never holding more than a few ahead in memory.
+ *
+ * <p>Archives that would need zip64 (over 65535 entries or about 4 GB) go through
+ * {@code ZipOutputStream}, which handles zip64 itself.
+ */
+public class ZipCompressor {
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL - 64L * 1024 * 1024; // Headroom for headers
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final long IN_MEMORY_LIMIT = 8L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService pool;
+    private final int window;
+
+    private static final class Item {
+        private final Path source;
+        private final String name; // '/'-separated, folders ending in '/'
+        private final boolean directory;
+        private final long size;
+        private final long lastModified;
+
+        Item(Path source, String name, boolean directory, long size, long lastModified) {
+            this.source = source;
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class Compressed {
+        private final int method;
+        private final long crc;
+        private final long size;        // As read, which is what counts if the file changed since the walk
+        private final long compressedSize;
+        private final byte[] data;      // Deflated bytes, or null
+        private final Path spillFile;   // Deflated bytes of a big file, or null
+
+        Compressed(int method, long crc, long size, long compressedSize, byte[] data, Path spillFile) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+            this.spillFile = spillFile;
+        }
+    }
+
+    private static final class CentralRecord {
+        private final Item item;
+        private final Compressed compressed;
+        private final long offset;
+
+        CentralRecord(Item item, Compressed compressed, long offset) {
+            this.item = item;
+            this.compressed = compressed;
+            this.offset = offset;
+        }
+    }
+
+    public ZipCompressor() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.pool = IoExecutors.newExecutor("zip-deflate", threads);
+        this.window = threads * 2; // Entries finished ahead of the writer, at most
+    }
+
+    /**
+     * Zips the sources, each under its own name at the top of the archive, into
+     * {@code zipFile}, which must not exist yet or be empty. Uncompressed bytes go to {@code progress}.
+     */
+    public void compress(List<Path> sources, Path zipFile, FileJobEngine.ItemProgress progress) throws IOException {
+        if (Files.exists(zipFile, LinkOption.NOFOLLOW_LINKS) && Files.size(zipFile) > 0) {
+            throw new FileAlreadyExistsException(zipFile.toString());
+        }
+        List<Item> items = collect(sources);
+        long total = 0;
+        for (Item item : items) {
+            total += item.size + item.name.length() * 2L + 128;
+        }
+        try {
+            if (items.size() >= MAX_ENTRIES || total >= ZIP32_LIMIT) {
+                compressSequentially(items, zipFile, progress);
+            } else {
+                compressInParallel(items, zipFile, progress);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(zipFile);
+            throw e;
+        }
+    }
+
+    private static List<Item> collect(List<Path> sources) throws IOException {
+        List<Item> items = new ArrayList<>();
+        for (Path source : sources) {
+            Path base = source.toAbsolutePath().normalize().getParent();
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    items.add(new Item(dir, nameOf(base, dir) + "/", true, 0, attrs.lastModifiedTime().toMillis()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) { // Links and devices have no place in a zip
+                        items.add(new Item(file, nameOf(base, file), false, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return items;
+    }
+
+    private static String nameOf(Path base, Path path) {
+        Path relative = base == null ? path.getFileName() : base.relativize(path.toAbsolutePath().normalize());
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    private void compressInParallel(List<Item> items, Path zipFile, FileJobEngine.ItemProgress progress) throws IOException {
+        Deque<Future<Compressed>> inFlight = new ArrayDeque<>();
+        List<CentralRecord> central = new ArrayList<>(items.size());
+        int next = 0;
+        try (FileChannel out = FileChannel.open(zipFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            for (int written = 0; written < items.size(); written++) {
+                while (next < items.size() && inFlight.size() < window) {
+                    Item item = items.get(next++);
+                    inFlight.add(pool.submit(() -> deflate(item, zipFile, progress)));
+                }
+                Item item = items.get(written);
+                Compressed compressed = await(inFlight.poll());
+                if (progress.isCancelled()) {
+                    deleteSpill(compressed);
+                    throw new IOException("Compression cancelled");
+                }
+                central.add(new CentralRecord(item, compressed, out.position()));
+                writeLocalHeader(out, item, compressed);
+                writeData(out, item, compressed);
+                progress.addBytes(compressed.size);
+            }
+            writeCentralDirectory(out, central);
+        } finally {
+            // After a failure, let the entries already started finish so their temporary files can go
+            for (Future<Compressed> pending : inFlight) {
+                try {
+                    deleteSpill(pending.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // It cleaned up after itself
+                }
+            }
+        }
+    }
+
+    private static Compressed await(Future<Compressed> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Runs on the pool: deflates one entry with no zlib header, as zip wants it
+    private static Compressed deflate(Item item, Path zipFile, FileJobEngine.ItemProgress progress) throws IOException {
+        if (item.directory || progress.isCancelled()) {
+            return new Compressed(ZipEntry.STORED, 0, 0, 0, null, null);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        Path spill = item.size > IN_MEMORY_LIMIT ? Files.createTempFile(zipFile.toAbsolutePath().getParent(), ".zip-", ".part") : null;
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE];
+        ByteBuffer memory = ByteBuffer.allocate((int) Math.min(IN_MEMORY_LIMIT, Math.max(1024, item.size / 2)));
+        try (InputStream in = Files.newInputStream(item.source);
+             OutputStream spillOut = spill != null ? Files.newOutputStream(spill) : null) {
+            long size = 0;
+            long compressedSize = 0;
+            int read;
+            while (true) {
+                read = in.read(input);
+                if (read < 0) {
+                    deflater.finish();
+                } else {
+                    crc.update(input, 0, read);
+                    size += read;
+                    deflater.setInput(input, 0, read);
+                }
+                while (read < 0 ? !deflater.finished() : !deflater.needsInput()) {
+                    int count = deflater.deflate(output);
+                    compressedSize += count;
+                    if (spillOut != null) {
+                        spillOut.write(output, 0, count);
+                    } else {
+                        if (memory.remaining() < count) {
+                            memory = grow(memory, count);
+                        }
+                        memory.put(output, 0, count);
+                    }
+                }
+                if (read < 0) {
+                    break;
+                }
+            }
+            byte[] data = spill == null ? Arrays.copyOf(memory.array(), memory.position()) : null;
+            return new Compressed(ZipEntry.DEFLATED, crc.getValue(), size, compressedSize, data, spill);
+        } catch (IOException | RuntimeException e) {
+            if (spill != null) {
+                Files.deleteIfExists(spill);
+            }
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        return bigger.put(buffer);
+    }
+
+    private static void writeData(FileChannel out, Item item, Compressed compressed) throws IOException {
+        if (compressed.data != null) {
+            writeFully(out, ByteBuffer.wrap(compressed.data));
+        } else if (compressed.spillFile != null) {
+            try (FileChannel in = FileChannel.open(compressed.spillFile, StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < compressed.compressedSize) {
+                    position += in.transferTo(position, compressed.compressedSize - position, out);
+                }
+            } finally {
+                deleteSpill(compressed);
+            }
+        }
+    }
+
+    private static void deleteSpill(Compressed compressed) {
+        if (compressed != null && compressed.spillFile != null) {
+            try {
+                Files.deleteIfExists(compressed.spillFile);
+            } catch (IOException e) {
+                FileManagerLogger.logError("Failed to delete temporary file: " + compressed.spillFile);
+            }
+        }
+    }
+
+    private static void writeLocalHeader(FileChannel out, Item item, Compressed compressed) throws IOException {
+        byte[] name = item.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(30 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x04034b50);
+        header.putShort((short) 20);          // Version needed: 2.0, deflate
+        header.putShort((short) 0x0800);      // Names are UTF-8
+        header.putShort((short) compressed.method);
+        header.putInt(dosTime(item.lastModified));
+        header.putInt((int) compressed.crc);
+        header.putInt((int) compressed.compressedSize);
+        header.putInt((int) compressed.size);
+        header.putShort((short) name.length);
+        header.putShort((short) 0);
+        header.put(name);
+        header.flip();
+        writeFully(out, header);
+    }
+
+    private static void writeCentralDirectory(FileChannel out, List<CentralRecord> central) throws IOException {
+        long start = out.position();
+        for (CentralRecord record : central) {
+            byte[] name = record.item.name.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(46 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0x02014b50);
+            header.putShort((short) (3 << 8 | 20)); // Made by: Unix, 2.0
+            header.putShort((short) 20);
+            header.putShort((short) 0x0800);
+            header.putShort((short) record.compressed.method);
+            header.putInt(dosTime(record.item.lastModified));
+            header.putInt((int) record.compressed.crc);
+            header.putInt((int) record.compressed.compressedSize);
+            header.putInt((int) record.compressed.size);
+            header.putShort((short) name.length);
+            header.putShort((short) 0);             // Extra field
+            header.putShort((short) 0);             // Comment
+            header.putShort((short) 0);             // Disk
+            header.putShort((short) 0);             // Internal attributes
+            header.putInt(record.item.directory ? 0x41ED0010 : 0x81A40000); // rwxr-xr-x folder, rw-r--r-- file
+            header.putInt((int) record.offset);
+            header.put(name);
+            header.flip();
+            writeFully(out, header);
+        }
+        long size = out.position() - start;
+        ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) central.size());
+        end.putShort((short) central.size());
+        end.putInt((int) size);
+        end.putInt((int) start);
+        end.putShort((short) 0);
+        end.flip();
+        writeFully(out, end);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // MS-DOS date and time, two-second resolution, no earlier than 1980
+    private static int dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private static void compressSequentially(List<Item> items, Path zipFile, FileJobEngine.ItemProgress progress) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (Item item : items) {
+                if (progress.isCancelled()) {
+                    throw new IOException("Compression cancelled");
+                }
+                ZipEntry entry = new ZipEntry(item.name);
+                entry.setTime(item.lastModified);
+                out.putNextEntry(entry);
+                if (!item.directory) {
+                    try (InputStream in = Files.newInputStream(item.source)) {
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            out.write(buffer, 0, read);
+                            progress.addBytes(read);
+                        }
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
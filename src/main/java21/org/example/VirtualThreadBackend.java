@@ -0,0 +1,19 @@
+package org.example;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A virtual thread per task; found by {@link IoExecutors} when the build includes it.
+ */
+public class VirtualThreadBackend implements IoExecutors.Backend {
+    @Override
+    public ExecutorService newExecutor(String name, int platformThreads) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+}